@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.benchmark;
+
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import org.uichuimi.coat.core.generator.MistGenerator;
+import org.uichuimi.coat.core.generator.VcfGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Synthetic data for the benchmarks, made by the generators with a fixed seed, so every run measures
+ * the same input.
+ * <p>
+ * VCF files have the INFO fields of {@link VcfGenerator}, with the frequency arrays (KG_AF...) and as
+ * many extra fields as needed to reach the requested INFO width.
+ */
+final class BenchmarkData {
+
+    static final long SEED = VcfGenerator.DEFAULT_SEED;
+
+    private BenchmarkData() {
+    }
+
+    static VcfGenerator vcf(int count, int samples, int infoWidth) {
+        final VcfGenerator generator = new VcfGenerator();
+        generator.setSeed(SEED);
+        generator.setVariants(count);
+        generator.setSamples(samples);
+        generator.setArrayFrequencies(true);
+        generator.setExtraInfos(Math.max(0, infoWidth - generator.getInfoWidth()));
+        return generator;
+    }
+
+    static List<String> header(int samples, int infoWidth) {
+        return vcf(0, samples, infoWidth).getHeader();
+    }
+
+    static List<String> lines(int count, int samples, int infoWidth) {
+        final List<String> lines = new ArrayList<>(count);
+        vcf(count, samples, infoWidth).lines().forEachRemaining(lines::add);
+        return lines;
+    }
+
+    static File writeVcf(int count, int samples, int infoWidth) throws IOException {
+        final File file = File.createTempFile("coat-benchmark", ".vcf");
+        file.deleteOnExit();
+        vcf(count, samples, infoWidth).write(file);
+        return file;
+    }
+
+    /**
+     * @return a codec with the header already read, ready to decode lines
+     */
+    static VCFCodec codec(int samples, int infoWidth) {
+        final VCFCodec codec = new VCFCodec();
+        final Iterator<String> iterator = header(samples, infoWidth).iterator();
+        codec.readActualHeader(new LineIterator() {
+            private String next = iterator.hasNext() ? iterator.next() : null;
+
+            @Override
+            public String peek() {
+                return next;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                final String current = next;
+                next = iterator.hasNext() ? iterator.next() : null;
+                return current;
+            }
+        });
+        return codec;
+    }
+
+    static VCFHeader vcfHeader(int samples, int infoWidth) {
+        return codec(samples, infoWidth).getHeader();
+    }
+
+    static MistGenerator mist(long seed, int count, int exons) {
+        final MistGenerator generator = new MistGenerator();
+        generator.setSeed(seed);
+        generator.setRows(count);
+        generator.setExons(exons);
+        return generator;
+    }
+
+    static List<String[]> mistRows(long seed, int count, int exons) {
+        final List<String[]> rows = new ArrayList<>(count);
+        mist(seed, count, exons).rows().forEachRemaining(rows::add);
+        return rows;
+    }
+
+    static File writeMist(long seed, int count, int exons) throws IOException {
+        final File file = File.createTempFile("coat-benchmark", ".mist");
+        file.deleteOnExit();
+        mist(seed, count, exons).write(file);
+        return file;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.benchmark;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uichuimi.coat.view.ArrayFreqFilter;
+import org.uichuimi.coat.view.lightreader.LightSampleFilter;
+import org.uichuimi.coat.view.lightreader.LightVcfFilter;
+import org.uichuimi.coat.view.lightreader.VcfLine;
+import org.uichuimi.coat.view.vcfreader.Zigosity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Cost of the filters of the light reader, on decoded variants and on raw lines. Raw lines are wrapped
+ * in a new {@link VcfLine} on every operation, as the parallel reader does, so the cost of locating
+ * columns is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(FilterBenchmark.VARIANTS)
+public class FilterBenchmark {
+
+    static final int VARIANTS = 10_000;
+
+    @Param({"1", "10", "100"})
+    private int samples;
+
+    @Param({"8", "64"})
+    private int infoWidth;
+
+    private VCFCodec codec;
+    private List<String> lines;
+    private List<VariantContext> variants;
+    private LightVcfFilter infoFilter;
+    private Predicate<VcfLine> infoLinePredicate;
+    private ArrayFreqFilter arrayFreqFilter;
+    private Predicate<VcfLine> arrayFreqLinePredicate;
+    private LightSampleFilter sampleFilter;
+    private Predicate<VcfLine> sampleLinePredicate;
+
+    @Setup
+    public void setup() {
+        codec = BenchmarkData.codec(samples, infoWidth);
+        lines = BenchmarkData.lines(VARIANTS, samples, infoWidth);
+        variants = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            final VariantContext variant = codec.decode(line);
+            // Genotypes are parsed lazily, as in the reader
+            variant.getGenotype(0);
+            variants.add(variant);
+        }
+        LightVcfFilter.setVcfHeader(codec.getHeader());
+        infoFilter = new LightVcfFilter("INFO", "DP", LightVcfFilter.Connector.MORE_THAN, 50);
+        infoLinePredicate = infoFilter.getLinePredicate();
+        arrayFreqFilter = new ArrayFreqFilter("KG_AF", LightVcfFilter.Connector.LESS_THAN, 0.01);
+        arrayFreqLinePredicate = arrayFreqFilter.getLinePredicate();
+        // The last sample, the most expensive one to find in the line
+        sampleFilter = new LightSampleFilter("S" + (samples - 1));
+        sampleFilter.unset(Zigosity.WILD);
+        sampleFilter.unset(Zigosity.NO_CALL);
+        sampleLinePredicate = sampleFilter.getLinePredicate();
+    }
+
+    @Benchmark
+    public int lightVcfFilterVariant() {
+        int passed = 0;
+        for (VariantContext variant : variants) if (infoFilter.filter(variant)) passed++;
+        return passed;
+    }
+
+    @Benchmark
+    public int lightVcfFilterLine() {
+        int passed = 0;
+        for (String line : lines) if (infoLinePredicate.test(new VcfLine(line, codec))) passed++;
+        return passed;
+    }
+
+    @Benchmark
+    public int arrayFreqFilterVariant() {
+        int passed = 0;
+        for (VariantContext variant : variants) if (arrayFreqFilter.filter(variant)) passed++;
+        return passed;
+    }
+
+    @Benchmark
+    public int arrayFreqFilterLine() {
+        int passed = 0;
+        for (String line : lines) if (arrayFreqLinePredicate.test(new VcfLine(line, codec))) passed++;
+        return passed;
+    }
+
+    @Benchmark
+    public int lightSampleFilterVariant() {
+        int passed = 0;
+        for (VariantContext variant : variants) if (sampleFilter.filter(variant)) passed++;
+        return passed;
+    }
+
+    @Benchmark
+    public int lightSampleFilterLine() {
+        int passed = 0;
+        for (String line : lines) if (sampleLinePredicate.test(new VcfLine(line, codec))) passed++;
+        return passed;
+    }
+
+    /**
+     * Cost of decoding, that line predicates try to avoid
+     */
+    @Benchmark
+    public int decode() {
+        int alleles = 0;
+        for (String line : lines) alleles += codec.decode(line).getNAlleles();
+        return alleles;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uichuimi.coat.core.mist.MistCombiner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to combine MIST files, reading and writing included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MistCombinerBenchmark {
+
+    @Param({"2", "8"})
+    private int files;
+
+    @Param({"10000", "100000"})
+    private int rows;
+
+    private MistCombiner combiner;
+
+    @Setup
+    public void setup() throws IOException {
+        final List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < files; i++) inputs.add(BenchmarkData.writeMist(BenchmarkData.SEED + i, rows, rows));
+        final File output = File.createTempFile("coat-benchmark", ".mist");
+        output.deleteOnExit();
+        combiner = new MistCombiner(inputs, output);
+    }
+
+    @Benchmark
+    public int combine() {
+        return combiner.combineAndSave();
+    }
+}
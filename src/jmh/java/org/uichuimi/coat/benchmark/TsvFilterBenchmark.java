@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uichuimi.coat.core.tsv.TSVFilter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link TSVFilter} on MIST rows, for each connector.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(TsvFilterBenchmark.ROWS)
+public class TsvFilterBenchmark {
+
+    static final int ROWS = 10_000;
+
+    @Param({"EQUALS", "GREATER", "CONTAINS", "MATCHES"})
+    private TSVFilter.Connector connector;
+
+    private List<String[]> rows;
+    private TSVFilter filter;
+
+    @Setup
+    public void setup() {
+        rows = BenchmarkData.mistRows(BenchmarkData.SEED, ROWS, ROWS / 2);
+        filter = new TSVFilter();
+        filter.setSelectedConnector(connector);
+        switch (connector) {
+            case GREATER:
+                // exon_start, a number
+                filter.setSelectedIndex(1);
+                filter.setValue("50000");
+                break;
+            case CONTAINS:
+                // gene_name
+                filter.setSelectedIndex(6);
+                filter.setValue("G1");
+                break;
+            case MATCHES:
+                // exon_id
+                filter.setSelectedIndex(8);
+                filter.setValue("ENSE[0-9]*7");
+                break;
+            default:
+                // match
+                filter.setSelectedIndex(11);
+                filter.setValue("inside");
+        }
+    }
+
+    @Benchmark
+    public int filter() {
+        int passed = 0;
+        for (String[] row : rows) if (filter.filter(row)) passed++;
+        return passed;
+    }
+}
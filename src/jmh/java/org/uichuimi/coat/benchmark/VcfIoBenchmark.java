@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.benchmark;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uichuimi.coat.view.lightreader.BatchFilter;
+import org.uichuimi.coat.view.lightreader.LightVcfFilter;
+import org.uichuimi.vcf.io.VariantReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read and export throughput of whole files. The light reader paths use {@link BatchFilter}, so they
+ * include the parallel scan and, for exports, writing the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VcfIoBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int samples;
+
+    @Param({"8", "64"})
+    private int infoWidth;
+
+    @Param({"vcf", "vcf.gz", "tsv"})
+    private String format;
+
+    @Param({"50000"})
+    private int variants;
+
+    private File input;
+    private File output;
+    private int workers;
+
+    @Setup
+    public void setup() throws IOException {
+        input = BenchmarkData.writeVcf(variants, samples, infoWidth);
+        output = File.createTempFile("coat-benchmark", "." + format);
+        output.deleteOnExit();
+        new File(output + ".tbi").deleteOnExit();
+        workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Scans the file without keeping any variant, the cost of a filter that discards everything
+     */
+    @Benchmark
+    public long scan() throws IOException, InterruptedException {
+        final BatchFilter filter = new BatchFilter(input);
+        filter.addFilter(new LightVcfFilter("EXPRESSION", null, null, "false"));
+        filter.run(output, workers, null);
+        return filter.getTotal();
+    }
+
+    /**
+     * Exports every variant in the format of the output
+     */
+    @Benchmark
+    public long export() throws IOException, InterruptedException {
+        final BatchFilter filter = new BatchFilter(input);
+        filter.run(output, workers, null);
+        return filter.getPassed();
+    }
+
+    @Benchmark
+    public int readHtsjdk() {
+        int count = 0;
+        try (VCFFileReader reader = new VCFFileReader(input, false)) {
+            for (VariantContext ignored : reader) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int readVcfIo() throws IOException {
+        int count = 0;
+        try (VariantReader reader = new VariantReader(input)) {
+            while (reader.hasNext()) {
+                reader.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uichuimi.coat.core.vcf.VcfStats;
+import org.uichuimi.vcf.io.VariantReader;
+import org.uichuimi.vcf.variant.Variant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compute the INFO statistics of a file already in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VcfStatsBenchmark {
+
+    @Param({"1", "10"})
+    private int samples;
+
+    @Param({"8", "64"})
+    private int infoWidth;
+
+    @Param({"10000"})
+    private int variants;
+
+    private final List<Variant> loaded = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        final File file = BenchmarkData.writeVcf(variants, samples, infoWidth);
+        try (VariantReader reader = new VariantReader(file)) {
+            while (reader.hasNext()) loaded.add(reader.next());
+        }
+    }
+
+    @Benchmark
+    public VcfStats stats() {
+        return new VcfStats(loaded);
+    }
+}
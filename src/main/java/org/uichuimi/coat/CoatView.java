@@ -40,6 +40,7 @@ import org.uichuimi.coat.core.tool.Tool;
 import org.uichuimi.coat.core.tool.ToolMenu;
 import org.uichuimi.coat.utils.FileManager;
 import org.uichuimi.coat.utils.OS;
+import org.uichuimi.coat.view.graphic.DiagnosticsPane;
 import org.uichuimi.coat.view.graphic.MemoryPane;
 import org.uichuimi.coat.view.graphic.SizableImageView;
 import org.uichuimi.coat.view.lightreader.LightVcfReader;
@@ -319,6 +320,18 @@ public class CoatView {
 		workspace.getSelectionModel().select(t);
 	}
 
+	@FXML
+	private void showDiagnostics(ActionEvent event) {
+		final DiagnosticsPane pane = new DiagnosticsPane();
+		final Scene scene = new Scene(pane);
+		final Stage stage = new Stage();
+		stage.setTitle(OS.getString("diagnostics"));
+		scene.getStylesheets().addAll("css/default.css");
+		stage.setScene(scene);
+		stage.setOnHidden(e -> pane.stop());
+		stage.show();
+	}
+
 	private void showBigConsole() {
 		final ScrollPane pane = new ScrollPane(bigConsole);
 		Scene scene = new Scene(pane);
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat;
+
+/**
+ * Base of the commands that run from the command line without the user interface. Arguments are
+ * parsed before the command runs, so wrong arguments are reported with the usage and never leave
+ * half written files.
+ */
+abstract class Command {
+
+	private final String usage;
+
+	/**
+	 * @param usage the help printed with <code>--help</code> and after wrong arguments
+	 */
+	Command(String usage) {
+		this.usage = usage;
+	}
+
+	/**
+	 * @param args the arguments after the name of the command
+	 * @return the exit code: 0 on success, 1 if the command failed and 2 for wrong arguments
+	 */
+	int run(String[] args) {
+		try {
+			if (!parse(args)) {
+				System.out.println(usage);
+				return 0;
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(usage);
+			return 2;
+		}
+		return execute();
+	}
+
+	/**
+	 * Reads and validates the arguments.
+	 *
+	 * @return false if help was requested
+	 * @throws IllegalArgumentException if any argument is wrong, with a message for the user
+	 */
+	abstract boolean parse(String[] args);
+
+	/**
+	 * @return the exit code, 0 on success
+	 */
+	abstract int execute();
+
+	/**
+	 * @return the argument at position i, which is the value of the option at i - 1
+	 */
+	static String value(String[] args, int i) {
+		if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		return args[i];
+	}
+
+	/**
+	 * @return the argument at position i as a number
+	 */
+	static long number(String[] args, int i) {
+		try {
+			return Long.parseLong(value(args, i));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number for " + args[i - 1] + ": " + args[i]);
+		}
+	}
+
+	/**
+	 * @return the message of the exception, or its class when it has no message
+	 */
+	static String describe(Exception e) {
+		return e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat;
+
+import org.uichuimi.coat.core.metrics.Metrics;
+import org.uichuimi.coat.view.lightreader.BatchFilter;
+import org.uichuimi.coat.view.lightreader.FilterPreset;
+import org.uichuimi.coat.view.lightreader.FilterStats;
+import org.uichuimi.coat.view.lightreader.LightSampleFilter;
+import org.uichuimi.coat.view.lightreader.LightVcfFilter;
+import org.uichuimi.coat.view.vcfreader.Zigosity;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Filters a VCF file from the command line, without the user interface:
+ * <pre>
+ * coat filter --filters filters.json --sample S1=HET,HOM --samples S1,S2 in.vcf.gz -o out.vcf.gz
+ * </pre>
+ * Filters are read from a {@link FilterPreset} file. Progress and throughput are printed to the error
+ * output, so the output file can be written to any path.
+ */
+class FilterCommand extends Command {
+
+	private static final String USAGE = String.join("\n",
+			"Usage: coat filter [options] input.vcf[.gz] -o output(.vcf|.vcf.gz|.tsv)",
+			"  -o, --output FILE        where to write the variants that pass the filters",
+			"  -f, --filters FILE       JSON file with the filters to apply",
+			"  -e, --expression EXPR    filter expression, like 'INFO/DP > 10 and FILTER = \"PASS\"'",
+			"  -s, --sample NAME=ZIGS   keep variants where sample NAME has one of the comma",
+			"                           separated zigosities (HOM, HET, WILD, NO_CALL)",
+			"      --samples S1,S2,...  samples to write in VCF output, all by default",
+			"  -t, --threads N          number of filtering threads",
+			"  -q, --quiet              do not print progress",
+			"  -m, --metrics FILE       write the time spent in each stage as JSON",
+			"  -h, --help               print this help");
+	/**
+	 * Milliseconds between progress messages
+	 */
+	private static final long PROGRESS_INTERVAL = 5000;
+
+	private final PrintStream log = System.err;
+	private File input;
+	private File output;
+	private File filters;
+	private File metrics;
+	private final List<String> expressions = new ArrayList<>();
+	private final List<LightSampleFilter> sampleFilters = new ArrayList<>();
+	private List<String> samples;
+	private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private boolean quiet;
+	private long lastProgress;
+
+	FilterCommand() {
+		super(USAGE);
+	}
+
+	@Override
+	boolean parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "-h":
+				case "--help":
+					return false;
+				case "-o":
+				case "--output":
+					output = new File(value(args, ++i));
+					break;
+				case "-f":
+				case "--filters":
+					filters = new File(value(args, ++i));
+					break;
+				case "-e":
+				case "--expression":
+					expressions.add(value(args, ++i));
+					break;
+				case "-s":
+				case "--sample":
+					sampleFilters.add(parseSampleFilter(value(args, ++i)));
+					break;
+				case "--samples":
+					samples = Arrays.asList(value(args, ++i).split(","));
+					break;
+				case "-t":
+				case "--threads":
+					threads = (int) number(args, ++i);
+					if (threads < 1) throw new IllegalArgumentException("At least 1 thread is needed");
+					break;
+				case "-m":
+				case "--metrics":
+					metrics = new File(value(args, ++i));
+					break;
+				case "-q":
+				case "--quiet":
+					quiet = true;
+					break;
+				default:
+					if (args[i].startsWith("-")) throw new IllegalArgumentException("Unknown option " + args[i]);
+					if (input != null) throw new IllegalArgumentException("Only one input file is allowed");
+					input = new File(args[i]);
+			}
+		}
+		if (input == null) throw new IllegalArgumentException("Missing input file");
+		if (output == null) throw new IllegalArgumentException("Missing output file");
+		if (!input.isFile()) throw new IllegalArgumentException("File not found: " + input);
+		if (filters != null && !filters.isFile()) throw new IllegalArgumentException("File not found: " + filters);
+		return true;
+	}
+
+	@Override
+	int execute() {
+		try {
+			final BatchFilter batchFilter = new BatchFilter(input);
+			if (filters != null) {
+				final FilterPreset preset = FilterPreset.read(filters);
+				preset.getFilters().forEach(batchFilter::addFilter);
+				preset.getSampleFilters().forEach(batchFilter::addSampleFilter);
+			}
+			for (String expression : expressions)
+				batchFilter.addFilter(new LightVcfFilter(LightVcfFilter.EXPRESSION, null, null, expression));
+			sampleFilters.forEach(batchFilter::addSampleFilter);
+			if (samples != null) batchFilter.setSamples(samples);
+			lastProgress = System.currentTimeMillis();
+			Metrics.get().reset();
+			batchFilter.run(output, threads, quiet ? null : this::progress);
+			printSummary(batchFilter);
+			if (metrics != null) Metrics.get().write(metrics);
+			return 0;
+		} catch (Exception e) {
+			log.println("Error filtering " + input + ": " + describe(e));
+			return 1;
+		}
+	}
+
+	private static LightSampleFilter parseSampleFilter(String value) {
+		final int equals = value.indexOf('=');
+		if (equals <= 0) throw new IllegalArgumentException("Expected NAME=ZIGOSITIES, found " + value);
+		final LightSampleFilter filter = new LightSampleFilter(value.substring(0, equals));
+		final List<Zigosity> accepted = new ArrayList<>();
+		for (String zigosity : value.substring(equals + 1).split(",")) {
+			try {
+				accepted.add(Zigosity.valueOf(zigosity.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown zigosity " + zigosity + " in " + value
+						+ ", expected HOM, HET, WILD or NO_CALL");
+			}
+		}
+		for (Zigosity zigosity : Zigosity.values())
+			if (!accepted.contains(zigosity)) filter.unset(zigosity);
+		return filter;
+	}
+
+	private void progress(long total, long passed) {
+		final long now = System.currentTimeMillis();
+		if (now - lastProgress < PROGRESS_INTERVAL) return;
+		lastProgress = now;
+		log.println(String.format(Locale.US, "%,d variants read, %,d passed", total, passed));
+	}
+
+	private void printSummary(BatchFilter batchFilter) {
+		final double seconds = batchFilter.getElapsed() / 1e9;
+		log.println(String.format(Locale.US, "%,d of %,d variants passed in %.1f s (%,.0f variants/s)",
+				batchFilter.getPassed(), batchFilter.getTotal(), seconds, batchFilter.getTotal() / seconds));
+		for (LightSampleFilter filter : batchFilter.getSampleFilters())
+			printStats(filter.getSample() + " " + getZigosities(filter), filter.getStats());
+		for (LightVcfFilter filter : batchFilter.getFilters())
+			printStats(describe(filter), filter.getStats());
+		if (!quiet) log.print(Metrics.get().report());
+	}
+
+	private static String describe(LightVcfFilter filter) {
+		if (LightVcfFilter.EXPRESSION.equals(filter.getColumn())) return String.valueOf(filter.getValue());
+		return filter.getColumn() + " " + (filter.getKey() == null ? "" : filter.getKey() + " ")
+				+ filter.getConnector().name() + (filter.getValue() == null ? "" : " " + filter.getValue());
+	}
+
+	private static List<Zigosity> getZigosities(LightSampleFilter filter) {
+		final List<Zigosity> zigosities = new ArrayList<>();
+		for (Zigosity zigosity : Zigosity.values()) if (filter.has(zigosity)) zigosities.add(zigosity);
+		return zigosities;
+	}
+
+	private void printStats(String name, FilterStats stats) {
+		log.println(String.format(Locale.US, "  %s: %.1f%% passed, %.0f ns per variant",
+				name, 100 * stats.getPassRate(), stats.getCost()));
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat;
+
+import org.uichuimi.coat.core.generator.MistGenerator;
+import org.uichuimi.coat.core.generator.TsvGenerator;
+import org.uichuimi.coat.core.generator.VcfGenerator;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Generates synthetic files from the command line, to test and benchmark at scale without real data:
+ * <pre>
+ * coat generate vcf --records 10000000 --samples 2000 --frequencies 40 --transcripts 3 -o big.vcf.gz
+ * </pre>
+ * The same arguments and seed always generate the same file.
+ */
+class GenerateCommand extends Command {
+
+	private static final String USAGE = String.join("\n",
+			"Usage: coat generate (vcf|mist|tsv) [options] -o output",
+			"  -o, --output FILE        file to write, VCF files ending in .gz are bgzipped and indexed",
+			"  -n, --records N          number of variants or rows",
+			"      --seed N             seed of the random generator",
+			"VCF options:",
+			"      --samples N          number of samples",
+			"      --contigs N          number of contigs",
+			"      --genes N            number of distinct genes",
+			"      --frequencies N      number of population frequency fields",
+			"      --arrays             add the population frequency arrays (KG_AF...)",
+			"      --transcripts N      VEP consequences (CSQ) per allele",
+			"      --infos N            number of extra INFO fields",
+			"MIST options:",
+			"      --exons N            number of distinct exons",
+			"TSV options:",
+			"      --columns N          number of columns",
+			"      --cardinality N      number of distinct values per column",
+			"  -h, --help               print this help");
+
+	private final VcfGenerator vcf = new VcfGenerator();
+	private final MistGenerator mist = new MistGenerator();
+	private final TsvGenerator tsv = new TsvGenerator();
+	private String type;
+	private File output;
+
+	GenerateCommand() {
+		super(USAGE);
+	}
+
+	@Override
+	boolean parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "-h":
+				case "--help":
+					return false;
+				case "-o":
+				case "--output":
+					output = new File(value(args, ++i));
+					break;
+				case "-n":
+				case "--records":
+					final long records = number(args, ++i);
+					vcf.setVariants(records);
+					mist.setRows(records);
+					tsv.setRows(records);
+					break;
+				case "--seed":
+					final long seed = number(args, ++i);
+					vcf.setSeed(seed);
+					mist.setSeed(seed);
+					tsv.setSeed(seed);
+					break;
+				case "--samples":
+					vcf.setSamples((int) number(args, ++i));
+					break;
+				case "--contigs":
+					vcf.setContigs((int) number(args, ++i));
+					break;
+				case "--genes":
+					vcf.setGenes((int) number(args, ++i));
+					break;
+				case "--frequencies":
+					vcf.setFrequencies((int) number(args, ++i));
+					break;
+				case "--arrays":
+					vcf.setArrayFrequencies(true);
+					break;
+				case "--transcripts":
+					vcf.setTranscripts((int) number(args, ++i));
+					break;
+				case "--infos":
+					vcf.setExtraInfos((int) number(args, ++i));
+					break;
+				case "--exons":
+					mist.setExons((int) number(args, ++i));
+					break;
+				case "--columns":
+					tsv.setColumns((int) number(args, ++i));
+					break;
+				case "--cardinality":
+					tsv.setCardinality((int) number(args, ++i));
+					break;
+				default:
+					if (args[i].startsWith("-")) throw new IllegalArgumentException("Unknown option " + args[i]);
+					if (type != null) throw new IllegalArgumentException("Only one type of file is allowed");
+					type = args[i];
+			}
+		}
+		if (type == null) throw new IllegalArgumentException("Missing type of file");
+		if (!type.matches("vcf|mist|tsv")) throw new IllegalArgumentException("Unknown type of file: " + type);
+		if (output == null) throw new IllegalArgumentException("Missing output file");
+		return true;
+	}
+
+	@Override
+	int execute() {
+		final long start = System.nanoTime();
+		try {
+			switch (type) {
+				case "vcf":
+					vcf.write(output);
+					break;
+				case "mist":
+					mist.write(output);
+					break;
+				default:
+					tsv.write(output);
+			}
+		} catch (Exception e) {
+			System.err.println("Error writing " + output + ": " + describe(e));
+			return 1;
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format(Locale.US, "%s written in %.1f s (%,.1f MB/s)", output, seconds,
+				output.length() / 1e6 / seconds));
+		return 0;
+	}
+}
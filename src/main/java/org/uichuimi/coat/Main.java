@@ -1,8 +1,14 @@
 package org.uichuimi.coat;
 
+import java.util.Arrays;
+
 public class Main {
 
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("filter"))
+			System.exit(new FilterCommand().run(Arrays.copyOfRange(args, 1, args.length)));
+		if (args.length > 0 && args[0].equals("generate"))
+			System.exit(new GenerateCommand().run(Arrays.copyOfRange(args, 1, args.length)));
 		Coat.main(args);
 	}
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.core.generator;
+
+import org.uichuimi.coat.core.mist.MistCombiner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Generates synthetic MIST files, with the columns of {@link MistCombiner}. Each row is a poor region
+ * of an exon taken at random from a pool, so files generated with different seeds and the same pool
+ * share part of their exons, as files of different samples do. The content only depends on the
+ * parameters and the seed, and rows are generated while they are written.
+ */
+public class MistGenerator {
+
+    private long seed = VcfGenerator.DEFAULT_SEED;
+    private long rows = 10_000;
+    private int exons = 10_000;
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setRows(long rows) {
+        if (rows < 0) throw new IllegalArgumentException("Number of rows can not be negative");
+        this.rows = rows;
+    }
+
+    /**
+     * @param exons size of the pool of exons
+     */
+    public void setExons(int exons) {
+        if (exons < 1) throw new IllegalArgumentException("At least 1 exon is needed");
+        this.exons = exons;
+    }
+
+    public List<String> getHeader() {
+        return MistCombiner.getHeader();
+    }
+
+    /**
+     * @return the rows, generated while they are iterated
+     */
+    public Iterator<String[]> rows() {
+        final Random random = new Random(seed);
+        return new Iterator<>() {
+            private long index;
+
+            @Override
+            public boolean hasNext() {
+                return index < rows;
+            }
+
+            @Override
+            public String[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                index++;
+                final int exon = random.nextInt(exons);
+                final int start = 1000 + exon * 500;
+                final int poorStart = start + random.nextInt(150);
+                final int gene = exon / 10;
+                return new String[]{String.valueOf(1 + exon % 22), String.valueOf(start), String.valueOf(start + 200),
+                        String.valueOf(poorStart), String.valueOf(poorStart + 1 + random.nextInt(100)),
+                        "ENSG" + gene, "G" + gene, String.valueOf(exon % 10 + 1), "ENSE" + exon, "T" + gene + "-001",
+                        "protein_coding", random.nextBoolean() ? "inside" : "overlap"};
+            }
+        };
+    }
+
+    public void write(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath())) {
+            writer.write(String.join("\t", getHeader()));
+            writer.newLine();
+            final Iterator<String[]> iterator = rows();
+            while (iterator.hasNext()) {
+                writer.write(String.join("\t", iterator.next()));
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.core.generator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Generates synthetic TSV files, with a header line and a fixed number of distinct values per column.
+ * Columns alternate text values (V0, V1...) and numbers. The content only depends on the parameters
+ * and the seed, and rows are generated while they are written.
+ */
+public class TsvGenerator {
+
+    private long seed = VcfGenerator.DEFAULT_SEED;
+    private long rows = 10_000;
+    private int columns = 10;
+    private int cardinality = 100;
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setRows(long rows) {
+        if (rows < 0) throw new IllegalArgumentException("Number of rows can not be negative");
+        this.rows = rows;
+    }
+
+    public void setColumns(int columns) {
+        if (columns < 1) throw new IllegalArgumentException("At least 1 column is needed");
+        this.columns = columns;
+    }
+
+    /**
+     * @param cardinality number of distinct values in each column
+     */
+    public void setCardinality(int cardinality) {
+        if (cardinality < 1) throw new IllegalArgumentException("At least 1 distinct value is needed");
+        this.cardinality = cardinality;
+    }
+
+    public List<String> getHeader() {
+        final List<String> header = new ArrayList<>(columns);
+        for (int i = 1; i <= columns; i++) header.add("column_" + i);
+        return header;
+    }
+
+    /**
+     * @return the rows, generated while they are iterated
+     */
+    public Iterator<String[]> rows() {
+        final Random random = new Random(seed);
+        return new Iterator<>() {
+            private long index;
+
+            @Override
+            public boolean hasNext() {
+                return index < rows;
+            }
+
+            @Override
+            public String[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                index++;
+                final String[] row = new String[columns];
+                for (int i = 0; i < columns; i++) {
+                    final int value = random.nextInt(cardinality);
+                    row[i] = i % 2 == 0 ? "V" + value : String.valueOf(value);
+                }
+                return row;
+            }
+        };
+    }
+
+    public void write(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath())) {
+            writer.write(String.join("\t", getHeader()));
+            writer.newLine();
+            final Iterator<String[]> iterator = rows();
+            while (iterator.hasNext()) {
+                writer.write(String.join("\t", iterator.next()));
+                writer.newLine();
+            }
+        }
+    }
+}
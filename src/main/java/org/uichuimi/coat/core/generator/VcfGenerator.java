@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.core.generator;
+
+import org.uichuimi.coat.core.vcf.FrequencyFields;
+import org.uichuimi.coat.view.lightreader.VcfOutput;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Generates synthetic VCF files. The content only depends on the parameters and the seed, so the same
+ * file can be generated again anywhere. Lines are generated one at a time, so files of any size are
+ * written with constant memory.
+ * <p>
+ * Every variant has the INFO fields DP, AF (one value per ALT allele), GENE and, half of the times,
+ * the flag DB. Optionally, variants can also have:
+ * <ul>
+ * <li>population frequencies, taken in order from {@link FrequencyFields#POPULATION}, each of them
+ * present in 30% of the variants</li>
+ * <li>the frequency arrays of {@link FrequencyFields#ARRAYS}, with 3 populations per allele separated
+ * by |, present in 75% of the variants</li>
+ * <li>VEP consequences (CSQ), with a number of transcripts per ALT allele</li>
+ * <li>extra Float fields, named X1, X2...</li>
+ * </ul>
+ * Samples, named S0, S1..., have GT, DP and AD. Variants are sorted and spread over the contigs, and
+ * consecutive variants share their gene, so the number of genes is the number of distinct GENE values.
+ * Most frequencies are rare (below 0.02), as in real data.
+ */
+public class VcfGenerator {
+
+    public static final long DEFAULT_SEED = 20200501L;
+
+    static final String CSQ_FORMAT = "Allele|Consequence|IMPACT|SYMBOL|Gene|Feature_type|Feature|BIOTYPE|EXON|HGVSc|Existing_variation";
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final String[] CONSEQUENCES = {"missense_variant", "synonymous_variant", "intron_variant",
+            "3_prime_UTR_variant", "splice_region_variant", "stop_gained", "frameshift_variant"};
+    private static final String[] IMPACTS = {"MODERATE", "LOW", "MODIFIER", "MODIFIER", "LOW", "HIGH", "HIGH"};
+    private static final int CONTIG_LENGTH = 250_000_000;
+    private static final int FIRST_POSITION = 1000;
+    /**
+     * Populations in each allele of the frequency arrays
+     */
+    private static final int POPULATIONS = 3;
+
+    private long seed = DEFAULT_SEED;
+    private long variants = 10_000;
+    private int samples = 1;
+    private int contigs = 22;
+    private int genes = 20_000;
+    private int frequencies;
+    private boolean arrayFrequencies;
+    private int transcripts;
+    private int extraInfos;
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setVariants(long variants) {
+        if (variants < 0) throw new IllegalArgumentException("Number of variants can not be negative");
+        this.variants = variants;
+    }
+
+    public void setSamples(int samples) {
+        if (samples < 0) throw new IllegalArgumentException("Number of samples can not be negative");
+        this.samples = samples;
+    }
+
+    public void setContigs(int contigs) {
+        if (contigs < 1) throw new IllegalArgumentException("At least 1 contig is needed");
+        this.contigs = contigs;
+    }
+
+    /**
+     * @param genes number of distinct genes
+     */
+    public void setGenes(int genes) {
+        if (genes < 1) throw new IllegalArgumentException("At least 1 gene is needed");
+        this.genes = genes;
+    }
+
+    /**
+     * @param frequencies number of population frequency fields, at most the size of
+     *                    {@link FrequencyFields#POPULATION}
+     */
+    public void setFrequencies(int frequencies) {
+        if (frequencies < 0 || frequencies > FrequencyFields.POPULATION.size())
+            throw new IllegalArgumentException("Number of frequencies must be between 0 and "
+                    + FrequencyFields.POPULATION.size());
+        this.frequencies = frequencies;
+    }
+
+    public void setArrayFrequencies(boolean arrayFrequencies) {
+        this.arrayFrequencies = arrayFrequencies;
+    }
+
+    /**
+     * @param transcripts number of CSQ entries per ALT allele, 0 to not annotate consequences
+     */
+    public void setTranscripts(int transcripts) {
+        if (transcripts < 0) throw new IllegalArgumentException("Number of transcripts can not be negative");
+        this.transcripts = transcripts;
+    }
+
+    /**
+     * @param extraInfos number of extra Float INFO fields
+     */
+    public void setExtraInfos(int extraInfos) {
+        if (extraInfos < 0) throw new IllegalArgumentException("Number of INFO fields can not be negative");
+        this.extraInfos = extraInfos;
+    }
+
+    /**
+     * @return number of INFO fields declared in the header
+     */
+    public int getInfoWidth() {
+        return 4 + frequencies + (arrayFrequencies ? FrequencyFields.ARRAYS.size() : 0)
+                + (transcripts > 0 ? 1 : 0) + extraInfos;
+    }
+
+    public List<String> getHeader() {
+        final List<String> header = new ArrayList<>();
+        header.add("##fileformat=VCFv4.2");
+        header.add("##source=Coat synthetic data, seed " + seed);
+        header.add("##FILTER=<ID=LowQual,Description=\"Low quality\">");
+        header.add("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">");
+        header.add("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">");
+        header.add("##INFO=<ID=GENE,Number=1,Type=String,Description=\"Gene name\">");
+        header.add("##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP member\">");
+        for (String key : getFrequencyKeys())
+            header.add("##INFO=<ID=" + key + ",Number=A,Type=Float,Description=\"Population frequency\">");
+        if (arrayFrequencies) for (String key : FrequencyFields.ARRAYS)
+            header.add("##INFO=<ID=" + key + ",Number=A,Type=String,Description=\"Population frequencies, separated by |\">");
+        if (transcripts > 0)
+            header.add("##INFO=<ID=CSQ,Number=.,Type=String,Description=\"Consequence annotations from Ensembl VEP. Format: "
+                    + CSQ_FORMAT + "\">");
+        for (int i = 1; i <= extraInfos; i++)
+            header.add("##INFO=<ID=X" + i + ",Number=1,Type=Float,Description=\"Extra field\">");
+        header.add("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        header.add("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">");
+        header.add("##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allele depths\">");
+        for (int contig = 1; contig <= contigs; contig++)
+            header.add("##contig=<ID=" + contig + ",length=" + CONTIG_LENGTH + ">");
+        final StringBuilder columns = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        if (samples > 0) columns.append("\tFORMAT");
+        for (int i = 0; i < samples; i++) columns.append("\tS").append(i);
+        header.add(columns.toString());
+        return header;
+    }
+
+    private List<String> getFrequencyKeys() {
+        return new ArrayList<>(FrequencyFields.POPULATION).subList(0, frequencies);
+    }
+
+    /**
+     * @return the data lines, generated while they are iterated
+     */
+    public Iterator<String> lines() {
+        final Lines lines = new Lines();
+        final StringBuilder builder = new StringBuilder();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return lines.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!lines.hasNext()) throw new NoSuchElementException();
+                builder.setLength(0);
+                lines.next(builder);
+                return builder.toString();
+            }
+        };
+    }
+
+    /**
+     * Writes the header and the variants. Files ending in .gz are compressed with BGZF and indexed.
+     */
+    public void write(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(VcfOutput.open(file), StandardCharsets.US_ASCII))) {
+            for (String line : getHeader()) writer.append(line).append('\n');
+            final Lines lines = new Lines();
+            final StringBuilder builder = new StringBuilder();
+            while (lines.hasNext()) {
+                builder.setLength(0);
+                lines.next(builder);
+                writer.append(builder).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Generates the data lines in order, with its own random source, so each pass over the lines
+     * generates the same ones.
+     */
+    private class Lines {
+
+        private final Random random = new Random(seed);
+        private final List<String> frequencyKeys = getFrequencyKeys();
+        private final long perContig = Math.max(1, (variants + contigs - 1) / contigs);
+        private final int maxGap = (int) Math.max(2, 2 * ((CONTIG_LENGTH - FIRST_POSITION) / (perContig + 1)));
+        private final String[] alts = new String[2];
+        private long index;
+        private long position;
+
+        boolean hasNext() {
+            return index < variants;
+        }
+
+        void next(StringBuilder builder) {
+            if (index % perContig == 0) position = FIRST_POSITION;
+            else position += 1 + random.nextInt(maxGap - 1);
+            final long gene = index * genes / Math.max(1, variants);
+            final String ref = BASES[random.nextInt(BASES.length)];
+            final int alleles = random.nextInt(10) == 0 ? 2 : 1;
+            final int shift = 1 + random.nextInt(BASES.length - alleles);
+            for (int a = 0; a < alleles; a++) alts[a] = other(ref, shift + a);
+            final String id = random.nextInt(3) == 0 ? "rs" + (1 + random.nextInt(100_000_000)) : null;
+            builder.append(1 + index / perContig).append('\t').append(position)
+                    .append('\t').append(id == null ? "." : id)
+                    .append('\t').append(ref).append('\t').append(alts[0]);
+            for (int a = 1; a < alleles; a++) builder.append(',').append(alts[a]);
+            builder.append('\t');
+            appendFixed(builder, random.nextInt(100_000), 100);
+            builder.append('\t').append(random.nextInt(5) == 0 ? "LowQual" : "PASS");
+            builder.append("\tDP=").append(random.nextInt(200));
+            builder.append(";AF=");
+            appendFrequencies(builder, alleles, 1, ',');
+            builder.append(";GENE=G").append(gene);
+            if (random.nextBoolean()) builder.append(";DB");
+            for (String key : frequencyKeys)
+                if (random.nextInt(10) < 3) {
+                    builder.append(';').append(key).append('=');
+                    appendFrequencies(builder, alleles, 1, ',');
+                }
+            if (arrayFrequencies) for (String key : FrequencyFields.ARRAYS)
+                if (random.nextInt(4) != 0) {
+                    builder.append(';').append(key).append('=');
+                    appendFrequencies(builder, alleles, POPULATIONS, ',');
+                }
+            if (transcripts > 0) {
+                builder.append(";CSQ=");
+                for (int a = 0; a < alleles; a++)
+                    for (int t = 0; t < transcripts; t++) {
+                        if (a > 0 || t > 0) builder.append(',');
+                        appendConsequence(builder, ref, alts[a], gene, t, id);
+                    }
+            }
+            for (int x = 1; x <= extraInfos; x++) {
+                builder.append(";X").append(x).append('=');
+                appendFixed(builder, random.nextInt(1000), 1000);
+            }
+            if (samples > 0) builder.append("\tGT:DP:AD");
+            for (int s = 0; s < samples; s++) {
+                builder.append('\t');
+                appendSample(builder, alleles);
+            }
+            index++;
+        }
+
+        /**
+         * Appends count groups of frequencies, with populations values each, separated by | inside a
+         * group and by the separator between groups
+         */
+        private void appendFrequencies(StringBuilder builder, int count, int populations, char separator) {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) builder.append(separator);
+                for (int p = 0; p < populations; p++) {
+                    if (p > 0) builder.append('|');
+                    // Most variants are rare
+                    appendFixed(builder, random.nextInt(3) == 0 ? random.nextInt(10_000) : random.nextInt(200), 10_000);
+                }
+            }
+        }
+
+        private void appendConsequence(StringBuilder builder, String ref, String alt, long gene, int transcript,
+                                       String id) {
+            final int consequence = random.nextInt(CONSEQUENCES.length);
+            builder.append(alt).append('|').append(CONSEQUENCES[consequence]).append('|').append(IMPACTS[consequence])
+                    .append("|G").append(gene).append("|ENSG");
+            appendPadded(builder, gene, 11);
+            builder.append("|Transcript|ENST");
+            appendPadded(builder, gene * 10 + transcript, 11);
+            builder.append("|protein_coding|").append(1 + random.nextInt(20)).append("/20|c.")
+                    .append(1 + random.nextInt(3000)).append(ref).append('>').append(alt)
+                    .append('|');
+            if (id != null) builder.append(id);
+        }
+
+        private void appendSample(StringBuilder builder, int alleles) {
+            final int genotype = random.nextInt(100);
+            if (genotype < 60) builder.append("0/0");
+            else if (genotype < 85) builder.append(alleles > 1 && genotype < 70 ? "0/2" : "0/1");
+            else if (genotype < 95) builder.append(alleles > 1 && genotype < 90 ? "1/2" : "1/1");
+            else {
+                builder.append("./.:.:.");
+                return;
+            }
+            final int depth = random.nextInt(100);
+            final int refDepth = random.nextInt(depth + 1);
+            builder.append(':').append(depth).append(':').append(refDepth);
+            for (int a = 0; a < alleles; a++) builder.append(',').append((depth - refDepth) / alleles);
+        }
+    }
+
+    private static String other(String ref, int shift) {
+        for (int i = 0; i < BASES.length; i++)
+            if (BASES[i].equals(ref)) return BASES[(i + shift) % BASES.length];
+        return "N";
+    }
+
+    /**
+     * Appends value / scale with as many decimals as zeros in scale, without the cost of
+     * String.format()
+     */
+    static void appendFixed(StringBuilder builder, int value, int scale) {
+        final int fraction = value % scale;
+        builder.append(value / scale).append('.');
+        for (int d = scale / 10; d > 1 && fraction < d; d /= 10) builder.append('0');
+        builder.append(fraction);
+    }
+
+    private static void appendPadded(StringBuilder builder, long value, int width) {
+        final String text = Long.toString(value);
+        for (int i = text.length(); i < width; i++) builder.append('0');
+        builder.append(text);
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.core.metrics;
+
+import org.uichuimi.coat.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of runtime metrics of the processing stages: counters, timers and histograms, that can be
+ * updated from any thread at a low cost, and gauges, that are read when the metrics are shown.
+ * <p>
+ * Metrics are created the first time they are requested and never removed, so classes can keep them
+ * in static fields. {@link #reset()} sets all of them back to zero. Names use dots to group related
+ * metrics: a timer named <code>read</code> measures a stage, and the counters
+ * <code>read.records</code> and <code>read.bytes</code> count what the stage processed.
+ * <p>
+ * Rates are measured over the time some task was active, between {@link #begin()} and
+ * {@link #end()}, so idle time between scans does not lower them.
+ */
+public final class Metrics {
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile long start = System.nanoTime();
+    /**
+     * Number of running tasks, when the current active window started and the time of the previous
+     * windows. Guarded by this
+     */
+    private int active;
+    private long activeStart;
+    private long activeTotal;
+
+    /**
+     * @return the registry shared by the whole application
+     */
+    public static Metrics get() {
+        return DEFAULT;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Registers a value that is read when metrics are shown, such as the size of a queue. A gauge
+     * with the same name is replaced.
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Removes the gauge only if it was not replaced by another one.
+     */
+    public void removeGauge(String name, LongSupplier supplier) {
+        gauges.remove(name, supplier);
+    }
+
+    /**
+     * Sets every counter, timer and histogram to zero, and starts measuring rates again.
+     */
+    public void reset() {
+        counters.values().forEach(Counter::reset);
+        timers.values().forEach(Timer::reset);
+        histograms.values().forEach(Histogram::reset);
+        start = System.nanoTime();
+        synchronized (this) {
+            activeTotal = 0;
+            activeStart = start;
+        }
+    }
+
+    /**
+     * Marks the start of a task, such as a scan. Every call must be followed by a call to
+     * {@link #end()}.
+     */
+    public synchronized void begin() {
+        if (active++ == 0) activeStart = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a task started with {@link #begin()}.
+     */
+    public synchronized void end() {
+        if (active > 0 && --active == 0) activeTotal += System.nanoTime() - activeStart;
+    }
+
+    /**
+     * @return nanoseconds since the metrics were created or reset
+     */
+    public long getElapsed() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return nanoseconds since the metrics were created or reset while at least one task was running
+     */
+    public synchronized long getActive() {
+        return active > 0 ? activeTotal + System.nanoTime() - activeStart : activeTotal;
+    }
+
+    public SortedMap<String, Counter> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    public SortedMap<String, Timer> getTimers() {
+        return new TreeMap<>(timers);
+    }
+
+    public SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * @return the current value of every gauge
+     */
+    public SortedMap<String, Long> getGauges() {
+        final SortedMap<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, supplier) -> values.put(name, supplier.getAsLong()));
+        return values;
+    }
+
+    /**
+     * @return the amount counted per active second, or 0 if no task was run yet
+     */
+    public double getRate(long count) {
+        final long active = getActive();
+        return active <= 0 ? 0 : count * 1e9 / active;
+    }
+
+    /**
+     * Summary of the stages, one line per timer: records and bytes processed, from the counters
+     * named as the timer with the suffixes <code>.records</code> and <code>.bytes</code>, throughput
+     * while tasks were active, time and its share among the stages, and the 99th percentile of each execution. Timers with a
+     * dot in their name measure waits, so they are not counted in the shares. Timers that were never
+     * used are skipped. Gauges go at the end.
+     */
+    public String report() {
+        final SortedMap<String, Timer> timers = getTimers();
+        long stagesTotal = 0;
+        for (Map.Entry<String, Timer> entry : timers.entrySet())
+            if (entry.getKey().indexOf('.') < 0) stagesTotal += entry.getValue().getTotal();
+        final StringBuilder builder = new StringBuilder(String.format(Locale.US,
+                "%-16s %14s %12s %9s %10s %7s %11s %10s%n", "stage", "records", "records/s", "MB/s",
+                "time (s)", "share", "ns/record", "p99 (us)"));
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            final String name = entry.getKey();
+            final Timer timer = entry.getValue();
+            if (timer.getCount() == 0) continue;
+            final Counter records = counters.get(name + ".records");
+            final Counter bytes = counters.get(name + ".bytes");
+            final long count = records == null ? timer.getCount() : records.get();
+            final String share = name.indexOf('.') >= 0 || stagesTotal == 0 ? "-"
+                    : String.format(Locale.US, "%.1f%%", 100.0 * timer.getTotal() / stagesTotal);
+            builder.append(String.format(Locale.US, "%-16s %,14d %,12.0f %9s %10.2f %7s %,11.0f %,10.1f%n",
+                    name, count, getRate(count),
+                    bytes == null ? "-" : String.format(Locale.US, "%.1f", getRate(bytes.get()) / 1e6),
+                    timer.getTotal() / 1e9, share, count == 0 ? 0.0 : (double) timer.getTotal() / count,
+                    timer.getHistogram().getPercentile(0.99) / 1e3));
+        }
+        getGauges().forEach((name, value) -> builder.append(String.format(Locale.US, "%-16s %,14d%n", name, value)));
+        return builder.toString();
+    }
+
+    public JSONObject toJson() {
+        final JSONObject json = new JSONObject();
+        json.put("elapsed_ms", getElapsed() / 1_000_000);
+        json.put("active_ms", getActive() / 1_000_000);
+        final JSONObject counters = new JSONObject();
+        getCounters().forEach((name, counter) -> counters.put(name, new JSONObject()
+                .put("count", counter.get())
+                .put("per_second", getRate(counter.get()))));
+        json.put("counters", counters);
+        final JSONObject timers = new JSONObject();
+        getTimers().forEach((name, timer) -> timers.put(name, toJson(timer.getHistogram())
+                .put("count", timer.getCount())
+                .put("total_ms", timer.getTotal() / 1_000_000)));
+        json.put("timers", timers);
+        final JSONObject histograms = new JSONObject();
+        getHistograms().forEach((name, histogram) -> histograms.put(name, toJson(histogram)));
+        json.put("histograms", histograms);
+        final JSONObject gauges = new JSONObject();
+        getGauges().forEach(gauges::put);
+        json.put("gauges", gauges);
+        return json;
+    }
+
+    private static JSONObject toJson(Histogram histogram) {
+        return new JSONObject()
+                .put("samples", histogram.getCount())
+                .put("mean", histogram.getMean())
+                .put("p50", histogram.getPercentile(0.5))
+                .put("p99", histogram.getPercentile(0.99))
+                .put("max", histogram.getMax());
+    }
+
+    public void write(File file) throws IOException {
+        Files.write(file.toPath(), toJson().toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static class Counter {
+
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        void reset() {
+            count.reset();
+        }
+    }
+
+    /**
+     * Distribution of values in buckets of powers of 2, so recording a value is a couple of atomic
+     * additions. Percentiles are rounded up to the upper bound of their bucket.
+     */
+    public static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            final long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param fraction between 0 and 1, such as 0.99
+         * @return a value greater than or equal to that fraction of the recorded values
+         */
+        public long getPercentile(double fraction) {
+            final long n = count.sum();
+            if (n == 0) return 0;
+            final long rank = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * Time spent in a stage. Stages that run too often to be timed every time can time a sample of
+     * their executions, with {@link #recordSample(long, int)}, and the timer estimates the total.
+     */
+    public static class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final Histogram histogram = new Histogram();
+
+        /**
+         * @return the current time, to pass later to {@link #stop(long)}
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Records the time since start, which was returned by {@link #start()}
+         */
+        public void stop(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            histogram.record(nanos);
+        }
+
+        /**
+         * Records one execution that stands for rate executions
+         */
+        public void recordSample(long nanos, int rate) {
+            count.add(rate);
+            total.add(nanos * rate);
+            histogram.record(nanos);
+        }
+
+        /**
+         * @return number of executions
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return nanoseconds spent in all the executions
+         */
+        public long getTotal() {
+            return total.sum();
+        }
+
+        /**
+         * @return distribution of the time, in nanoseconds, of each measured execution
+         */
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        void reset() {
+            count.reset();
+            total.reset();
+            histogram.reset();
+        }
+    }
+}
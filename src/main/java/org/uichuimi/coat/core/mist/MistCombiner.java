@@ -72,11 +72,19 @@ public class MistCombiner extends Task<Integer> {
         this.output = output;
     }
 
+    /**
+     * @return the names of the columns of a MIST file, in order
+     */
+    public static List<String> getHeader() {
+        return List.of(HEADER);
+    }
+
 
     @Override
     protected Integer call() throws Exception {
         updateMessage(String.format("Combining %d files", inputFiles.size()));
         final Map<String, String[]> exons = combine();
+        updateMessage(String.format("%d matches found. Saving to file", exons.size()));
         saveToFile(exons);
         final String message = OS.getFormattedString("combine.mist.success", output.getAbsolutePath(), exons.size());
         CoatView.printMessage(message, "success");
@@ -84,6 +92,18 @@ public class MistCombiner extends Task<Integer> {
         return exons.size();
     }
 
+    /**
+     * Same as <code>call()</code>, but without reporting progress or messages, so it can run outside
+     * the JavaFX application.
+     *
+     * @return the number of exons written
+     */
+    public int combineAndSave() {
+        final Map<String, String[]> exons = combine();
+        saveToFile(exons);
+        return exons.size();
+    }
+
     /**
      * Reads entire lines from first file and only the exon id from the rest of files. Then eliminates all the exons
      * that are not in all of the files.
@@ -146,7 +166,6 @@ public class MistCombiner extends Task<Integer> {
     }
 
     private void saveToFile(Map<String, String[]> exons) {
-        updateMessage(String.format("%d matches found. Saving to file", exons.size()));
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(output))) {
             writeToFile(bw, HEADER);
             for (Map.Entry<String, String[]> entry : exons.entrySet()) writeExonInFile(bw, entry);
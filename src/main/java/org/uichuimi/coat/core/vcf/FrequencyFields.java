@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.core.vcf;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * INFO keys of population frequencies, as annotated by the usual databases.
+ */
+public final class FrequencyFields {
+
+    /**
+     * Keys with one frequency per ALT allele
+     */
+    public static final Set<String> POPULATION = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            "AA_F", "EUR_F", "AFR_F", "AMR_F", "EA_F", "ASN_F", "AA_MAF", "EUR_MAF", "AFR_MAF", "AMR_MAF", "EA_MAF",
+            "ASN_MAF", "afr_maf", "eur_maf", "amr_maf", "ea_maf", "asn_maf", "GMAF", "1KG14", "MINOR_ALLELE_FREQ",
+            "EXAC_ADJ_MAF", "EXAC_AFR_MAF", "EXAC_AMR_MAF", "EXAC_EAS_MAF", "EXAC_FIN_MAF", "EXAC_MAF",
+            "EXAC_NFE_MAF", "EXAC_OTH_MAF", "EXAC_SAS_MAF", "AFR_AF", "AMR_AF", "EAS_AF", "EUR_AF", "SAS_AF",
+            "AA_AF", "EA_AF", "ExAC_AF", "ExAC_Adj_AF", "ExAC_AFR_AF", "ExAC_AMR_AF",
+            "ExAC_EAS_AF", "ExAC_FIN_AF", "ExAC_NFE_AF", "ExAC_OTH_AF", "ExAC_SAS_AF")));
+
+    /**
+     * Keys with several populations per ALT allele, separated by |
+     */
+    public static final List<String> ARRAYS = List.of("KG_AF", "GG_AF", "GE_AF", "EX_AF");
+
+    private FrequencyFields() {
+    }
+}
@@ -56,11 +56,21 @@ public final class FileManager {
      */
     public static final FileChooser.ExtensionFilter VCF_FILTER
             = new FileChooser.ExtensionFilter("Variant Call Format (.vcf)", "*.vcf", "*.vcf.gz");
+    /**
+     * Filters compressed VCF files (.vcf.gz)
+     */
+    public static final FileChooser.ExtensionFilter VCF_GZ_FILTER
+            = new FileChooser.ExtensionFilter("Compressed Variant Call Format (.vcf.gz)", "*.vcf.gz");
     /**
      * Filters TSV files (.tsv)
      */
     public static final FileChooser.ExtensionFilter TSV_FILTER
             = new FileChooser.ExtensionFilter("Tab Separated Values (.tsv)", "*.tsv");
+    /**
+     * Filters JSON files (.json)
+     */
+    public static final FileChooser.ExtensionFilter JSON_FILTER
+            = new FileChooser.ExtensionFilter("JSON (.json)", "*.json");
     /**
      * Filters MIST files (.mist)
      */
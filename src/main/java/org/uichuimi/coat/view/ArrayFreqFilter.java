@@ -1,13 +1,23 @@
 package org.uichuimi.coat.view;
 
 import htsjdk.variant.variantcontext.VariantContext;
+import org.uichuimi.coat.view.lightreader.Decimals;
 import org.uichuimi.coat.view.lightreader.LightVcfFilter;
+import org.uichuimi.coat.view.lightreader.VcfLine;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.Predicate;
 
 public class ArrayFreqFilter extends LightVcfFilter {
 
+	/**
+	 * States of a scan: no values yet, all the values accept the filter so far, or the result is known
+	 */
+	private static final int NONE = 0;
+	private static final int OPEN = 1;
+	private static final int PASS = 2;
+	private static final int FAIL = 3;
+	private static final int UNDECIDABLE = 4;
+
 	private final String key;
 	private final Connector connector;
 	private final double value;
@@ -27,38 +37,111 @@ public class ArrayFreqFilter extends LightVcfFilter {
 	}
 
 	@Override
-	public boolean filter(VariantContext variant) {
-		final Object attribute = variant.getAttribute(getKey(), null);
+	protected Predicate<VariantContext> compile() {
+		return variant -> test(variant.getAttribute(key, null));
+	}
+
+	@Override
+	protected Predicate<VcfLine> compileLine() {
+		return this::testLine;
+	}
+
+	/**
+	 * Reads the values straight from the line. Only values that need decoding, or are not plain
+	 * decimal numbers, are read with {@link VcfLine#getInfo(String)}.
+	 */
+	private boolean testLine(VcfLine line) {
+		final long bounds = line.findInfo(key);
+		if (bounds == VcfLine.MISSING) return true;
+		if (bounds == VcfLine.FLAG) return test(line.getInfo(key));
+		if (connector == Connector.CONTAINS) return false;
+		final int state = scan(line.getLine(), VcfLine.valueStart(bounds), VcfLine.valueEnd(bounds), NONE, true);
+		return state == UNDECIDABLE ? test(line.getInfo(key)) : result(state);
+	}
+
+	private boolean test(Object attribute) {
 		if (attribute == null) return true;
-		final List<Double> values = new ArrayList<>();
+		if (connector == Connector.CONTAINS) return false;
+		int state = NONE;
 		if (attribute instanceof Iterable) {
-			final Iterable vls = (Iterable) attribute;
-			for (Object element : vls) addValues((String) element, values);
-		} else addValues((String) attribute, values);
+			for (Object element : (Iterable) attribute) {
+				final String value = (String) element;
+				state = scan(value, 0, value.length(), state, false);
+				if (state == PASS || state == FAIL) break;
+			}
+		} else {
+			final String value = (String) attribute;
+			state = scan(value, 0, value.length(), NONE, false);
+		}
+		return result(state);
+	}
+
+	/**
+	 * Tests the values, separated by , or |, in a single pass, stopping as soon as the result is
+	 * known. Missing values (.) and empty values are skipped.
+	 *
+	 * @param state the state after the previous values
+	 * @param raw   true if the characters come from the line, so percent encoded values can not be
+	 *              parsed here
+	 * @return the state after these values, or UNDECIDABLE if a raw value must be decoded first
+	 */
+	private int scan(CharSequence chars, int start, int end, int state, boolean raw) {
+		int from = start;
+		while (from < end) {
+			int to = from;
+			while (to < end && chars.charAt(to) != '|' && chars.charAt(to) != ',') to++;
+			if (to > from && !(to == from + 1 && chars.charAt(from) == '.')) {
+				if (connector == Connector.TRUE) return PASS;
+				if (connector == Connector.FALSE) return FAIL;
+				double number = Decimals.parse(chars, from, to);
+				if (Double.isNaN(number)) {
+					if (raw && contains(chars, from, to, '%')) return UNDECIDABLE;
+					number = Double.parseDouble(chars.subSequence(from, to).toString());
+				}
+				if (!accepts(number)) return FAIL;
+				state = OPEN;
+			}
+			from = to + 1;
+		}
+		return state;
+	}
+
+	private boolean accepts(double number) {
 		switch (connector) {
 			case MORE_THAN:
-				return values.stream().mapToDouble(value1 -> value1).min().orElse(-1) > value;
+				return number > value;
+			case LESS_THAN:
+				return number < value;
 			case EQUALS:
-				return values.stream().allMatch(aDouble -> aDouble == value);
-			case CONTAINS:
-				return false;
-			case TRUE:
-				return !values.isEmpty();
-			case FALSE:
-				return values.isEmpty();
 			case IS_NOT:
-				return values.stream().noneMatch(aDouble -> aDouble != value);
+				return number == value;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * @return the result of the filter once all the values are scanned
+	 */
+	private boolean result(int state) {
+		if (state == PASS) return true;
+		if (state == FAIL) return false;
+		if (state == OPEN) return connector != Connector.FALSE;
+		// No values
+		switch (connector) {
+			case MORE_THAN:
+				return -1 > value;
 			case LESS_THAN:
-				return values.stream().mapToDouble(value -> value).max().orElse(1) < value;
+				return 1 < value;
+			case TRUE:
+				return false;
 			default:
 				return true;
 		}
 	}
 
-	private void addValues(String attribute, List<Double> values) {
-		final String[] stringValues = attribute.split("\\|");
-		for (String stringValue : stringValues)
-			if (!stringValue.equals("."))
-				values.add(Double.parseDouble(stringValue));
+	private static boolean contains(CharSequence chars, int start, int end, char c) {
+		for (int i = start; i < end; i++) if (chars.charAt(i) == c) return true;
+		return false;
 	}
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.graphic;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+import org.uichuimi.coat.CoatView;
+import org.uichuimi.coat.core.metrics.Metrics;
+import org.uichuimi.coat.utils.FileManager;
+import org.uichuimi.coat.utils.OS;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Shows the {@link Metrics} of the processing stages, refreshed every second: throughput, time spent
+ * in each stage and sizes of the queues. Stop the refresh with {@link #stop()} when the pane is closed.
+ */
+public class DiagnosticsPane extends VBox {
+
+    private final Label report = new Label();
+    private final Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(1), event -> refresh()));
+
+    public DiagnosticsPane() {
+        final Button reset = new Button(OS.getString("reset"));
+        reset.setOnAction(event -> {
+            Metrics.get().reset();
+            refresh();
+        });
+        final Button save = new Button(OS.getString("save"));
+        save.setOnAction(event -> save());
+        report.setStyle("-fx-font-family: monospace");
+        getChildren().setAll(report, new HBox(5, reset, save));
+        setSpacing(5);
+        setPadding(new Insets(5));
+        timeline.setCycleCount(Animation.INDEFINITE);
+        timeline.play();
+        refresh();
+    }
+
+    private void refresh() {
+        report.setText(Metrics.get().report());
+    }
+
+    private void save() {
+        final File f = FileManager.saveFile(OS.getString("diagnostics"), null, "metrics.json", FileManager.JSON_FILTER);
+        if (f == null) return;
+        try {
+            Metrics.get().write(f);
+        } catch (IOException e) {
+            CoatView.printMessage(e.getMessage(), "severe");
+        }
+    }
+
+    public void stop() {
+        timeline.stop();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Applies filters to a VCF file without the user interface, writing the variants that pass them
+ * straight to another file. It uses the same filters and parallel scan as {@link LightVcfReader}, but
+ * nothing is kept in memory: batches of lines are written as soon as they are filtered, so memory
+ * usage does not depend on the size of the file.
+ * <p>
+ * The output format depends on the name of the output file: .tsv files are written as tables, .vcf.gz
+ * files are compressed and indexed with tabix and any other file is written as plain VCF. VCF lines
+ * are copied from the input as they are, unless some samples are removed.
+ */
+public class BatchFilter {
+
+    private final File file;
+    private final VCFHeader header;
+    private final List<LightVcfFilter> filters = new ArrayList<>();
+    private final List<LightSampleFilter> sampleFilters = new ArrayList<>();
+    private List<String> samples;
+    private long total;
+    private long passed;
+    private long elapsed;
+
+    /**
+     * @param file the VCF file to filter, plain or compressed
+     */
+    public BatchFilter(File file) {
+        this.file = file;
+        try (VCFFileReader reader = new VCFFileReader(file, false)) {
+            header = reader.getFileHeader();
+        }
+        samples = header.getSampleNamesInOrder();
+        LightVcfFilter.setVcfHeader(header);
+    }
+
+    public VCFHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the filter is an expression that is not valid for the file
+     */
+    public void addFilter(LightVcfFilter filter) {
+        // Invalid expressions would silently accept every variant
+        if (LightVcfFilter.EXPRESSION.equals(filter.getColumn()))
+            FilterExpression.parse(String.valueOf(filter.getValue())).compileLine(header);
+        filters.add(filter);
+    }
+
+    public void addSampleFilter(LightSampleFilter filter) {
+        if (!header.getSampleNamesInOrder().contains(filter.getSample()))
+            throw new IllegalArgumentException("Sample " + filter.getSample() + " not found in " + file);
+        sampleFilters.add(filter);
+    }
+
+    /**
+     * Samples to write in VCF output files, in output order. By default all samples are written.
+     */
+    public void setSamples(List<String> samples) {
+        for (String sample : samples)
+            if (!header.getSampleNamesInOrder().contains(sample))
+                throw new IllegalArgumentException("Sample " + sample + " not found in " + file);
+        this.samples = new ArrayList<>(samples);
+    }
+
+    /**
+     * Filters the whole file.
+     *
+     * @param output   where to write the variants that pass the filters
+     * @param workers  number of threads that filter lines
+     * @param progress receives the number of variants read and passed after every batch, from the
+     *                 calling thread
+     * @throws IOException          if the input cannot be read or the output cannot be written
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void run(File output, int workers, Progress progress) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final FilterEvaluator<VcfLine> filter = getFilter();
+        final boolean tsv = output.getName().endsWith(".tsv");
+        final Function<VcfLine, String> mapper;
+        final String head;
+        if (tsv) {
+            final TsvLineFormatter formatter = new TsvLineFormatter(header);
+            mapper = formatter;
+            head = String.join("\t", formatter.getHeaders()) + "\n";
+        } else {
+            final List<String> infos = new ArrayList<>();
+            for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) infos.add(line.getID());
+            mapper = new VcfLineProjection(header, infos, samples);
+            head = VcfOutput.encodeHeader(new VCFHeader(header.getMetaDataInInputOrder(), samples));
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(tsv
+                ? Files.newOutputStream(output.toPath())
+                : VcfOutput.open(output), StandardCharsets.UTF_8));
+             VcfParallelReaderFilter<String> reader = new VcfParallelReaderFilter<>(file, header, filter, mapper, workers)) {
+            writer.write(head);
+            List<String> batch;
+            try {
+                while ((batch = reader.nextBatch()) != null) {
+                    VcfOutput.writeLines(writer, batch);
+                    total = reader.getTotal();
+                    passed = reader.getPassed();
+                    if (progress != null) progress.update(total, passed);
+                }
+            } catch (RuntimeException e) {
+                // errors reading the file are wrapped by the reader
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+            filter.publish();
+        } finally {
+            elapsed = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Sample filters go first, as {@link LightVcfReader} does. The evaluator reorders them anyway.
+     */
+    private FilterEvaluator<VcfLine> getFilter() {
+        final List<Predicate<VcfLine>> predicates = new ArrayList<>();
+        final List<FilterStats> stats = new ArrayList<>();
+        for (LightSampleFilter sampleFilter : sampleFilters) {
+            if (sampleFilter.acceptsAll()) continue;
+            predicates.add(sampleFilter.getLinePredicate());
+            stats.add(sampleFilter.getStats());
+        }
+        for (LightVcfFilter filter : filters) {
+            predicates.add(filter.getLinePredicate());
+            stats.add(filter.getStats());
+        }
+        return new FilterEvaluator<>(predicates, stats);
+    }
+
+    /**
+     * @return number of variants read during the last run
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return number of variants that passed the filters during the last run
+     */
+    public long getPassed() {
+        return passed;
+    }
+
+    /**
+     * @return duration of the last run, in nanoseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public List<LightVcfFilter> getFilters() {
+        return filters;
+    }
+
+    public List<LightSampleFilter> getSampleFilters() {
+        return sampleFilters;
+    }
+
+    public interface Progress {
+        void update(long total, long passed);
+    }
+}
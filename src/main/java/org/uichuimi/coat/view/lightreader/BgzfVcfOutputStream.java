@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a VCF file compressed in BGZF blocks, which are deflated by a pool of threads and written in
+ * order, and creates its tabix index (.tbi) at the same time. Text must be written in whole lines, and
+ * data lines must be sorted by coordinate to be indexed; if they are not, the file is written without
+ * index.
+ */
+class BgzfVcfOutputStream extends OutputStream {
+
+    /**
+     * Same block size as bgzip, so a block never grows past the BGZF limit when it is not compressible
+     */
+    private static final int BLOCK_SIZE = 0xff00;
+    private static final int HEADER = 18;
+    private static final int FOOTER = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ExecutorService deflaters;
+    private final Deque<Future<ByteBuffer>> ahead = new ArrayDeque<>();
+    private final int maxAhead;
+    private final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() ->
+            new Deflater(BlockCompressedStreamConstants.DEFAULT_COMPRESSION_LEVEL, true));
+    /**
+     * Lines written but not indexed yet, because their blocks are still being deflated
+     */
+    private final Deque<Located> pending = new ArrayDeque<>();
+    private TabixIndexCreator indexer = new TabixIndexCreator(TabixFormat.VCF);
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    /**
+     * Number of blocks sent to the deflaters, which is the number of the block being filled
+     */
+    private long blocks;
+    private long written;
+    private byte[] line = new byte[1 << 12];
+    private int lineLength;
+    private boolean closed;
+
+    BgzfVcfOutputStream(File file) throws IOException {
+        path = file.toPath();
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        deflaters = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "bgzf-deflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maxAhead = 4 * threads;
+    }
+
+    /**
+     * @return the index file of a bgzipped VCF file
+     */
+    static File getIndexFile(File file) {
+        return new File(file.getAbsolutePath() + ".tbi");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (lineLength == line.length) line = Arrays.copyOf(line, 2 * lineLength);
+        line[lineLength++] = (byte) b;
+        if (b == '\n') endLine();
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        final int end = offset + length;
+        while (offset < end) {
+            int newLine = offset;
+            while (newLine < end && bytes[newLine] != '\n') newLine++;
+            final int count = Math.min(newLine + 1, end) - offset;
+            if (lineLength + count > line.length)
+                line = Arrays.copyOf(line, Math.max(2 * line.length, lineLength + count));
+            System.arraycopy(bytes, offset, line, lineLength, count);
+            lineLength += count;
+            offset += count;
+            if (newLine < end) endLine();
+        }
+    }
+
+    private void endLine() throws IOException {
+        if (indexer != null && lineLength > 0 && line[0] != '#') {
+            try {
+                pending.addLast(new Located(locate(line, lineLength), blocks, blockLength));
+            } catch (RuntimeException e) {
+                // Not a valid data line
+                disableIndex();
+            }
+        }
+        int offset = 0;
+        while (offset < lineLength) {
+            final int count = Math.min(lineLength - offset, BLOCK_SIZE - blockLength);
+            System.arraycopy(line, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            if (blockLength == BLOCK_SIZE) flushBlock();
+        }
+        lineLength = 0;
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockLength == 0) return;
+        final byte[] data = block;
+        final int length = blockLength;
+        ahead.addLast(deflaters.submit(() -> deflate(data, length)));
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        blocks++;
+        while (ahead.size() >= maxAhead) writeBlock();
+    }
+
+    private ByteBuffer deflate(byte[] data, int length) {
+        final byte[] compressed = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        final Deflater deflater = this.deflater.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int size = deflater.deflate(compressed, HEADER, compressed.length - HEADER - FOOTER);
+        if (!deflater.finished()) {
+            // Data that does not compress is stored as it is
+            final Deflater store = new Deflater(Deflater.NO_COMPRESSION, true);
+            store.setInput(data, 0, length);
+            store.finish();
+            size = store.deflate(compressed, HEADER, compressed.length - HEADER - FOOTER);
+            store.end();
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        final ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, HEADER + size + FOOTER).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(BlockCompressedStreamConstants.GZIP_ID1)
+                .put((byte) BlockCompressedStreamConstants.GZIP_ID2)
+                .put(BlockCompressedStreamConstants.GZIP_CM_DEFLATE)
+                .put((byte) BlockCompressedStreamConstants.GZIP_FLG)
+                .putInt(0)
+                .put((byte) BlockCompressedStreamConstants.GZIP_XFL)
+                .put((byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN)
+                .putShort(BlockCompressedStreamConstants.GZIP_XLEN)
+                .put(BlockCompressedStreamConstants.BGZF_ID1)
+                .put(BlockCompressedStreamConstants.BGZF_ID2)
+                .putShort(BlockCompressedStreamConstants.BGZF_LEN)
+                .putShort((short) (HEADER + size + FOOTER - 1));
+        buffer.position(HEADER + size);
+        buffer.putInt((int) crc.getValue()).putInt(length);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the oldest deflated block, and indexes the lines that start in it.
+     */
+    private void writeBlock() throws IOException {
+        final ByteBuffer buffer;
+        try {
+            buffer = ahead.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        final long number = blocks - ahead.size() - 1;
+        final long address = written;
+        while (buffer.hasRemaining()) written += channel.write(buffer);
+        while (!pending.isEmpty() && pending.peekFirst().block == number) {
+            final Located located = pending.removeFirst();
+            index(located.feature, address << 16 | located.offset);
+        }
+    }
+
+    private void index(Feature feature, long pointer) {
+        if (indexer == null) return;
+        try {
+            indexer.addFeature(feature, pointer);
+        } catch (RuntimeException e) {
+            // Not sorted
+            disableIndex();
+        }
+    }
+
+    private void disableIndex() {
+        indexer = null;
+        pending.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (lineLength > 0) endLine();
+            flushBlock();
+            while (!ahead.isEmpty()) writeBlock();
+            final long end = written << 16;
+            final ByteBuffer eof = ByteBuffer.wrap(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            while (eof.hasRemaining()) written += channel.write(eof);
+            final File index = getIndexFile(path.toFile());
+            if (indexer != null) indexer.finalizeIndex(end).write(index.toPath());
+            else index.delete();
+        } finally {
+            deflaters.shutdownNow();
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the coordinates of a VCF line like htsjdk does: the variant ends at the END key of INFO,
+     * or at the last base of REF.
+     */
+    private static Feature locate(byte[] line, int length) {
+        final int[] starts = new int[9];
+        int found = 1;
+        for (int i = 0; i < length && found < starts.length; i++)
+            if (line[i] == '\t') starts[found++] = i + 1;
+        final String contig = new String(line, 0, starts[1] - 1);
+        final int start = parseInt(line, starts[1], starts[2] - 1);
+        int end = start + starts[4] - starts[3] - 2;
+        final int infoEnd = found > 8 ? starts[8] - 1 : length - 1;
+        for (int i = starts[7]; i < infoEnd; i++) {
+            if (i + 4 <= infoEnd && line[i] == 'E' && line[i + 1] == 'N' && line[i + 2] == 'D' && line[i + 3] == '='
+                    && (i == starts[7] || line[i - 1] == ';')) {
+                int j = i + 4;
+                while (j < infoEnd && line[j] != ';') j++;
+                end = parseInt(line, i + 4, j);
+                break;
+            }
+        }
+        return new Location(contig, start, end);
+    }
+
+    private static int parseInt(byte[] bytes, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') throw new NumberFormatException(new String(bytes, from, to - from));
+            value = 10 * value + bytes[i] - '0';
+        }
+        return value;
+    }
+
+    private static class Located {
+        private final Feature feature;
+        private final long block;
+        private final int offset;
+
+        Located(Feature feature, long block, int offset) {
+            this.feature = feature;
+            this.block = block;
+            this.offset = offset;
+        }
+    }
+
+    private static class Location implements Feature {
+        private final String contig;
+        private final int start;
+        private final int end;
+
+        Location(String contig, int start, int end) {
+            this.contig = contig;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String getContig() {
+            return contig;
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return end;
+        }
+    }
+}
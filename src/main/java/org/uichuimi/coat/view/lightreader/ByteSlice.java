@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A line of a file seen through the buffer that contains it, without copying its bytes. Each byte
+ * is a char, which is exact for the ASCII text of VCF files; {@link #toString()} decodes the bytes
+ * as UTF-8, so copies of the line keep any other character.
+ */
+class ByteSlice implements CharSequence {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    ByteSlice(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public ByteSlice subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        return new ByteSlice(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        final byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
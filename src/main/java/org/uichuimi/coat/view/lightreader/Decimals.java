@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+/**
+ * Parses decimal numbers straight from the characters of a line, without creating Strings.
+ */
+public final class Decimals {
+
+    /**
+     * Powers of 10 that are exact in a double
+     */
+    private static final double[] POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * Integers up to this value are exact in a double
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private Decimals() {
+    }
+
+    /**
+     * Parses plain decimal numbers, like <code>-0.0123</code> or <code>1.5e-3</code>, with the same
+     * result as {@link Double#parseDouble(String)}. The mantissa and the power of 10 are both exact
+     * doubles, so a single multiplication or division rounds as parseDouble does.
+     *
+     * @return the number, or NaN if the text is not a plain decimal number or has too many digits to
+     * be parsed this way. Callers should then use {@link Double#parseDouble(String)}, that also
+     * parses NaN
+     */
+    public static double parse(CharSequence chars, int start, int end) {
+        int i = start;
+        if (i == end) return Double.NaN;
+        final boolean negative = chars.charAt(i) == '-';
+        if (negative || chars.charAt(i) == '+') i++;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            final char c = chars.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (mantissa >= MAX_EXACT / 10) return Double.NaN;
+                mantissa = 10 * mantissa + (c - '0');
+                digits++;
+                if (point) scale--;
+            } else if (c == '.' && !point) point = true;
+            else break;
+        }
+        if (digits == 0) return Double.NaN;
+        if (i < end) {
+            final char c = chars.charAt(i++);
+            if (c != 'e' && c != 'E' || i == end) return Double.NaN;
+            final boolean negativeExponent = chars.charAt(i) == '-';
+            if (negativeExponent || chars.charAt(i) == '+') i++;
+            if (i == end) return Double.NaN;
+            int exponent = 0;
+            for (; i < end; i++) {
+                final char d = chars.charAt(i);
+                if (d < '0' || d > '9' || exponent > 1000) return Double.NaN;
+                exponent = 10 * exponent + (d - '0');
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        final double value;
+        if (mantissa == 0) value = 0;
+        else if (scale >= 0 && scale < POWERS.length) value = mantissa * POWERS[scale];
+        else if (scale < 0 && -scale < POWERS.length) value = mantissa / POWERS[-scale];
+        else return Double.NaN;
+        return negative ? -value : value;
+    }
+}
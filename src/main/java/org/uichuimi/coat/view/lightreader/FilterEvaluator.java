@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Evaluates the conjunction of several filters, stopping at the first one that rejects the variant.
+ * Filters are reordered during the scan so the ones that discard more variants at a lower cost run
+ * first.
+ * <p>
+ * To get unbiased statistics, a random sample of the variants is tested against every filter and
+ * timed. The rest of the variants use the current order without any measurement.
+ */
+class FilterEvaluator<T> implements Predicate<T> {
+
+    /**
+     * One out of SAMPLE_RATE variants is measured
+     */
+    private static final int SAMPLE_RATE = 64;
+    /**
+     * Filters are reordered every REORDER_RATE measured variants
+     */
+    private static final int REORDER_RATE = 256;
+
+    private final Entry<T>[] entries;
+    private final List<FilterStats> targets;
+    private final AtomicLong measured = new AtomicLong();
+    private volatile Entry<T>[] order;
+
+    /**
+     * @param predicates the filters to evaluate, in the initial order
+     * @param stats      where to publish the statistics of each predicate, in the same order. They
+     *                   are only changed by {@link #publish()}
+     */
+    @SuppressWarnings("unchecked")
+    FilterEvaluator(List<Predicate<T>> predicates, List<FilterStats> stats) {
+        entries = new Entry[predicates.size()];
+        for (int i = 0; i < entries.length; i++) entries[i] = new Entry<>(predicates.get(i), new FilterStats());
+        targets = stats;
+        order = entries.clone();
+    }
+
+    @Override
+    public boolean test(T variant) {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0)
+            return measure(variant);
+        for (Entry<T> entry : order) if (!entry.predicate.test(variant)) return false;
+        return true;
+    }
+
+    /**
+     * Tests the variant against every filter, without stopping at the first one that rejects it.
+     *
+     * @param passed receives the position of every filter that the variant passes
+     * @return true if the variant passes all the filters
+     */
+    boolean testAll(T variant, IntConsumer passed) {
+        final boolean measure = ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+        boolean pass = true;
+        for (int i = 0; i < entries.length; i++) {
+            final long start = measure ? System.nanoTime() : 0;
+            final boolean test = entries[i].predicate.test(variant);
+            if (measure) entries[i].stats.add(test, System.nanoTime() - start);
+            if (test) passed.accept(i);
+            else pass = false;
+        }
+        return pass;
+    }
+
+    private boolean measure(T variant) {
+        boolean pass = true;
+        for (Entry<T> entry : entries) {
+            final long start = System.nanoTime();
+            final boolean test = entry.predicate.test(variant);
+            entry.stats.add(test, System.nanoTime() - start);
+            pass &= test;
+        }
+        if (measured.incrementAndGet() % REORDER_RATE == 0) reorder();
+        return pass;
+    }
+
+    private synchronized void reorder() {
+        final Entry<T>[] sorted = order.clone();
+        for (int i = 0; i < sorted.length; i++) sorted[i].rank = sorted[i].stats.getRank();
+        Arrays.sort(sorted, Comparator.comparingDouble(entry -> entry.rank));
+        order = sorted;
+    }
+
+    /**
+     * Publishes the statistics measured so far into the stats of every filter. Must be called from
+     * the thread that shows them, the JavaFX thread in the application.
+     */
+    void publish() {
+        for (int i = 0; i < entries.length; i++) targets.get(i).publish(entries[i].stats);
+    }
+
+    private static class Entry<T> {
+        private final Predicate<T> predicate;
+        private final FilterStats stats;
+        private double rank;
+
+        Entry(Predicate<T> predicate, FilterStats stats) {
+            this.predicate = predicate;
+            this.stats = stats;
+        }
+    }
+}
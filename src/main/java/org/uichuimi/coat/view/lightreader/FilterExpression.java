@@ -0,0 +1,1020 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A filter written as a boolean expression, like
+ * <pre>
+ * INFO/DP >= 10 and (not INFO/KG_AF or INFO/KG_AF < 0.01) and ZIGOSITY[S1] in ("HET", "HOM")
+ * </pre>
+ * The expression is parsed once into a tree, which is simplified and then compiled into a predicate
+ * for raw lines or for decoded variants.
+ * <p>
+ * Fields are CHROM, POS, ID, REF, ALT, QUAL and FILTER, INFO/KEY, FORMAT/KEY[SAMPLE] and
+ * ZIGOSITY[SAMPLE], whose values are the names of {@link org.uichuimi.coat.view.vcfreader.Zigosity}.
+ * Without a sample, FORMAT and ZIGOSITY test every sample. Sample names can be quoted. MAX_AF is the
+ * highest population frequency of the variant, as in {@link MaxFrequency}.
+ * <p>
+ * Operators are =, !=, &lt;, &lt;=, &gt;, &gt;=, contains and in (a list of values), combined with
+ * and, or and not (or &amp;&amp;, || and !). A field alone tests that it has a value. Fields with
+ * several values pass a test if any of them does, and missing values never pass, so
+ * <code>INFO/AF &lt; 0.01</code> is false when AF is missing, while
+ * <code>not INFO/AF &gt;= 0.01</code> is true. Numbers are compared as numbers, quoted values as
+ * text.
+ */
+public class FilterExpression {
+
+    private static final String ZIGOSITY = "ZIGOSITY";
+    private static final List<String> COLUMNS = Arrays.asList("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER",
+            MaxFrequency.NAME);
+
+    private final String text;
+    private final Node root;
+
+    private FilterExpression(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    /**
+     * @param text the expression
+     * @return the parsed and simplified expression
+     * @throws IllegalArgumentException if the expression is not valid, with the position of the error
+     */
+    public static FilterExpression parse(String text) {
+        return new FilterExpression(text, new Parser(text).parse());
+    }
+
+    /**
+     * Compiles the expression to test raw lines. Like the predicates of {@link LightVcfFilter}, the
+     * returned predicate can be used from several threads.
+     *
+     * @param header header of the lines, used to find samples
+     * @throws IllegalArgumentException if a sample is not in the header
+     */
+    public Predicate<VcfLine> compileLine(VCFHeader header) {
+        return root.compile(new LineFields(header));
+    }
+
+    /**
+     * Same as {@link #compileLine(VCFHeader)}, for decoded variants.
+     */
+    public Predicate<VariantContext> compile(VCFHeader header) {
+        return root.compile(new VariantFields(header));
+    }
+
+    /**
+     * @return true if the expression does not depend on the variant
+     */
+    public boolean isConstant() {
+        return root instanceof Constant;
+    }
+
+    /**
+     * @return the simplified expression
+     */
+    public String toCanonicalString() {
+        return root.toString();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /* ---------------------------------------------------------------------------------------------
+     * Values
+     * ------------------------------------------------------------------------------------------ */
+
+    /**
+     * A test on a single value of a field. Numbers read from decoded variants are not converted
+     * into text.
+     */
+    private interface ValueTest {
+        boolean test(String value);
+
+        default boolean test(double value) {
+            return test(value == Math.rint(value) && !Double.isInfinite(value)
+                    ? Long.toString((long) value)
+                    : Double.toString(value));
+        }
+    }
+
+    /**
+     * @return true if any of the values of the field passes the test. Comma separated values are
+     * tested one by one and missing values (".") are skipped
+     */
+    private static boolean anyMatch(Object value, ValueTest test) {
+        if (value == null) return false;
+        if (value instanceof String) {
+            final String string = (String) value;
+            int from = 0;
+            while (from <= string.length()) {
+                int to = string.indexOf(',', from);
+                if (to < 0) to = string.length();
+                if (to > from && !(to == from + 1 && string.charAt(from) == '.')
+                        && test.test(from == 0 && to == string.length() ? string : string.substring(from, to)))
+                    return true;
+                from = to + 1;
+            }
+            return false;
+        }
+        if (value instanceof Number) return test.test(((Number) value).doubleValue());
+        if (value instanceof Iterable) {
+            for (Object element : (Iterable) value) if (anyMatch(element, test)) return true;
+            return false;
+        }
+        return test.test(value.toString());
+    }
+
+    private static boolean exists(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        return anyMatch(value, s -> true);
+    }
+
+    private static Double toNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /* ---------------------------------------------------------------------------------------------
+     * Fields
+     * ------------------------------------------------------------------------------------------ */
+
+    /**
+     * A field of the variant, as written in the expression
+     */
+    private static class Field {
+        private final String name;
+        private final String key;
+        private final String sample;
+
+        Field(String name, String key, String sample) {
+            this.name = name;
+            this.key = key;
+            this.sample = sample;
+        }
+
+        /**
+         * @return a rough cost of reading the field, so cheaper tests run first
+         */
+        int cost() {
+            switch (name) {
+                case "INFO":
+                    return 2;
+                case MaxFrequency.NAME:
+                    return 3;
+                case "FORMAT":
+                case ZIGOSITY:
+                    return sample == null ? 16 : 4;
+                default:
+                    return 1;
+            }
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(name);
+            if (key != null) builder.append('/').append(key);
+            if (sample != null) builder.append("[\"").append(sample).append("\"]");
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Reads the value of a field from lines or from decoded variants
+     */
+    private interface Fields<T> {
+        Function<T, Object> get(Field field);
+    }
+
+    private static int sampleOffset(VCFHeader header, String sample) {
+        final Integer offset = header == null ? null : header.getSampleNameToOffset().get(sample);
+        if (offset == null) throw new IllegalArgumentException("Sample " + sample + " not found");
+        return offset;
+    }
+
+    private static Double missingIfNaN(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    private static class LineFields implements Fields<VcfLine> {
+
+        private final VCFHeader header;
+
+        LineFields(VCFHeader header) {
+            this.header = header;
+        }
+
+        @Override
+        public Function<VcfLine, Object> get(Field field) {
+            switch (field.name) {
+                case "CHROM":
+                    return VcfLine::getChrom;
+                case "POS":
+                    return VcfLine::getPos;
+                case "ID":
+                    return VcfLine::getId;
+                case "REF":
+                    return VcfLine::getRef;
+                case "ALT":
+                    return VcfLine::getAlt;
+                case "QUAL":
+                    return line -> {
+                        final double qual = line.getQual();
+                        return qual == -10.0 ? null : qual;
+                    };
+                case "FILTER":
+                    return line -> {
+                        final String filter = line.getRawFilter();
+                        return filter == null || filter.indexOf(';') < 0 ? filter : Arrays.asList(filter.split(";"));
+                    };
+                case "INFO": {
+                    final String key = field.key;
+                    return line -> line.getInfo(key);
+                }
+                case MaxFrequency.NAME: {
+                    final MaxFrequency maxFrequency = MaxFrequency.of(header);
+                    return line -> missingIfNaN(maxFrequency.get(line));
+                }
+                case "FORMAT":
+                case ZIGOSITY: {
+                    final boolean zigosity = field.name.equals(ZIGOSITY);
+                    final String key = field.key;
+                    if (field.sample != null) {
+                        final int offset = sampleOffset(header, field.sample);
+                        return line -> sampleValue(line, offset, key, zigosity);
+                    }
+                    final int samples = header == null ? 0 : header.getNGenotypeSamples();
+                    return line -> {
+                        final List<Object> values = new ArrayList<>(samples);
+                        for (int i = 0; i < samples; i++) values.add(sampleValue(line, i, key, zigosity));
+                        return values;
+                    };
+                }
+            }
+            throw new IllegalArgumentException("Unknown field " + field);
+        }
+
+        private static Object sampleValue(VcfLine line, int offset, String key, boolean zigosity) {
+            if (zigosity) return LightSampleFilter.getZigosity(line.getGenotype(offset)).name();
+            return line.getFormat(offset, key);
+        }
+    }
+
+    private static class VariantFields implements Fields<VariantContext> {
+
+        private final VCFHeader header;
+
+        VariantFields(VCFHeader header) {
+            this.header = header;
+        }
+
+        @Override
+        public Function<VariantContext, Object> get(Field field) {
+            switch (field.name) {
+                case "CHROM":
+                    return VariantContext::getContig;
+                case "POS":
+                    return VariantContext::getStart;
+                case "ID":
+                    return VariantContext::getID;
+                case "REF":
+                    return variant -> variant.getReference().getBaseString();
+                case "ALT":
+                    return variant -> {
+                        final List<String> alts = new ArrayList<>();
+                        for (Allele allele : variant.getAlternateAlleles()) alts.add(allele.getDisplayString());
+                        return alts;
+                    };
+                case "QUAL":
+                    return variant -> variant.hasLog10PError() ? variant.getPhredScaledQual() : null;
+                case "FILTER":
+                    return variant -> {
+                        if (!variant.filtersWereApplied()) return null;
+                        if (variant.getFilters().isEmpty()) return "PASS";
+                        return new ArrayList<>(variant.getFilters());
+                    };
+                case "INFO": {
+                    final String key = field.key;
+                    return variant -> variant.getAttribute(key);
+                }
+                case MaxFrequency.NAME: {
+                    final MaxFrequency maxFrequency = MaxFrequency.of(header);
+                    return variant -> missingIfNaN(maxFrequency.get(variant));
+                }
+                case "FORMAT":
+                case ZIGOSITY: {
+                    final boolean zigosity = field.name.equals(ZIGOSITY);
+                    final String key = field.key;
+                    if (field.sample != null) {
+                        sampleOffset(header, field.sample);
+                        final String sample = field.sample;
+                        return variant -> sampleValue(variant, variant.getGenotype(sample), key, zigosity);
+                    }
+                    return variant -> {
+                        final List<Object> values = new ArrayList<>(variant.getNSamples());
+                        for (Genotype genotype : variant.getGenotypes())
+                            values.add(sampleValue(variant, genotype, key, zigosity));
+                        return values;
+                    };
+                }
+            }
+            throw new IllegalArgumentException("Unknown field " + field);
+        }
+
+        private static Object sampleValue(VariantContext variant, Genotype genotype, String key, boolean zigosity) {
+            if (genotype == null) return null;
+            if (zigosity) return LightSampleFilter.getZigosity(genotype).name();
+            switch (key) {
+                case "GT":
+                    return genotype.isAvailable() ? getGenotype(variant, genotype) : null;
+                case "DP":
+                    return genotype.hasDP() ? genotype.getDP() : null;
+                case "GQ":
+                    return genotype.hasGQ() ? genotype.getGQ() : null;
+                case "AD":
+                    return genotype.hasAD() ? toList(genotype.getAD()) : null;
+                case "PL":
+                    return genotype.hasPL() ? toList(genotype.getPL()) : null;
+                case "FT":
+                    return genotype.getFilters();
+                default:
+                    return genotype.getExtendedAttribute(key);
+            }
+        }
+
+        /**
+         * @return the GT value, with allele indexes, as it is written in the file
+         */
+        private static String getGenotype(VariantContext variant, Genotype genotype) {
+            final StringBuilder builder = new StringBuilder();
+            for (Allele allele : genotype.getAlleles()) {
+                if (builder.length() > 0) builder.append(genotype.isPhased() ? '|' : '/');
+                if (allele.isNoCall()) builder.append('.');
+                else builder.append(variant.getAlleleIndex(allele));
+            }
+            return builder.toString();
+        }
+
+        private static List<Integer> toList(int[] values) {
+            final List<Integer> list = new ArrayList<>(values.length);
+            for (int value : values) list.add(value);
+            return list;
+        }
+    }
+
+    /* ---------------------------------------------------------------------------------------------
+     * Tree
+     * ------------------------------------------------------------------------------------------ */
+
+    private interface Node {
+        <T> Predicate<T> compile(Fields<T> fields);
+
+        int cost();
+    }
+
+    private static class Constant implements Node {
+        private static final Constant TRUE = new Constant(true);
+        private static final Constant FALSE = new Constant(false);
+        private final boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        static Constant of(boolean value) {
+            return value ? TRUE : FALSE;
+        }
+
+        @Override
+        public <T> Predicate<T> compile(Fields<T> fields) {
+            return value ? t -> true : t -> false;
+        }
+
+        @Override
+        public int cost() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static class Not implements Node {
+        private final Node node;
+
+        private Not(Node node) {
+            this.node = node;
+        }
+
+        static Node of(Node node) {
+            if (node instanceof Constant) return Constant.of(!((Constant) node).value);
+            if (node instanceof Not) return ((Not) node).node;
+            return new Not(node);
+        }
+
+        @Override
+        public <T> Predicate<T> compile(Fields<T> fields) {
+            return node.compile(fields).negate();
+        }
+
+        @Override
+        public int cost() {
+            return node.cost();
+        }
+
+        @Override
+        public String toString() {
+            return "not " + (node instanceof Junction ? "(" + node + ")" : node.toString());
+        }
+    }
+
+    /**
+     * A conjunction or a disjunction. Nested junctions of the same kind are flattened, constants are
+     * removed and the cheapest tests go first, so the compiled predicate stops as soon as possible.
+     */
+    private static class Junction implements Node {
+        private final boolean and;
+        private final Node[] nodes;
+
+        private Junction(boolean and, Node[] nodes) {
+            this.and = and;
+            this.nodes = nodes;
+        }
+
+        static Node of(boolean and, List<Node> operands) {
+            final List<Node> nodes = new ArrayList<>();
+            for (Node node : operands) {
+                if (node instanceof Constant) {
+                    // false in a conjunction, or true in a disjunction, decides the result
+                    if (((Constant) node).value != and) return node;
+                } else if (node instanceof Junction && ((Junction) node).and == and)
+                    nodes.addAll(Arrays.asList(((Junction) node).nodes));
+                else nodes.add(node);
+            }
+            if (nodes.isEmpty()) return Constant.of(and);
+            if (nodes.size() == 1) return nodes.get(0);
+            nodes.sort(Comparator.comparingInt(Node::cost));
+            return new Junction(and, nodes.toArray(new Node[0]));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Predicate<T> compile(Fields<T> fields) {
+            final Predicate<T>[] predicates = new Predicate[nodes.length];
+            for (int i = 0; i < nodes.length; i++) predicates[i] = nodes[i].compile(fields);
+            if (predicates.length == 2) {
+                final Predicate<T> first = predicates[0];
+                final Predicate<T> second = predicates[1];
+                return and ? t -> first.test(t) && second.test(t) : t -> first.test(t) || second.test(t);
+            }
+            if (and) return t -> {
+                for (Predicate<T> predicate : predicates) if (!predicate.test(t)) return false;
+                return true;
+            };
+            return t -> {
+                for (Predicate<T> predicate : predicates) if (predicate.test(t)) return true;
+                return false;
+            };
+        }
+
+        @Override
+        public int cost() {
+            int cost = 0;
+            for (Node node : nodes) cost += node.cost();
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (Node node : nodes) {
+                if (builder.length() > 0) builder.append(and ? " and " : " or ");
+                if (node instanceof Junction) builder.append('(').append(node).append(')');
+                else builder.append(node);
+            }
+            return builder.toString();
+        }
+    }
+
+    private static class Exists implements Node {
+        private final Field field;
+
+        Exists(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        public <T> Predicate<T> compile(Fields<T> fields) {
+            final Function<T, Object> value = fields.get(field);
+            return t -> exists(value.apply(t));
+        }
+
+        @Override
+        public int cost() {
+            return field.cost();
+        }
+
+        @Override
+        public String toString() {
+            return field.toString();
+        }
+    }
+
+    /**
+     * A number or a quoted text in the expression
+     */
+    private static class Literal {
+        private final String text;
+        /**
+         * Null for quoted values
+         */
+        private final Double number;
+
+        Literal(String text, Double number) {
+            this.text = text;
+            this.number = number;
+        }
+
+        @Override
+        public String toString() {
+            return number != null ? text : "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+    }
+
+    private enum Operator {
+        EQUALS("="), LESS_THAN("<"), LESS_OR_EQUAL("<="), MORE_THAN(">"), MORE_OR_EQUAL(">="), CONTAINS("contains");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @return the operator that gives the same result with the operands swapped
+         */
+        Operator swap() {
+            switch (this) {
+                case LESS_THAN:
+                    return MORE_THAN;
+                case LESS_OR_EQUAL:
+                    return MORE_OR_EQUAL;
+                case MORE_THAN:
+                    return LESS_THAN;
+                case MORE_OR_EQUAL:
+                    return LESS_OR_EQUAL;
+                default:
+                    return this;
+            }
+        }
+
+        ValueTest test(Literal literal) {
+            if (this == CONTAINS) {
+                final String text = literal.text;
+                return value -> value.contains(text);
+            }
+            if (literal.number != null) {
+                final DoublePredicate test = numberTest(literal.number);
+                return new ValueTest() {
+                    @Override
+                    public boolean test(String value) {
+                        final Double number = toNumber(value);
+                        return number != null && test.test(number);
+                    }
+
+                    @Override
+                    public boolean test(double value) {
+                        return test.test(value);
+                    }
+                };
+            }
+            final Predicate<String> test = textTest(literal.text);
+            return test::test;
+        }
+
+        private DoublePredicate numberTest(double value) {
+            switch (this) {
+                case LESS_THAN:
+                    return v -> v < value;
+                case LESS_OR_EQUAL:
+                    return v -> v <= value;
+                case MORE_THAN:
+                    return v -> v > value;
+                case MORE_OR_EQUAL:
+                    return v -> v >= value;
+                default:
+                    return v -> v == value;
+            }
+        }
+
+        private Predicate<String> textTest(String value) {
+            switch (this) {
+                case LESS_THAN:
+                    return v -> v.compareTo(value) < 0;
+                case LESS_OR_EQUAL:
+                    return v -> v.compareTo(value) <= 0;
+                case MORE_THAN:
+                    return v -> v.compareTo(value) > 0;
+                case MORE_OR_EQUAL:
+                    return v -> v.compareTo(value) >= 0;
+                default:
+                    return value::equals;
+            }
+        }
+    }
+
+    private static class Comparison implements Node {
+        private final Field field;
+        private final Operator operator;
+        private final Literal literal;
+
+        Comparison(Field field, Operator operator, Literal literal) {
+            this.field = field;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        @Override
+        public <T> Predicate<T> compile(Fields<T> fields) {
+            final Function<T, Object> value = fields.get(field);
+            final ValueTest test = operator.test(literal);
+            return t -> anyMatch(value.apply(t), test);
+        }
+
+        @Override
+        public int cost() {
+            return field.cost();
+        }
+
+        @Override
+        public String toString() {
+            return field + " " + operator.symbol + " " + literal;
+        }
+    }
+
+    private static class In implements Node {
+        private final Field field;
+        private final List<Literal> literals;
+
+        In(Field field, List<Literal> literals) {
+            this.field = field;
+            this.literals = literals;
+        }
+
+        @Override
+        public <T> Predicate<T> compile(Fields<T> fields) {
+            final Function<T, Object> value = fields.get(field);
+            final Set<String> texts = new HashSet<>();
+            final Set<Double> numbers = new HashSet<>();
+            for (Literal literal : literals) {
+                texts.add(literal.text);
+                if (literal.number != null) numbers.add(literal.number);
+            }
+            final ValueTest test = numbers.isEmpty()
+                    ? texts::contains
+                    : new ValueTest() {
+                @Override
+                public boolean test(String value) {
+                    if (texts.contains(value)) return true;
+                    final Double number = toNumber(value);
+                    return number != null && numbers.contains(number);
+                }
+
+                @Override
+                public boolean test(double value) {
+                    return numbers.contains(value);
+                }
+            };
+            return t -> anyMatch(value.apply(t), test);
+        }
+
+        @Override
+        public int cost() {
+            return field.cost();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder().append(field).append(" in (");
+            for (int i = 0; i < literals.size(); i++) {
+                if (i > 0) builder.append(", ");
+                builder.append(literals.get(i));
+            }
+            return builder.append(')').toString();
+        }
+    }
+
+    /* ---------------------------------------------------------------------------------------------
+     * Parser
+     * ------------------------------------------------------------------------------------------ */
+
+    /**
+     * Recursive descent parser. Precedence, from lower to higher: or, and, not, comparisons.
+     */
+    private static class Parser {
+
+        private final String text;
+        private int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parse() {
+            final Node node = parseOr();
+            skipSpaces();
+            if (position < text.length()) throw error("Unexpected '" + text.charAt(position) + "'");
+            return node;
+        }
+
+        private Node parseOr() {
+            final List<Node> nodes = new ArrayList<>();
+            nodes.add(parseAnd());
+            while (acceptWord("or") || accept("||")) nodes.add(parseAnd());
+            return nodes.size() == 1 ? nodes.get(0) : Junction.of(false, nodes);
+        }
+
+        private Node parseAnd() {
+            final List<Node> nodes = new ArrayList<>();
+            nodes.add(parseNot());
+            while (acceptWord("and") || accept("&&")) nodes.add(parseNot());
+            return nodes.size() == 1 ? nodes.get(0) : Junction.of(true, nodes);
+        }
+
+        private Node parseNot() {
+            if (acceptWord("not") || (!lookingAt("!=") && accept("!"))) return Not.of(parseNot());
+            return parseComparison();
+        }
+
+        private Node parseComparison() {
+            if (accept("(")) {
+                final Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            if (acceptWord("true")) return Constant.TRUE;
+            if (acceptWord("false")) return Constant.FALSE;
+            final int start = position;
+            final Object left = parseOperand();
+            final boolean negated;
+            if (acceptWord("not")) {
+                if (!lookingAtWord("in")) throw error("Expected 'in'");
+                negated = true;
+            } else negated = false;
+            if (acceptWord("in")) {
+                if (!(left instanceof Field)) throw error("Only fields can be tested with 'in'", start);
+                final List<Literal> literals = parseList();
+                final Node node = literals.isEmpty() ? Constant.FALSE : new In((Field) left, literals);
+                return negated ? Not.of(node) : node;
+            }
+            final String symbol = parseOperator();
+            if (symbol == null) {
+                if (left instanceof Field) return new Exists((Field) left);
+                throw error("Expected a comparison after " + left, start);
+            }
+            final Object right = parseOperand();
+            final boolean different = symbol.equals("!=");
+            final Operator operator = toOperator(symbol);
+            final Node node;
+            if (left instanceof Field && right instanceof Field)
+                throw error("Fields can only be compared with values", start);
+            else if (left instanceof Field) node = new Comparison((Field) left, operator, (Literal) right);
+            else if (right instanceof Field) {
+                if (operator == Operator.CONTAINS) throw error("Expected a field before 'contains'", start);
+                node = new Comparison((Field) right, operator.swap(), (Literal) left);
+            } else node = Constant.of(evaluate((Literal) left, operator, (Literal) right));
+            return different ? Not.of(node) : node;
+        }
+
+        /**
+         * Folds comparisons between two values
+         */
+        private static boolean evaluate(Literal left, Operator operator, Literal right) {
+            if (operator != Operator.CONTAINS && left.number != null)
+                return operator.test(right).test(left.number);
+            return operator.test(right).test(left.text);
+        }
+
+        private static Operator toOperator(String symbol) {
+            switch (symbol) {
+                case "<":
+                    return Operator.LESS_THAN;
+                case "<=":
+                    return Operator.LESS_OR_EQUAL;
+                case ">":
+                    return Operator.MORE_THAN;
+                case ">=":
+                    return Operator.MORE_OR_EQUAL;
+                case "contains":
+                    return Operator.CONTAINS;
+                default:
+                    return Operator.EQUALS;
+            }
+        }
+
+        private String parseOperator() {
+            for (String symbol : new String[]{"==", "!=", "<=", ">=", "=", "<", ">"})
+                if (accept(symbol)) return symbol;
+            if (acceptWord("contains")) return "contains";
+            return null;
+        }
+
+        private List<Literal> parseList() {
+            expect("(");
+            final List<Literal> literals = new ArrayList<>();
+            if (accept(")")) return literals;
+            do {
+                final int start = position;
+                final Object operand = parseOperand();
+                if (!(operand instanceof Literal)) throw error("Expected a value", start);
+                literals.add((Literal) operand);
+            } while (accept(","));
+            expect(")");
+            return literals;
+        }
+
+        /**
+         * @return a {@link Field} or a {@link Literal}
+         */
+        private Object parseOperand() {
+            skipSpaces();
+            if (position >= text.length()) throw error("Unexpected end of expression");
+            final char c = text.charAt(position);
+            if (c == '"' || c == '\'') return new Literal(parseQuoted(), null);
+            if (Character.isDigit(c) || ((c == '-' || c == '+' || c == '.') && position + 1 < text.length()
+                    && (Character.isDigit(text.charAt(position + 1)) || text.charAt(position + 1) == '.')))
+                return parseNumber();
+            if (Character.isLetter(c) || c == '_') return parseField();
+            throw error("Unexpected '" + c + "'");
+        }
+
+        private Literal parseNumber() {
+            final int start = position;
+            position++;
+            while (position < text.length()) {
+                final char c = text.charAt(position);
+                if (Character.isDigit(c) || c == '.' || c == 'e' || c == 'E'
+                        || ((c == '-' || c == '+') && (text.charAt(position - 1) == 'e' || text.charAt(position - 1) == 'E')))
+                    position++;
+                else break;
+            }
+            final String number = text.substring(start, position);
+            try {
+                return new Literal(number, Double.parseDouble(number));
+            } catch (NumberFormatException e) {
+                throw error("Not a number: " + number, start);
+            }
+        }
+
+        private String parseQuoted() {
+            final int start = position;
+            final char quote = text.charAt(position++);
+            final StringBuilder builder = new StringBuilder();
+            while (position < text.length()) {
+                final char c = text.charAt(position++);
+                if (c == quote) return builder.toString();
+                if (c == '\\' && position < text.length()) builder.append(text.charAt(position++));
+                else builder.append(c);
+            }
+            throw error("Missing closing quote", start);
+        }
+
+        private Field parseField() {
+            final int start = position;
+            final String word = readWord();
+            final int slash = word.indexOf('/');
+            final String name = (slash < 0 ? word : word.substring(0, slash)).toUpperCase(Locale.ROOT);
+            final String key = slash < 0 ? null : word.substring(slash + 1);
+            switch (name) {
+                case "INFO":
+                    if (key == null || key.isEmpty()) throw error("Expected INFO/KEY", start);
+                    return new Field(name, key, null);
+                case "FORMAT":
+                case "FMT":
+                    if (key == null || key.isEmpty()) throw error("Expected FORMAT/KEY", start);
+                    return new Field("FORMAT", key, parseSample());
+                case ZIGOSITY:
+                    if (key != null) throw error("Unexpected key for " + ZIGOSITY, start);
+                    return new Field(name, "GT", parseSample());
+                default:
+                    if (key != null || !COLUMNS.contains(name)) throw error("Unknown field " + word, start);
+                    return new Field(name, null, null);
+            }
+        }
+
+        /**
+         * @return the name of the sample between brackets, or null if there are no brackets
+         */
+        private String parseSample() {
+            if (position >= text.length() || text.charAt(position) != '[') return null;
+            position++;
+            skipSpaces();
+            final String sample;
+            if (position < text.length() && (text.charAt(position) == '"' || text.charAt(position) == '\''))
+                sample = parseQuoted();
+            else {
+                final int start = position;
+                while (position < text.length() && text.charAt(position) != ']') position++;
+                sample = text.substring(start, position).trim();
+            }
+            expect("]");
+            if (sample.isEmpty()) throw error("Expected a sample name");
+            return sample;
+        }
+
+        private String readWord() {
+            final int start = position;
+            while (position < text.length() && isWordChar(text.charAt(position))) position++;
+            return text.substring(start, position);
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '/' || c == '+' || c == '-';
+        }
+
+        private boolean accept(String symbol) {
+            skipSpaces();
+            if (!text.startsWith(symbol, position)) return false;
+            position += symbol.length();
+            return true;
+        }
+
+        private boolean lookingAt(String symbol) {
+            skipSpaces();
+            return text.startsWith(symbol, position);
+        }
+
+        private boolean lookingAtWord(String word) {
+            skipSpaces();
+            final int end = position + word.length();
+            return text.regionMatches(true, position, word, 0, word.length())
+                    && (end == text.length() || !isWordChar(text.charAt(end)));
+        }
+
+        private boolean acceptWord(String word) {
+            if (!lookingAtWord(word)) return false;
+            position += word.length();
+            return true;
+        }
+
+        private void expect(String symbol) {
+            if (!accept(symbol)) throw error("Expected '" + symbol + "'");
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) position++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return error(message, position);
+        }
+
+        private IllegalArgumentException error(String message, int at) {
+            return new IllegalArgumentException(message + " at position " + (at + 1));
+        }
+    }
+}
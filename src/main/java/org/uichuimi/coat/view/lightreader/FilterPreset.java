@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import org.uichuimi.coat.json.JSONArray;
+import org.uichuimi.coat.json.JSONException;
+import org.uichuimi.coat.json.JSONObject;
+import org.uichuimi.coat.view.ArrayFreqFilter;
+import org.uichuimi.coat.view.vcfreader.Zigosity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of filters stored in a JSON file, so they can be applied without the user interface:
+ * <pre>
+ * {
+ *   "filters": [
+ *     {"column": "INFO", "key": "DP", "connector": "MORE_THAN", "value": 10},
+ *     {"column": "INFO", "key": "KG_AF", "connector": "LESS_THAN", "value": 0.01, "array": true},
+ *     {"column": "MAX_AF", "connector": "LESS_THAN", "value": 0.01},
+ *     {"expression": "INFO/DP >= 10 or FILTER = \"PASS\""}
+ *   ],
+ *   "samples": [
+ *     {"sample": "S1", "zigosities": ["HET", "HOM"]}
+ *   ]
+ * }
+ * </pre>
+ * Connectors and zigosities are the names of {@link LightVcfFilter.Connector} and {@link Zigosity}.
+ * Filters marked as array are {@link ArrayFreqFilter}s, that test every value of a frequency list.
+ * Expressions are written with the syntax of {@link FilterExpression}, and are checked when the preset
+ * is read.
+ * <p>
+ * Presets only store what the filters test, so the same preset can be applied to any file.
+ */
+public class FilterPreset {
+
+    private final List<LightVcfFilter> filters = new ArrayList<>();
+    private final List<LightSampleFilter> sampleFilters = new ArrayList<>();
+
+    private FilterPreset() {
+    }
+
+    /**
+     * @param filters       column filters to store
+     * @param sampleFilters sample filters to store. Filters that accept every zigosity are skipped
+     */
+    public FilterPreset(List<LightVcfFilter> filters, List<LightSampleFilter> sampleFilters) {
+        this.filters.addAll(filters);
+        for (LightSampleFilter sampleFilter : sampleFilters)
+            if (!sampleFilter.acceptsAll()) this.sampleFilters.add(sampleFilter);
+    }
+
+    /**
+     * Reads the filters of a preset file. As filters may depend on the header, call
+     * {@link LightVcfFilter#setVcfHeader(htsjdk.variant.vcf.VCFHeader)} before using them.
+     *
+     * @param file a JSON preset file
+     * @return the preset
+     * @throws IOException if the file cannot be read or is not a valid preset
+     */
+    public static FilterPreset read(File file) throws IOException {
+        final String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        try {
+            final JSONObject json = new JSONObject(content);
+            final FilterPreset preset = new FilterPreset();
+            final JSONArray filters = json.optJSONArray("filters");
+            if (filters != null)
+                for (int i = 0; i < filters.length(); i++)
+                    preset.filters.add(readFilter(filters.getJSONObject(i)));
+            final JSONArray samples = json.optJSONArray("samples");
+            if (samples != null)
+                for (int i = 0; i < samples.length(); i++)
+                    preset.sampleFilters.add(readSampleFilter(samples.getJSONObject(i)));
+            return preset;
+        } catch (JSONException | IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes this preset as JSON.
+     *
+     * @param file where to write the preset
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        final JSONObject json = new JSONObject();
+        final JSONArray filters = new JSONArray();
+        for (LightVcfFilter filter : this.filters) filters.put(toJson(filter));
+        json.put("filters", filters);
+        final JSONArray samples = new JSONArray();
+        for (LightSampleFilter sampleFilter : sampleFilters) {
+            final JSONArray zigosities = new JSONArray();
+            for (Zigosity zigosity : Zigosity.values())
+                if (sampleFilter.has(zigosity)) zigosities.put(zigosity.name());
+            samples.put(new JSONObject().put("sample", sampleFilter.getSample()).put("zigosities", zigosities));
+        }
+        json.put("samples", samples);
+        Files.write(file.toPath(), json.toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static JSONObject toJson(LightVcfFilter filter) {
+        final JSONObject json = new JSONObject();
+        if (LightVcfFilter.EXPRESSION.equals(filter.getColumn())) return json.put("expression", String.valueOf(filter.getValue()));
+        json.put("column", filter.getColumn());
+        if (filter.getKey() != null) json.put("key", filter.getKey());
+        if (filter.getConnector() != null) json.put("connector", filter.getConnector().name());
+        if (filter.getValue() != null) json.put("value", filter.getValue());
+        if (filter instanceof ArrayFreqFilter) json.put("array", true);
+        return json;
+    }
+
+    private static LightVcfFilter readFilter(JSONObject json) {
+        if (json.has("expression")) {
+            final String expression = json.getString("expression");
+            FilterExpression.parse(expression);
+            return new LightVcfFilter(LightVcfFilter.EXPRESSION, null, null, expression);
+        }
+        final String column = json.optString("column", "INFO");
+        final String key = json.has("key") ? json.getString("key") : null;
+        final LightVcfFilter.Connector connector = LightVcfFilter.Connector.valueOf(json.getString("connector"));
+        final Object value = json.isNull("value") ? null : json.get("value");
+        if (json.optBoolean("array")) {
+            if (value == null) throw new IllegalArgumentException("array filter " + key + " without value");
+            final double threshold = value instanceof Number
+                    ? ((Number) value).doubleValue()
+                    : Double.parseDouble(value.toString());
+            return new ArrayFreqFilter(key, connector, threshold);
+        }
+        return new LightVcfFilter(column, key, connector, value);
+    }
+
+    private static LightSampleFilter readSampleFilter(JSONObject json) {
+        final LightSampleFilter filter = new LightSampleFilter(json.getString("sample"));
+        final JSONArray zigosities = json.getJSONArray("zigosities");
+        final List<Zigosity> accepted = new ArrayList<>();
+        for (int i = 0; i < zigosities.length(); i++) accepted.add(Zigosity.valueOf(zigosities.getString(i)));
+        for (Zigosity zigosity : Zigosity.values())
+            if (!accepted.contains(zigosity)) filter.unset(zigosity);
+        return filter;
+    }
+
+    public List<LightVcfFilter> getFilters() {
+        return filters;
+    }
+
+    public List<LightSampleFilter> getSampleFilters() {
+        return sampleFilters;
+    }
+}
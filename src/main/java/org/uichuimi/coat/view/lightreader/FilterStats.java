@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import org.uichuimi.coat.utils.OS;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pass rate and cost of a filter, measured while scanning a file. Counters can be updated from
+ * several threads at the same time, while the summary property must only be published from the
+ * JavaFX thread.
+ * <p>
+ * Every scan measures its filters with new stats, and only the scans of the table publish them into
+ * the stats of the filters, so exports and cancelled scans do not change what the user sees.
+ */
+public class FilterStats {
+
+    private final LongAdder tested = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final ReadOnlyStringWrapper summary = new ReadOnlyStringWrapper("");
+
+    void reset() {
+        tested.reset();
+        passed.reset();
+        nanos.reset();
+    }
+
+    void add(boolean pass, long elapsed) {
+        tested.increment();
+        if (pass) passed.increment();
+        nanos.add(elapsed);
+    }
+
+    /**
+     * @return the fraction of measured variants that passed the filter, or 1 if none was measured
+     */
+    public double getPassRate() {
+        final long n = tested.sum();
+        return n == 0 ? 1 : (double) passed.sum() / n;
+    }
+
+    /**
+     * @return the average time, in nanoseconds, spent by the filter on a variant
+     */
+    public double getCost() {
+        final long n = tested.sum();
+        return n == 0 ? 0 : (double) nanos.sum() / n;
+    }
+
+    /**
+     * Filters with a lower rank should be evaluated first: they are cheap and discard many variants.
+     * Filters that never discard a variant go last.
+     *
+     * @return the expected cost of the filter for each variant it discards
+     */
+    double getRank() {
+        final double rejectRate = 1 - getPassRate();
+        return rejectRate <= 0 ? Double.MAX_VALUE : getCost() / rejectRate;
+    }
+
+    /**
+     * Replaces the values with the ones measured by a scan, and updates the summary property. Must be
+     * called from the thread that shows the summary, the JavaFX thread in the application.
+     *
+     * @param scan the stats of the filter during the scan
+     */
+    void publish(FilterStats scan) {
+        final long tested = scan.tested.sum();
+        final long passed = scan.passed.sum();
+        final long nanos = scan.nanos.sum();
+        reset();
+        this.tested.add(tested);
+        this.passed.add(passed);
+        this.nanos.add(nanos);
+        summary.set(tested == 0 ? "" : OS.getFormattedString("filter.stats", 100 * getPassRate(), getCost()));
+    }
+
+    public ReadOnlyStringProperty summaryProperty() {
+        return summary.getReadOnlyProperty();
+    }
+}
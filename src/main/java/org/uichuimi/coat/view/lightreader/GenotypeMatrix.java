@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.vcf.VCFHeader;
+import org.uichuimi.coat.view.vcfreader.Zigosity;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Zigosity of some samples in every variant of a file, packed in 2 bits per sample and variant.
+ * Each sample has two bit planes, with one bit per variant, so a word of each plane holds 64
+ * variants and sample filters are tested with a few bitwise operations per word. Only the samples
+ * that are filtered have planes, the rest are unknown.
+ * <p>
+ * Zigosities are coded as NO_CALL = 00, WILD = 01, HET = 10 and HOM = 11 (high bit, low bit).
+ */
+class GenotypeMatrix {
+
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Set<String> fileSamples;
+    private final List<String> samples;
+    private final int size;
+    private final long[][] high;
+    private final long[][] low;
+
+    private GenotypeMatrix(Set<String> fileSamples, List<String> samples, int size, long[][] high, long[][] low) {
+        this.fileSamples = fileSamples;
+        this.samples = samples;
+        this.size = size;
+        this.high = high;
+        this.low = low;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if {@link #select(String, Set)} knows the zigosities of the sample
+     */
+    boolean contains(String sample) {
+        return samples.contains(sample) || !fileSamples.contains(sample);
+    }
+
+    /**
+     * @param sample   name of the sample
+     * @param accepted zigosities that pass
+     * @return the positions of the variants where the sample has one of the accepted zigosities, or
+     * null if the sample has no planes in this matrix
+     */
+    BitSet select(String sample, Set<Zigosity> accepted) {
+        final int s = samples.indexOf(sample);
+        final long[] words = new long[(size + 63) / 64];
+        if (s < 0) {
+            if (fileSamples.contains(sample)) return null;
+            // Like LightSampleFilter, unknown samples are no calls
+            if (accepted.contains(Zigosity.NO_CALL)) selectAll(words);
+            return BitSet.valueOf(words);
+        }
+        final boolean noCall = accepted.contains(Zigosity.NO_CALL);
+        final boolean wild = accepted.contains(Zigosity.WILD);
+        final boolean het = accepted.contains(Zigosity.HET);
+        final boolean hom = accepted.contains(Zigosity.HOM);
+        for (int w = 0; w < words.length; w++) {
+            final long h = high[s][w];
+            final long l = low[s][w];
+            long word = 0;
+            if (noCall) word |= ~h & ~l;
+            if (wild) word |= ~h & l;
+            if (het) word |= h & ~l;
+            if (hom) word |= h & l;
+            words[w] = word;
+        }
+        // Bits after the last variant would be taken as no calls
+        if (size % 64 != 0 && words.length > 0) words[words.length - 1] &= (1L << size) - 1;
+        return BitSet.valueOf(words);
+    }
+
+    private void selectAll(long[] words) {
+        for (int w = 0; w < words.length; w++) words[w] = -1L;
+        if (size % 64 != 0 && words.length > 0) words[words.length - 1] &= (1L << size) - 1;
+    }
+
+    /**
+     * Fills the matrix from several threads. Each variant must be added only once.
+     */
+    static class Builder {
+
+        private final Set<String> fileSamples;
+        private final List<String> samples = new ArrayList<>();
+        /**
+         * Position in the header of each sample in samples
+         */
+        private final int[] offsets;
+        private final int size;
+        private final long[][] high;
+        private final long[][] low;
+        private volatile boolean invalid;
+
+        /**
+         * @param samples samples to add, samples that are not in the header are ignored
+         * @param size    number of variants in the file
+         */
+        Builder(VCFHeader header, Collection<String> samples, int size) {
+            this.fileSamples = new HashSet<>(header.getGenotypeSamples());
+            for (String sample : samples) if (fileSamples.contains(sample)) this.samples.add(sample);
+            this.offsets = new int[this.samples.size()];
+            for (int s = 0; s < offsets.length; s++)
+                offsets[s] = header.getSampleNameToOffset().get(this.samples.get(s));
+            this.size = size;
+            this.high = new long[offsets.length][(size + 63) / 64];
+            this.low = new long[offsets.length][(size + 63) / 64];
+        }
+
+        /**
+         * @param index position of the variant in the file
+         */
+        void add(int index, VcfLine line) {
+            if (index >= size) {
+                invalid = true;
+                return;
+            }
+            final long bit = 1L << index;
+            for (int s = 0; s < offsets.length; s++) {
+                final Zigosity zigosity = LightSampleFilter.getZigosity(line.getGenotype(offsets[s]));
+                // Neighbour variants may be added by other threads, and share the word
+                if (zigosity == Zigosity.HET || zigosity == Zigosity.HOM)
+                    WORDS.getAndBitwiseOr(high[s], index >> 6, bit);
+                if (zigosity == Zigosity.WILD || zigosity == Zigosity.HOM)
+                    WORDS.getAndBitwiseOr(low[s], index >> 6, bit);
+            }
+        }
+
+        /**
+         * @param previous a matrix of the same file, whose samples are kept. May be null
+         * @return the matrix, or null if the file had more variants than expected
+         */
+        GenotypeMatrix build(GenotypeMatrix previous) {
+            if (invalid) return null;
+            if (previous == null || previous.size != size)
+                return new GenotypeMatrix(fileSamples, samples, size, high, low);
+            final List<String> samples = new ArrayList<>(previous.samples);
+            final List<long[]> high = new ArrayList<>(List.of(previous.high));
+            final List<long[]> low = new ArrayList<>(List.of(previous.low));
+            for (int s = 0; s < this.samples.size(); s++) {
+                if (samples.contains(this.samples.get(s))) continue;
+                samples.add(this.samples.get(s));
+                high.add(this.high[s]);
+                low.add(this.low[s]);
+            }
+            return new GenotypeMatrix(fileSamples, samples, size, high.toArray(new long[0][]), low.toArray(new long[0][]));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import org.uichuimi.coat.utils.OS;
+
+import java.io.*;
+
+/**
+ * Sidecar file of an index of a VCF file, like {@link VariantOffsetIndex} or {@link TermIndex}.
+ * Indexes are stored under the config directory, and start with a header that ties them to the size
+ * and the last modification time of the VCF file, so they are discarded when the file changes.
+ */
+class IndexFile {
+
+    private final File vcf;
+    private final File file;
+    private final int magic;
+    private final long length;
+    private final long lastModified;
+
+    /**
+     * Takes the size and the last modification time of the VCF file. It must be created before the
+     * VCF file is read, so changes during the build invalidate the index.
+     *
+     * @param extension extension of the index, that tells the kind of index
+     * @param magic     first int of the index, that tells the version of its format
+     */
+    IndexFile(File vcf, String extension, int magic) {
+        this.vcf = vcf;
+        this.file = getFile(vcf, extension);
+        this.magic = magic;
+        this.length = vcf.length();
+        this.lastModified = vcf.lastModified();
+    }
+
+    /**
+     * @return where the index of the VCF file is stored, whether it exists or not
+     */
+    static File getFile(File vcf, String extension) {
+        final String hash = Integer.toHexString(vcf.getAbsolutePath().hashCode());
+        return new File(new File(OS.getConfigPath(), "index"), vcf.getName() + "." + hash + "." + extension);
+    }
+
+    /**
+     * Reads the header of an index.
+     *
+     * @return true if the index belongs to the current version of the VCF file. The input is left
+     * after the header
+     */
+    static boolean isCurrent(DataInput input, File vcf, int magic) throws IOException {
+        return input.readInt() == magic
+                && input.readUTF().equals(vcf.getAbsolutePath())
+                && input.readLong() == vcf.length()
+                && input.readLong() == vcf.lastModified();
+    }
+
+    /**
+     * @return where the index is stored
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the header and the content of the index. It is written to a temporary file first, and
+     * the index is only replaced when it is complete, so a failed write does not leave a half index.
+     *
+     * @param content writes the index after the header
+     */
+    void write(Content content) throws IOException {
+        file.getParentFile().mkdirs();
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            output.writeInt(magic);
+            output.writeUTF(vcf.getAbsolutePath());
+            output.writeLong(length);
+            output.writeLong(lastModified);
+            content.write(output);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) throw new IOException("Cannot write " + file);
+        }
+    }
+
+    interface Content {
+        void write(DataOutputStream output) throws IOException;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFileReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Random access to the variants of a VCF file by coordinate. Bgzipped files (.vcf.gz) use a tabix
+ * index (.tbi) and plain files use a tribble index (.idx), both next to the file.
+ */
+class IndexedVcfReader {
+
+    private final File file;
+    private final File indexFile;
+    private final boolean blockCompressed;
+
+    IndexedVcfReader(File file) {
+        this.file = file;
+        this.blockCompressed = isBlockCompressed(file);
+        this.indexFile = blockCompressed ? Tribble.tabixIndexFile(file) : Tribble.indexFile(file);
+    }
+
+    private static boolean isBlockCompressed(File file) {
+        try {
+            return IOUtil.isBlockCompressed(file.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if there is an index for this file, and it is not older than the file
+     */
+    boolean isIndexed() {
+        return indexFile.exists() && indexFile.lastModified() >= file.lastModified();
+    }
+
+    /**
+     * @return false if the file is gzipped but not bgzipped, so it cannot be indexed
+     */
+    boolean canBeIndexed() {
+        return blockCompressed || !file.getName().endsWith(".gz");
+    }
+
+    /**
+     * Reads the whole file and writes the index next to it.
+     *
+     * @throws IOException if the index cannot be written
+     */
+    void createIndex() throws IOException {
+        final Index index = blockCompressed
+                ? IndexFactory.createIndex(file, new VCFCodec(), IndexFactory.IndexType.TABIX)
+                : IndexFactory.createDynamicIndex(file, new VCFCodec());
+        index.write(indexFile);
+    }
+
+    /**
+     * Gets the first variants that pass the filter, in the given chromosome, starting at the given
+     * position.
+     *
+     * @param chrom  chromosome
+     * @param pos    first position
+     * @param filter only variants that pass this filter are returned
+     * @param limit  maximum number of variants to return
+     * @return a list with at most limit variants, in file order
+     */
+    List<VariantContext> query(String chrom, int pos, Predicate<VariantContext> filter, int limit) {
+        final List<VariantContext> variants = new ArrayList<>();
+        try (VCFFileReader reader = new VCFFileReader(file, indexFile, true);
+             CloseableIterator<VariantContext> iterator = reader.query(chrom, pos, Integer.MAX_VALUE)) {
+            while (iterator.hasNext() && variants.size() < limit) {
+                if (Thread.currentThread().isInterrupted()) break;
+                final VariantContext variant = iterator.next();
+                if (filter.test(variant)) variants.add(variant);
+            }
+        }
+        return variants;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.uichuimi.coat.core.Dictionary;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Values of one INFO key for every variant in a file, stored in primitive arrays indexed by the
+ * position of the variant in the file, with a bitmap of the variants that have the key. Strings are
+ * stored as {@link Dictionary} codes. Filters on a cached key are tested with an array scan, instead
+ * of reading the file again. As in {@link LightVcfFilter}, variants without the key always pass.
+ * <p>
+ * Only keys with a single value per variant are cached. Columns are filled during a normal scan by
+ * a {@link Builder}, which gives up when it finds a value that the filters could not test as a single
+ * value.
+ */
+class InfoColumn {
+
+    private final VCFHeaderLineType type;
+    private final int size;
+    private final BitSet present;
+    private final int[] integers;
+    private final double[] floats;
+    private final Dictionary dictionary;
+
+    private InfoColumn(VCFHeaderLineType type, int size, BitSet present, int[] integers, double[] floats,
+                       Dictionary dictionary) {
+        this.type = type;
+        this.size = size;
+        this.present = present;
+        this.integers = integers;
+        this.floats = floats;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the type filters use to test the key: the header type, or String if the key is not in the header
+     */
+    static VCFHeaderLineType typeOf(VCFHeader header, String key) {
+        final VCFInfoHeaderLine line = header == null || key == null ? null : header.getInfoHeaderLine(key);
+        if (line == null || line.getType() == VCFHeaderLineType.Character) return VCFHeaderLineType.String;
+        return line.getType();
+    }
+
+    VCFHeaderLineType getType() {
+        return type;
+    }
+
+    int size() {
+        return size;
+    }
+
+    BitSet selectIntegers(IntPredicate test) {
+        final BitSet selected = missing();
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1))
+            if (test.test(integers[i])) selected.set(i);
+        return selected;
+    }
+
+    BitSet selectFloats(DoublePredicate test) {
+        final BitSet selected = missing();
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1))
+            if (test.test(floats[i])) selected.set(i);
+        return selected;
+    }
+
+    BitSet selectStrings(Predicate<String> test) {
+        // Each different value is tested only once
+        final List<String> words = dictionary.getWordList();
+        final boolean[] passes = new boolean[words.size()];
+        for (int code = 0; code < passes.length; code++) passes[code] = test.test(words.get(code));
+        final BitSet selected = missing();
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1))
+            if (passes[integers[i]]) selected.set(i);
+        return selected;
+    }
+
+    BitSet selectFlags(boolean pass) {
+        final BitSet selected = missing();
+        if (pass) selected.or(present);
+        return selected;
+    }
+
+    private BitSet missing() {
+        final BitSet missing = new BitSet(size);
+        missing.set(0, size);
+        missing.andNot(present);
+        return missing;
+    }
+
+    /**
+     * Tests a filter on one INFO key over its column, as returned by {@link LightVcfFilter#getColumnSelector()}.
+     */
+    static class Selector {
+
+        private final String key;
+        private final Function<InfoColumn, BitSet> selector;
+
+        Selector(String key, Function<InfoColumn, BitSet> selector) {
+            this.key = key;
+            this.selector = selector;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the positions of the variants that pass the filter
+         */
+        BitSet select(InfoColumn column) {
+            return selector.apply(column);
+        }
+    }
+
+    /**
+     * Fills a column from several threads. Each variant must be added only once.
+     */
+    static class Builder {
+
+        private final String key;
+        private final VCFHeaderLineType type;
+        private final int size;
+        private final AtomicLongArray present;
+        private final int[] integers;
+        private final double[] floats;
+        private final Dictionary dictionary;
+        private volatile boolean invalid;
+
+        /**
+         * @param size number of variants in the file
+         */
+        Builder(VCFHeader header, String key, int size) {
+            this.key = key;
+            this.type = typeOf(header, key);
+            this.size = size;
+            this.present = new AtomicLongArray((size + 63) / 64);
+            this.integers = type == VCFHeaderLineType.Integer || type == VCFHeaderLineType.String ? new int[size] : null;
+            this.floats = type == VCFHeaderLineType.Float ? new double[size] : null;
+            this.dictionary = type == VCFHeaderLineType.String ? new Dictionary() : null;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * @param index     position of the variant in the file
+         * @param attribute value of the key, as returned by {@link VcfLine#getInfo(String)}
+         */
+        void add(int index, Object attribute) {
+            if (invalid || attribute == null) return;
+            if (index >= size || attribute instanceof List) {
+                invalid = true;
+                return;
+            }
+            try {
+                switch (type) {
+                    case Integer:
+                        integers[index] = attribute instanceof Integer ? (int) attribute : Integer.parseInt((String) attribute);
+                        break;
+                    case Float:
+                        floats[index] = attribute instanceof Double ? (double) attribute : Double.parseDouble((String) attribute);
+                        break;
+                    case Flag:
+                        if (!(attribute instanceof Boolean)) invalid = true;
+                        break;
+                    default:
+                        synchronized (dictionary) {
+                            integers[index] = dictionary.addWord((String) attribute);
+                        }
+                }
+            } catch (RuntimeException e) {
+                // Filters would fail on this value, so they must read it from the file
+                invalid = true;
+                return;
+            }
+            present.accumulateAndGet(index >> 6, 1L << index, (a, b) -> a | b);
+        }
+
+        /**
+         * @return the column, or null if some value could not be cached
+         */
+        InfoColumn build() {
+            if (invalid) return null;
+            final long[] words = new long[present.length()];
+            for (int i = 0; i < words.length; i++) words[i] = present.get(i);
+            return new InfoColumn(type, size, BitSet.valueOf(words), integers, floats, dictionary);
+        }
+    }
+}
@@ -24,12 +24,17 @@
 package org.uichuimi.coat.view.lightreader;
 
 import org.uichuimi.coat.view.vcfreader.Zigosity;
+import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import javafx.event.Event;
 import javafx.event.EventHandler;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Created by uichuimi on 14/10/16.
@@ -39,6 +44,8 @@ public class LightSampleFilter {
     private EnumSet<Zigosity> zigosities = EnumSet.allOf(Zigosity.class);
     private String sample;
     private EventHandler handler;
+    private final FilterStats stats = new FilterStats();
+    private Predicate<VcfLine> linePredicate;
 
 
     public LightSampleFilter(String sample) {
@@ -51,36 +58,134 @@ public class LightSampleFilter {
         return zigosities.contains(zigosity);
     }
 
+    /**
+     * Same as {@link #filter(VariantContext)}, but reading the genotype from the raw line.
+     *
+     * @param line a raw VCF line
+     * @return true if the zigosity of the sample is accepted
+     */
+    public boolean filter(VcfLine line) {
+        return zigosities.contains(getZigosity(line.getGenotype(sample)));
+    }
+
+    /**
+     * Same as {@link #filter(VcfLine)}, but the predicate takes a copy of the accepted zigosities, so
+     * it can be used from other threads while the user changes this filter. The predicate is rebuilt
+     * only after this filter changes, so the same predicate means the same filter.
+     *
+     * @return the compiled predicate
+     */
+    public Predicate<VcfLine> getLinePredicate() {
+        Predicate<VcfLine> linePredicate = this.linePredicate;
+        if (linePredicate == null) {
+            final String sample = this.sample;
+            final EnumSet<Zigosity> accepted = EnumSet.copyOf(zigosities);
+            this.linePredicate = linePredicate = line -> accepted.contains(getZigosity(line.getGenotype(sample)));
+        }
+        return linePredicate;
+    }
+
+    /**
+     * Gets the zigosity of a raw GT value, following the same criteria as htsjdk genotype types.
+     */
+    static Zigosity getZigosity(String gt) {
+        if (gt == null || gt.isEmpty()) return Zigosity.NO_CALL;
+        int first = -1;
+        boolean same = true;
+        int start = 0;
+        while (start <= gt.length()) {
+            int end = start;
+            while (end < gt.length() && gt.charAt(end) != '/' && gt.charAt(end) != '|') end++;
+            if (end == start + 1 && gt.charAt(start) == '.') return Zigosity.NO_CALL;
+            final int allele;
+            try {
+                allele = Integer.parseInt(gt, start, end, 10);
+            } catch (NumberFormatException e) {
+                return Zigosity.NO_CALL;
+            }
+            if (first < 0) first = allele;
+            else if (allele != first) same = false;
+            start = end + 1;
+        }
+        if (!same) return Zigosity.HET;
+        return first == 0 ? Zigosity.WILD : Zigosity.HOM;
+    }
+
     private Zigosity getZigosity(VariantContext variant) {
-        if (!variant.getGenotype(sample).isAvailable()) return Zigosity.NO_CALL;
-        if (variant.getGenotype(sample).isHet()) return Zigosity.HET;
-        if (variant.getGenotype(sample).isHomVar()) return Zigosity.HOM;
-        if (variant.getGenotype(sample).isHomRef()) return Zigosity.WILD;
+        return getZigosity(variant.getGenotype(sample));
+    }
+
+    /**
+     * Gets the zigosity of a decoded genotype.
+     */
+    static Zigosity getZigosity(Genotype genotype) {
+        if (!genotype.isAvailable()) return Zigosity.NO_CALL;
+        if (genotype.isHet()) return Zigosity.HET;
+        if (genotype.isHomVar()) return Zigosity.HOM;
+        if (genotype.isHomRef()) return Zigosity.WILD;
         return Zigosity.NO_CALL;
     }
 
+    /**
+     * Compiles this filter to test a {@link GenotypeMatrix} instead of lines. The selector takes a
+     * copy of the accepted zigosities, so it does not change when the user changes this filter.
+     *
+     * @return the selector, that returns the positions of the variants that pass the filter, or null
+     * if the matrix has no planes for the sample
+     */
+    Function<GenotypeMatrix, BitSet> getMatrixSelector() {
+        final String sample = this.sample;
+        final EnumSet<Zigosity> accepted = EnumSet.copyOf(zigosities);
+        return matrix -> matrix.select(sample, accepted);
+    }
+
+    /**
+     * @return pass rate and cost of this filter during the last scan
+     */
+    public FilterStats getStats() {
+        return stats;
+    }
+
     public String getSample() {
         return sample;
     }
 
     public void setSample(String sample) {
         this.sample = sample;
+        linePredicate = null;
     }
 
     public void set(Zigosity zigosity) {
         zigosities.add(zigosity);
-        handler.handle(new Event(Event.ANY));
+        linePredicate = null;
+        if (handler != null) handler.handle(new Event(Event.ANY));
     }
 
     public void unset(Zigosity zigosity) {
         zigosities.remove(zigosity);
-        handler.handle(new Event(Event.ANY));
+        linePredicate = null;
+        if (handler != null) handler.handle(new Event(Event.ANY));
+    }
+
+    /**
+     * Replaces the accepted zigosities at once, without notifying the change handler.
+     */
+    void setZigosities(Set<Zigosity> zigosities) {
+        this.zigosities = zigosities.isEmpty() ? EnumSet.noneOf(Zigosity.class) : EnumSet.copyOf(zigosities);
+        linePredicate = null;
     }
 
     public boolean has(Zigosity zigosity) {
         return zigosities.contains(zigosity);
     }
 
+    /**
+     * @return true if every zigosity is accepted, so the filter never discards a variant
+     */
+    public boolean acceptsAll() {
+        return zigosities.size() == Zigosity.values().length;
+    }
+
     public void setOnChange(EventHandler onChange) {
         this.handler = onChange;
     }
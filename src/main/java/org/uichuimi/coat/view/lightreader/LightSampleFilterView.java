@@ -31,12 +31,14 @@ import javafx.geometry.VPos;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.RowConstraints;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -116,7 +118,11 @@ public class LightSampleFilterView extends BorderPane {
             final CheckBox het = newCheckBox(sampleFilter, Zigosity.HET);
             final CheckBox hom = newCheckBox(sampleFilter, Zigosity.HOM);
             final int row = i + 2;
-            gridPane.add(new Label(samples.get(i)), 0, row);
+            final Label label = new Label(samples.get(i));
+            final Tooltip tooltip = new Tooltip();
+            tooltip.textProperty().bind(sampleFilter.getStats().summaryProperty());
+            label.setTooltip(tooltip);
+            gridPane.add(label, 0, row);
             gridPane.add(none, 1, row);
             gridPane.add(wild, 2, row);
             gridPane.add(het, 3, row);
@@ -155,6 +161,24 @@ public class LightSampleFilterView extends BorderPane {
         checkBox.setIndeterminate(!allMatch && !noneMatch);
     }
 
+    /**
+     * Sets the zigosities of every sample to the ones of the filter of the same sample in the given
+     * list, or to all of them if the sample has no filter, without notifying the change handler.
+     */
+    void setFilters(List<LightSampleFilter> filters) {
+        for (int i = 0; i < sampleFilters.size(); i++) {
+            final LightSampleFilter sampleFilter = sampleFilters.get(i);
+            final EnumSet<Zigosity> accepted = EnumSet.allOf(Zigosity.class);
+            for (LightSampleFilter filter : filters)
+                if (filter.getSample().equals(sampleFilter.getSample()))
+                    accepted.removeIf(zigosity -> !filter.has(zigosity));
+            sampleFilter.setZigosities(accepted);
+            for (Zigosity zigosity : Zigosity.values())
+                checkBoxes.get(zigosity).get(i).setSelected(accepted.contains(zigosity));
+        }
+        recalculateAll();
+    }
+
     public void onChange(EventHandler handler) {
         sampleFilters.forEach(sampleFilter -> sampleFilter.setOnChange(handler));
     }
@@ -32,6 +32,7 @@ import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.SortedList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -48,8 +49,11 @@ import org.uichuimi.coat.utils.OS;
 import org.uichuimi.coat.view.graphic.NaturalCell;
 import org.uichuimi.coat.view.graphic.SizableImageView;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -70,6 +74,12 @@ public class LightVariantsTable extends VBox {
             = new TableColumn<>("ID");
     private final TableColumn<VariantContext, String> qual
             = new TableColumn<>(OS.getResources().getString("quality"));
+    private final TableColumn<VariantContext, Double> maxFrequency
+            = new TableColumn<>(MaxFrequency.NAME);
+    /**
+     * Shown in the header of the MAX_AF column when it cannot be sorted
+     */
+    private final Label unsortable = new Label();
 
     private final ComboBox<String> currentChromosome = new ComboBox<>();
     private final TextField currentPosition = new TextField();
@@ -79,12 +89,52 @@ public class LightVariantsTable extends VBox {
     private final VCFHeader header;
     private Label warningLabel = new Label("This table will show maximum " +
             "10000 results");
+    private final HBox warningBox = new HBox(warningLabel);
+    private BiConsumer<String, Integer> onCoordinateNotFound;
+    private Consumer<String> onLookup;
+    private SearchIndex searchIndex;
 
 
     public LightVariantsTable(VCFHeader header, ObservableList<VariantContext> variants) {
-        this.table.setItems(variants);
         this.header = header;
         initStructure();
+        setVariants(variants);
+    }
+
+    /**
+     * Replaces the list of variants shown in the table. Lists paged from disk have no size limit, so
+     * the warning is hidden for them. Lists in memory can be sorted by the MAX_AF column, without
+     * changing the order of the given list. Paged lists cannot, and the header of the column says so.
+     *
+     * @param variants the new list of variants
+     */
+    public void setVariants(ObservableList<VariantContext> variants) {
+        setVariants(variants, null);
+    }
+
+    /**
+     * Same as {@link #setVariants(ObservableList)}, with an index of the words of the variants, so
+     * the table is searched without reading the rows and while the user types.
+     *
+     * @param searchIndex the index, with rows numbered as in variants, or null to search the rows
+     *                    one by one
+     */
+    void setVariants(ObservableList<VariantContext> variants, SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+        final boolean paged = variants instanceof PagedVariantList;
+        // Sorting a paged list would read the whole file, lists in memory are sorted in a view
+        maxFrequency.setSortable(!paged);
+        maxFrequency.setGraphic(paged ? unsortable : null);
+        if (paged) {
+            table.getSortOrder().clear();
+            table.setItems(variants);
+        } else {
+            final SortedList<VariantContext> sorted = new SortedList<>(variants);
+            sorted.comparatorProperty().bind(table.comparatorProperty());
+            table.setItems(sorted);
+        }
+        warningBox.setVisible(!paged);
+        warningBox.setManaged(!paged);
         table.getSelectionModel().select(0);
     }
 
@@ -92,7 +142,6 @@ public class LightVariantsTable extends VBox {
         initTable();
         initSearchBox();
         final HBox coordinateBox = initCoordinatesBox();
-        final HBox warningBox = new HBox(warningLabel);
         getChildren().addAll(coordinateBox, table, warningBox);
         warningLabel.getStyleClass().add("warning-label");
         warningBox.getStyleClass().add("warning-box");
@@ -128,21 +177,65 @@ public class LightVariantsTable extends VBox {
 
     private void initSearchBox() {
         searchBox.setPromptText(OS.getResources().getString("search"));
+        searchBox.setTooltip(new Tooltip(OS.getString("search.tooltip")));
         searchBox.getStyleClass().add("fancy-text-field");
-        searchBox.setOnAction(event -> search(table.getSelectionModel().getSelectedIndex()));
+        searchBox.setOnAction(event -> search(table.getSelectionModel().getSelectedIndex(), false));
+        // The selected row is kept while it matches
+        searchBox.textProperty().addListener((observable, previous, text) -> {
+            if (searchIndex != null) search(table.getSelectionModel().getSelectedIndex() - 1, true);
+        });
     }
 
-    private void search(int from) {
+    /**
+     * Selects the next row that matches the search box. The index finds the rows with words that
+     * start with the text. When it has no more matches after the row, rows are read one by one, as
+     * in tables without index, so the text is also found inside words and in the rows that are not
+     * indexed. Rows are not read while the user types, the search starts again from the first row of
+     * the index instead.
+     *
+     * @param from  the row after which to search, or -1 to search from the first row
+     * @param typed whether the text was just typed, or the user pressed Enter
+     */
+    private void search(int from, boolean typed) {
         if (searchBox.getText().isEmpty()) return;
         if (from < -1) from = -1;
+        int index = searchIndex == null ? -1 : findInIndex(from);
+        if (index < 0) index = typed ? findInIndex(-1) : scan(from);
+        if (index >= 0) select(index);
+    }
+
+    /**
+     * @return the first row after from that matches the search box, reading the rows one by one
+     */
+    private int scan(int from) {
         for (int i = 0; i < table.getItems().size(); i++) {
             int index = (i + from + 1) % table.getItems().size();
             final VariantContext variant = table.getItems().get(index);
-            if (matches(variant, searchBox.getText().toLowerCase())) {
-                select(table.getItems().get(index));
-                break;
+            if (matches(variant, searchBox.getText().toLowerCase())) return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Rows of the index are numbered as in the list of variants, so in sorted tables the rows of
+     * all the matches are converted to find the next one in view order.
+     *
+     * @return the first row after from with a word that starts with the search box, or -1 if none
+     */
+    private int findInIndex(int from) {
+        final String text = searchBox.getText();
+        if (table.getItems() instanceof SortedList
+                && ((SortedList<VariantContext>) table.getItems()).getComparator() != null) {
+            final SortedList<VariantContext> sorted = (SortedList<VariantContext>) table.getItems();
+            final BitSet matches = searchIndex.matches(text);
+            int next = -1;
+            for (int row = matches.nextSetBit(0); row >= 0 && row < sorted.size(); row = matches.nextSetBit(row + 1)) {
+                final int index = sorted.getViewIndex(row);
+                if (index > from && (next < 0 || index < next)) next = index;
             }
+            return next;
         }
+        return searchIndex.next(text, from);
     }
 
     private boolean matches(VariantContext variant, String searchValue) {
@@ -161,6 +254,16 @@ public class LightVariantsTable extends VBox {
     private void setTableCellFactories() {
         table.getColumns().forEach(column -> column.setCellFactory(param -> new NaturalCell<>()));
         variant.setCellFactory(param -> new LightVariantCard());
+        maxFrequency.setCellFactory(param -> new NaturalCell<>() {
+            @Override
+            protected void updateItem(Double item, boolean empty) {
+                super.updateItem(item, empty);
+                if (!empty && item == null) {
+                    setText(VCFConstants.EMPTY_ID_FIELD);
+                    setTooltip(null);
+                }
+            }
+        });
     }
 
     private void setTableCellValueFactories() {
@@ -178,6 +281,7 @@ public class LightVariantsTable extends VBox {
         variant.setPrefWidth(150);
         rsId.setPrefWidth(150);
         qual.setPrefWidth(150);
+        maxFrequency.setPrefWidth(100);
     }
 
     private HBox initCoordinatesBox() {
@@ -191,6 +295,7 @@ public class LightVariantsTable extends VBox {
         HBox.setHgrow(separator, Priority.ALWAYS);
         final HBox box = new HBox(5, coordinate, currentChromosome, currentPosition, separator, searchBox);
         currentPosition.getStyleClass().add("fancy-text-field");
+        currentPosition.setPromptText(OS.getString("go.to.prompt"));
         box.setAlignment(Pos.CENTER);
         box.setPadding(new Insets(5));
         return box;
@@ -223,25 +328,82 @@ public class LightVariantsTable extends VBox {
         try {
             String cChromosome = currentChromosome.getValue();
             int cPos = Integer.valueOf(currentPosition.getText().replace(",", ""));
-            goTo(cChromosome, cPos);
+            if (!goTo(cChromosome, cPos) && onCoordinateNotFound != null)
+                onCoordinateNotFound.accept(cChromosome, cPos);
         } catch (NumberFormatException ignored) {
+            // Not a position, but maybe a gene or an ID
+            final String word = currentPosition.getText().trim();
+            if (!word.isEmpty() && onLookup != null) onLookup.accept(word);
         }
     }
 
-    private void goTo(String cChromosome, int cPos) {
-        for (VariantContext v : table.getItems())
-            if (v.getContig().equals(cChromosome) && v.getStart() >= cPos) {
-                select(v);
-                break;
-            }
+    /**
+     * Selects the first variant in the table at or after the coordinate.
+     *
+     * @param cChromosome chromosome
+     * @param cPos        position
+     * @return true if a variant was selected, false if the table has no variants after cPos in cChromosome
+     */
+    public boolean goTo(String cChromosome, int cPos) {
+        final int index = indexOf(cChromosome, cPos);
+        if (index < 0) return false;
+        select(index);
+        return true;
+    }
+
+    private int indexOf(String cChromosome, int cPos) {
+        if (table.getItems() instanceof PagedVariantList)
+            return ((PagedVariantList) table.getItems()).indexOf(cChromosome, cPos);
+        for (int i = 0; i < table.getItems().size(); i++) {
+            final VariantContext v = table.getItems().get(i);
+            if (v.getContig().equals(cChromosome) && v.getStart() >= cPos) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the action to perform when the user types a coordinate that is not in the table. The
+     * handler receives the chromosome and the position.
+     *
+     * @param handler the action, or null to do nothing
+     */
+    public void setOnCoordinateNotFound(BiConsumer<String, Integer> handler) {
+        this.onCoordinateNotFound = handler;
     }
 
-    private void select(VariantContext v) {
-        table.getSelectionModel().select(v);
-        table.scrollTo(v);
+    /**
+     * Sets the action to perform when the user types a word, like a gene or an rsID, instead of a
+     * position.
+     *
+     * @param handler the action, that receives the word, or null to do nothing
+     */
+    public void setOnLookup(Consumer<String> handler) {
+        this.onLookup = handler;
+    }
+
+    /**
+     * Selects by index, as paged lists may decode the same variant again into a different object
+     */
+    private void select(int index) {
+        table.getSelectionModel().select(index);
+        table.scrollTo(index);
+    }
+
+    /**
+     * Sets the chromosomes the user can select, instead of taking them from the variants in the table.
+     *
+     * @param chromosomes list of chromosomes
+     */
+    public void setChromosomes(List<String> chromosomes) {
+        Platform.runLater(() -> currentChromosome.getItems().setAll(chromosomes));
     }
 
     public void updateChromosomeComboBox() {
+        if (table.getItems() instanceof PagedVariantList) {
+            final PagedVariantList items = (PagedVariantList) table.getItems();
+            Platform.runLater(() -> currentChromosome.getItems().setAll(items.getContigs()));
+            return;
+        }
         if (table.getItems().isEmpty()) return;
         final List<String> list = table.getItems().stream()
                 .map(VariantContext::getContig)
@@ -252,6 +414,16 @@ public class LightVariantsTable extends VBox {
 
     private void createColumns() {
         table.getColumns().setAll(chrom, position, variant, rsId, qual);
+        final MaxFrequency frequencies = MaxFrequency.of(header);
+        if (!frequencies.isEmpty()) {
+            maxFrequency.setCellValueFactory(param -> {
+                final double max = frequencies.get(param.getValue());
+                return new SimpleObjectProperty<>(Double.isNaN(max) ? null : max);
+            });
+            unsortable.setGraphic(new SizableImageView("/img/black/info.png", SizableImageView.SMALL_SIZE));
+            unsortable.setTooltip(new Tooltip(OS.getString("max.af.unsortable")));
+            table.getColumns().add(maxFrequency);
+        }
         header.getInfoHeaderLines().stream().map(this::createInfoColumn).forEach(table.getColumns()::add);
     }
 
@@ -25,18 +25,32 @@ package org.uichuimi.coat.view.lightreader;
 
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
 import org.uichuimi.coat.utils.OS;
 
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
 /**
  * Created by uichuimi on 22/03/17.
  */
 public class LightVcfFilter {
 
+	/**
+	 * Column of the filters whose value is the text of a {@link FilterExpression}
+	 */
+	public static final String EXPRESSION = "EXPRESSION";
+
 	private static VCFHeader header;
 	private String column;
 	private String key;
 	private Connector connector;
 	private Object value;
+	private Predicate<VariantContext> predicate;
+	private Predicate<VcfLine> linePredicate;
+	private final FilterStats stats = new FilterStats();
 
 	public LightVcfFilter(String column, String key, Connector connector, Object value) {
 		this.column = column;
@@ -49,138 +63,363 @@ public class LightVcfFilter {
 		LightVcfFilter.header = header;
 	}
 
+	/**
+	 * Tests the variant against this filter. This is a shortcut for
+	 * <code>getPredicate().test(variant)</code>.
+	 *
+	 * @param variant the variant to test
+	 * @return true if the variant passes the filter
+	 */
 	public boolean filter(VariantContext variant) {
-		if (column.equals("INFO")) {
-			final Object attribute = variant.getAttribute(key);
-			if (attribute == null) return true;
-			if (attribute instanceof Iterable) {
-				for (Object element : ((Iterable) attribute)) if (filter(element)) return true;
-				return false;
+		return getPredicate().test(variant);
+	}
+
+	/**
+	 * Gets this filter compiled into a predicate. The predicate is built only once, and rebuilt
+	 * after any property of the filter changes, so threshold parsing, header type lookup and connector
+	 * selection are not repeated for every variant. Once returned, the predicate does not depend on
+	 * this filter, so it can be safely used from other threads.
+	 *
+	 * @return the compiled predicate
+	 */
+	public Predicate<VariantContext> getPredicate() {
+		Predicate<VariantContext> predicate = this.predicate;
+		if (predicate == null) this.predicate = predicate = compile();
+		return predicate;
+	}
+
+	/**
+	 * Builds the predicate for the current column, key, connector and value. Subclasses with a
+	 * different logic must override this method, not {@link #filter(VariantContext)}.
+	 *
+	 * @return a new predicate
+	 */
+	protected Predicate<VariantContext> compile() {
+		if (EXPRESSION.equals(column)) return compileExpression(expression -> expression.compile(header));
+		if (column == null || connector == null) return variant -> true;
+		switch (column) {
+			case "INFO":
+				return compileInfo();
+			case MaxFrequency.NAME: {
+				final MaxFrequency maxFrequency = MaxFrequency.of(header);
+				final DoublePredicate test = maxFrequencyTest();
+				return variant -> test.test(maxFrequency.get(variant));
+			}
+			case "CHROM": {
+				final Predicate<Object> matcher = stringMatcher();
+				return variant -> matcher.test(variant.getContig());
+			}
+			case "POS": {
+				final Predicate<Object> matcher = integerMatcher();
+				return variant -> matcher.test(variant.getStart());
+			}
+			case "ID": {
+				final Predicate<Object> matcher = stringMatcher();
+				return variant -> matcher.test(variant.getID());
 			}
-			return filter(attribute);
-		} else {
-			switch (column) {
-				case "CHROM":
-					return filterString(variant.getContig());
-				case "POS":
-					return filterInteger(variant.getStart());
-				case "ID":
-					return filterString(variant.getID());
-				case "REF":
-					return filterString(variant.getReference().getBaseString());
-				case "ALT":
-					return filterString(variant.getAltAlleleWithHighestAlleleCount().getBaseString());
-				case "QUAL":
-					return filterFloat(variant.getPhredScaledQual());
-				case "FILTER":
-					return filterString(variant.getFilters().toString());
+			case "REF": {
+				final Predicate<Object> matcher = stringMatcher();
+				return variant -> matcher.test(variant.getReference().getBaseString());
+			}
+			case "ALT": {
+				final Predicate<Object> matcher = stringMatcher();
+				return variant -> matcher.test(variant.getAltAlleleWithHighestAlleleCount().getBaseString());
+			}
+			case "QUAL": {
+				final Predicate<Object> matcher = floatMatcher();
+				return variant -> matcher.test(variant.getPhredScaledQual());
+			}
+			case "FILTER": {
+				final Predicate<Object> matcher = stringMatcher();
+				return variant -> matcher.test(variant.getFilters().toString());
 			}
 		}
-		return true;
+		return variant -> true;
+	}
+
+	/**
+	 * Same as {@link #getPredicate()}, but the predicate tests raw VCF lines. When possible, the
+	 * predicate reads only the needed column from the line, without decoding the whole variant.
+	 *
+	 * @return the compiled predicate
+	 */
+	public Predicate<VcfLine> getLinePredicate() {
+		Predicate<VcfLine> linePredicate = this.linePredicate;
+		if (linePredicate == null) this.linePredicate = linePredicate = compileLine();
+		return linePredicate;
+	}
+
+	/**
+	 * Builds the predicate for raw VCF lines. By default, columns that can not be read from the raw
+	 * line are tested by decoding the variant and using {@link #getPredicate()}.
+	 *
+	 * @return a new predicate
+	 */
+	protected Predicate<VcfLine> compileLine() {
+		if (EXPRESSION.equals(column)) return compileExpression(expression -> expression.compileLine(header));
+		if (column == null || connector == null) return line -> true;
+		switch (column) {
+			case "INFO": {
+				final String key = this.key;
+				final Predicate<Object> matcher = infoMatcher();
+				return line -> testAttribute(matcher, line.getInfo(key));
+			}
+			case MaxFrequency.NAME: {
+				final MaxFrequency maxFrequency = MaxFrequency.of(header);
+				final DoublePredicate test = maxFrequencyTest();
+				final double limit = maxFrequencyLimit();
+				return line -> test.test(maxFrequency.get(line, limit));
+			}
+			case "CHROM": {
+				final Predicate<Object> matcher = stringMatcher();
+				return line -> matcher.test(line.getChrom());
+			}
+			case "POS": {
+				final Predicate<Object> matcher = integerMatcher();
+				return line -> matcher.test(line.getPos());
+			}
+			case "ID": {
+				final Predicate<Object> matcher = stringMatcher();
+				return line -> matcher.test(line.getId());
+			}
+			case "QUAL": {
+				final Predicate<Object> matcher = floatMatcher();
+				return line -> matcher.test(line.getQual());
+			}
+			case "FILTER": {
+				final Predicate<Object> matcher = stringMatcher();
+				return line -> matcher.test(line.getFilters());
+			}
+		}
+		final Predicate<VariantContext> predicate = getPredicate();
+		return line -> predicate.test(line.getVariant());
+	}
+
+	/**
+	 * Compiles this filter to test a cached INFO column instead of lines. Like the other predicates,
+	 * the selector does not depend on this filter once returned.
+	 *
+	 * @return the selector, or null if this filter does not test a single INFO key
+	 */
+	InfoColumn.Selector getColumnSelector() {
+		if (getClass() != LightVcfFilter.class || !"INFO".equals(column) || key == null || connector == null)
+			return null;
+		switch (InfoColumn.typeOf(header, key)) {
+			case Integer: {
+				final IntPredicate test = integerTest(connector, integerValue());
+				return new InfoColumn.Selector(key, column -> column.selectIntegers(test));
+			}
+			case Float: {
+				final DoublePredicate test = floatTest(connector, floatValue());
+				return new InfoColumn.Selector(key, column -> column.selectFloats(test));
+			}
+			case Flag: {
+				final boolean isTrue = connector == Connector.TRUE;
+				return new InfoColumn.Selector(key, column -> column.selectFlags(isTrue));
+			}
+			default: {
+				final Predicate<String> test = stringTest(connector, String.valueOf(value));
+				return new InfoColumn.Selector(key, column -> column.selectStrings(test));
+			}
+		}
+	}
+
+	private Predicate<VariantContext> compileInfo() {
+		final String key = this.key;
+		final Predicate<Object> matcher = infoMatcher();
+		return variant -> testAttribute(matcher, variant.getAttribute(key));
 	}
 
-	private boolean filter(Object element) {
-		switch (header.getInfoHeaderLine(key).getType()) {
+	private static boolean testAttribute(Predicate<Object> matcher, Object attribute) {
+		if (attribute == null) return true;
+		if (attribute instanceof Iterable) {
+			for (Object element : ((Iterable) attribute)) if (matcher.test(element)) return true;
+			return false;
+		}
+		return matcher.test(attribute);
+	}
+
+	private Predicate<Object> infoMatcher() {
+		final VCFInfoHeaderLine line = header == null || key == null ? null : header.getInfoHeaderLine(key);
+		if (line == null) return stringMatcher();
+		switch (line.getType()) {
 			case Integer:
-				return filterInteger(element);
+				return integerMatcher();
 			case Float:
-				return filterFloat(element);
+				return floatMatcher();
 			case Flag:
-				return filterFlag(element);
+				return flagMatcher();
 			case String:
 			case Character:
 			default:
-				return filterString(element);
+				return stringMatcher();
 		}
 	}
 
-	private boolean filterFlag(Object variantValue) {
-		if (variantValue == null) return connector == Connector.FALSE;
-		if (variantValue instanceof Boolean) return connector == Connector.TRUE;
-		final Boolean value = Boolean.valueOf((String) variantValue);
-		return value && connector == Connector.TRUE;
+	private Predicate<Object> flagMatcher() {
+		final boolean isTrue = connector == Connector.TRUE;
+		final boolean isFalse = connector == Connector.FALSE;
+		return variantValue -> {
+			if (variantValue == null) return isFalse;
+			if (variantValue instanceof Boolean) return isTrue;
+			return isTrue && Boolean.parseBoolean((String) variantValue);
+		};
 	}
 
-	private boolean filterInteger(Object variantValue) {
-		if (value.getClass().isAssignableFrom(String.class))
-			try {
-				value = Integer.valueOf((String) value);
-			} catch (NumberFormatException ex) {
-				System.err.println("Not an integer number");
-				value = 0;
-			}
-		if (variantValue == null) return connector != Connector.TRUE;
-		int val = variantValue instanceof Integer
-				? (int) variantValue
-				: Integer.parseInt((String) variantValue);
+	private Predicate<Object> integerMatcher() {
+		final IntPredicate test = integerTest(connector, integerValue());
+		final boolean ifNull = connector != Connector.TRUE;
+		return variantValue -> {
+			if (variantValue == null) return ifNull;
+			return test.test(variantValue instanceof Integer
+					? (int) variantValue
+					: Integer.parseInt((String) variantValue));
+		};
+	}
+
+	private Predicate<Object> floatMatcher() {
+		final DoublePredicate test = floatTest(connector, floatValue());
+		final boolean ifNull = connector != Connector.TRUE;
+		return variantValue -> {
+			if (variantValue == null) return ifNull;
+			return test.test(variantValue instanceof Double
+					? (double) variantValue
+					: Double.parseDouble((String) variantValue));
+		};
+	}
+
+	/**
+	 * The MAX_AF column takes every frequency key of the header at once, as in
+	 * {@link MaxFrequency}. Like missing values of other columns, variants without frequencies pass
+	 * unless the connector is TRUE. This includes variants whose frequency arrays are all missing
+	 * (<code>.|.|.</code>), that {@link org.uichuimi.coat.view.ArrayFreqFilter} rejects when the
+	 * connector is LESS_THAN.
+	 */
+	private DoublePredicate maxFrequencyTest() {
+		final DoublePredicate test = floatTest(connector, floatValue());
+		final boolean ifNull = connector != Connector.TRUE;
+		return max -> Double.isNaN(max) ? ifNull : test.test(max);
+	}
+
+	/**
+	 * @return the lowest value from which the MAX_AF test always gives the same result, so lines are
+	 * only read until a frequency reaches it
+	 */
+	private double maxFrequencyLimit() {
+		switch (connector) {
+			case LESS_THAN:
+				return floatValue();
+			case TRUE:
+			case FALSE:
+				return Math.nextUp(0.0);
+			default:
+				return Math.nextUp(floatValue());
+		}
+	}
+
+	private Predicate<Object> stringMatcher() {
+		final Predicate<String> test = stringTest(connector, String.valueOf(value));
+		final boolean ifNull = connector == Connector.FALSE;
+		return variantValue -> {
+			if (variantValue == null) return ifNull;
+			return test.test((String) variantValue);
+		};
+	}
+
+	/**
+	 * Filters in the {@link #EXPRESSION} column keep the text of a {@link FilterExpression} as value,
+	 * which is parsed every time the filter is compiled. Invalid expressions do not discard any variant.
+	 */
+	private <T> Predicate<T> compileExpression(Function<FilterExpression, Predicate<T>> compiler) {
+		try {
+			return compiler.apply(FilterExpression.parse(String.valueOf(value)));
+		} catch (IllegalArgumentException ex) {
+			System.err.println("Not a valid expression: " + ex.getMessage());
+			return t -> true;
+		}
+	}
+
+	private int integerValue() {
+		if (value instanceof Number) return ((Number) value).intValue();
+		try {
+			return Integer.parseInt(String.valueOf(value));
+		} catch (NumberFormatException ex) {
+			System.err.println("Not an integer number");
+			return 0;
+		}
+	}
+
+	private double floatValue() {
+		if (value instanceof Number) return ((Number) value).doubleValue();
+		try {
+			return Double.parseDouble(String.valueOf(value));
+		} catch (NumberFormatException ex) {
+			System.err.println("Not a float number");
+			return 0;
+		}
+	}
+
+	private static IntPredicate integerTest(Connector connector, int value) {
 		switch (connector) {
 			case EQUALS:
-				return val == (int) value;
+				return val -> val == value;
 			case MORE_THAN:
-				return val > (int) value;
+				return val -> val > value;
 			case LESS_THAN:
-				return val < (int) value;
+				return val -> val < value;
 			case TRUE:
-				return val != 0;
+				return val -> val != 0;
 			case FALSE:
-				return val == 0;
+				return val -> val == 0;
 			case IS_NOT:
-				return val != (int) value;
+				return val -> val != value;
 		}
-		return false;
+		return val -> false;
 	}
 
-	private boolean filterFloat(Object variantValue) {
-		if (value.getClass().isAssignableFrom(String.class))
-			try {
-				value = Double.valueOf((String) value);
-			} catch (NumberFormatException ex) {
-				System.err.println("Not a float number");
-				value = 0;
-			}
-		if (variantValue == null) return connector != Connector.TRUE;
-		double val = variantValue instanceof Double
-				? (double) variantValue
-				: Double.parseDouble((String) variantValue);
+	private static DoublePredicate floatTest(Connector connector, double value) {
 		switch (connector) {
 			case EQUALS:
-				return val == (double) value;
+				return val -> val == value;
 			case MORE_THAN:
-				return val > (double) value;
+				return val -> val > value;
 			case LESS_THAN:
-				return val < (double) value;
+				return val -> val < value;
 			case TRUE:
-				return val != 0;
+				return val -> val != 0;
 			case FALSE:
-				return val == 0;
+				return val -> val == 0;
 			case IS_NOT:
-				return val != (double) value;
+				return val -> val != value;
 		}
-		return false;
+		return val -> false;
 	}
 
-	private boolean filterString(Object variantValue) {
-		if (!value.getClass().isAssignableFrom(String.class))
-			value = String.valueOf(value);
-		if (variantValue == null) return connector == Connector.FALSE;
-		final String val = (String) variantValue;
+	private static Predicate<String> stringTest(Connector connector, String value) {
 		switch (connector) {
 			case EQUALS:
-				return variantValue.equals(value);
+				return value::equals;
 			case MORE_THAN:
-				return val.compareTo((String) value) > 0;
+				return val -> val.compareTo(value) > 0;
 			case LESS_THAN:
-				return val.compareTo((String) value) < 0;
+				return val -> val.compareTo(value) < 0;
 			case TRUE:
-				return !val.equals(".");
+				return val -> !val.equals(".");
 			case FALSE:
-				return val.equals(".");
+				return val -> val.equals(".");
 			case IS_NOT:
-				return !val.equals(value);
+				return val -> !val.equals(value);
 			case CONTAINS:
-				return val.contains((String) value);
+				return val -> val.contains(value);
 		}
-		return false;
+		return val -> false;
+	}
+
+	/**
+	 * @return pass rate and cost of this filter during the last scan
+	 */
+	public FilterStats getStats() {
+		return stats;
 	}
 
 	public String getColumn() {
@@ -189,6 +428,8 @@ public class LightVcfFilter {
 
 	public void setColumn(String column) {
 		this.column = column;
+		predicate = null;
+		linePredicate = null;
 	}
 
 	public String getKey() {
@@ -197,6 +438,8 @@ public class LightVcfFilter {
 
 	public void setKey(String key) {
 		this.key = key;
+		predicate = null;
+		linePredicate = null;
 	}
 
 	public Connector getConnector() {
@@ -205,6 +448,8 @@ public class LightVcfFilter {
 
 	public void setConnector(Connector connector) {
 		this.connector = connector;
+		predicate = null;
+		linePredicate = null;
 	}
 
 	public Object getValue() {
@@ -213,6 +458,8 @@ public class LightVcfFilter {
 
 	public void setValue(Object value) {
 		this.value = value;
+		predicate = null;
+		linePredicate = null;
 	}
 
 	public enum Connector {
@@ -23,6 +23,7 @@
 
 package org.uichuimi.coat.view.lightreader;
 
+import org.uichuimi.coat.CoatView;
 import org.uichuimi.coat.view.lightreader.LightVcfFilter.Connector;
 import htsjdk.variant.vcf.VCFCompoundHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
@@ -30,6 +31,7 @@ import htsjdk.variant.vcf.VCFHeaderLineType;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
@@ -49,14 +51,16 @@ public class LightVcfFilterCell extends ListCell<LightVcfFilter> {
     private TextField value = new TextField();
     private Button delete = new Button("Delete");
     private Button apply = new Button("Apply");
-    private final HBox hBox = new HBox(5, column, key, connector, value, apply, delete);
+    private Label stats = new Label();
+    private final HBox hBox = new HBox(5, column, key, connector, value, apply, delete, stats);
 
 
     LightVcfFilterCell(VCFHeader header, LightVcfReader reader) {
         this.header = header;
         this.reader = reader;
         hBox.setAlignment(Pos.CENTER_LEFT);
-        column.getItems().addAll("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO");
+        column.getItems().addAll("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", MaxFrequency.NAME,
+                LightVcfFilter.EXPRESSION);
         column.valueProperty().addListener(change -> columnChanged());
         key.getItems().addAll(header.getInfoHeaderLines().stream().map(VCFCompoundHeaderLine::getID).collect(Collectors.toList()));
         key.valueProperty().addListener(change -> keyChanged());
@@ -78,17 +82,24 @@ public class LightVcfFilterCell extends ListCell<LightVcfFilter> {
     }
 
     private void connectorChanged() {
-        value.setDisable(connector.getValue() == Connector.TRUE
-                || connector.getValue() == Connector.FALSE);
+        value.setDisable(!isExpression() && (connector.getValue() == Connector.TRUE
+                || connector.getValue() == Connector.FALSE));
         apply.setDisable(false);
     }
 
     private void columnChanged() {
         key.setDisable(!column.getValue().equals("INFO"));
+        // Expressions are written in the value field
+        connector.setDisable(isExpression());
+        value.setPromptText(isExpression() ? "INFO/DP > 10 and not FILTER = \"LowQual\"" : null);
         apply.setDisable(false);
         updateConnector();
     }
 
+    private boolean isExpression() {
+        return LightVcfFilter.EXPRESSION.equals(column.getValue());
+    }
+
     private void updateConnector() {
         switch (type()) {
             case Integer:
@@ -127,6 +138,7 @@ public class LightVcfFilterCell extends ListCell<LightVcfFilter> {
                 case "POS":
                     return VCFHeaderLineType.Integer;
                 case "QUAL":
+                case MaxFrequency.NAME:
                     return VCFHeaderLineType.Float;
             }
         }
@@ -139,6 +151,14 @@ public class LightVcfFilterCell extends ListCell<LightVcfFilter> {
     }
 
     private void apply() {
+        if (isExpression()) {
+            try {
+                FilterExpression.parse(value.getText()).compileLine(header);
+            } catch (IllegalArgumentException e) {
+                CoatView.printMessage(e.getMessage(), "warning");
+                return;
+            }
+        }
         final LightVcfFilter item = getItem();
         item.setColumn(column.getValue());
         item.setKey(key.getValue());
@@ -153,6 +173,7 @@ public class LightVcfFilterCell extends ListCell<LightVcfFilter> {
     @Override
     protected void updateItem(LightVcfFilter item, boolean empty) {
         super.updateItem(item, empty);
+        stats.textProperty().unbind();
         if (empty) {
             setText(null);
             setGraphic(null);
@@ -163,6 +184,7 @@ public class LightVcfFilterCell extends ListCell<LightVcfFilter> {
             key.setValue(item.getKey());
             connector.setValue(item.getConnector());
             value.setText(String.valueOf(item.getValue()));
+            stats.textProperty().bind(item.getStats().summaryProperty());
             apply.setDisable(true);
         }
     }
@@ -23,7 +23,6 @@
 
 package org.uichuimi.coat.view.lightreader;
 
-import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.Options;
@@ -52,23 +51,30 @@ import javafx.stage.StageStyle;
 import org.jetbrains.annotations.NotNull;
 import org.uichuimi.coat.Coat;
 import org.uichuimi.coat.CoatView;
+import org.uichuimi.coat.core.metrics.Metrics;
 import org.uichuimi.coat.core.reader.Reader;
 import org.uichuimi.coat.utils.FileManager;
 import org.uichuimi.coat.utils.OS;
-import org.uichuimi.coat.view.ArrayFreqFilter;
 import org.uichuimi.coat.view.graphic.SizableImageView;
 import org.uichuimi.coat.view.lightreader.header.LightHeaderViewController;
 import org.uichuimi.coat.view.lightreader.save.SaveVcfController;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -79,27 +85,29 @@ import java.util.stream.Collectors;
 public class LightVcfReader extends VBox implements Reader {
 
 
-	/**
-	 * For the TSV saver, to avoid more than 3 decimals
-	 */
-	private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("#.###",
-			DecimalFormatSymbols.getInstance(Locale.US));
-
 	final AtomicBoolean loading = new AtomicBoolean(false);
 
+	/**
+	 * Maximum number of variants kept in memory when the file cannot be paged from disk
+	 */
 	private final static long LIMIT = 100000;
 
-	private final static Set<String> FREQUENCY_IDS = new LinkedHashSet<>(Arrays.asList("AA_F", "EUR_F", "AFR_F",
-			"AMR_F", "EA_F", "ASN_F", "AA_MAF", "EUR_MAF", "AFR_MAF", "AMR_MAF", "EA_MAF", "ASN_MAF", "afr_maf",
-			"eur_maf", "amr_maf", "ea_maf", "asn_maf", "GMAF", "1KG14", "MINOR_ALLELE_FREQ", "EXAC_ADJ_MAF",
-			"EXAC_AFR_MAF", "EXAC_AMR_MAF", "EXAC_EAS_MAF", "EXAC_FIN_MAF", "EXAC_MAF", "EXAC_NFE_MAF",
-			"EXAC_OTH_MAF", "EXAC_SAS_MAF", "AFR_AF", "AMR_AF", "EAS_AF", "EUR_AF", "SAS_AF",
-			"AA_AF", "EA_AF", "ExAC_AF", "ExAC_Adj_AF", "ExAC_AFR_AF", "ExAC_AMR_AF",
-			"ExAC_EAS_AF", "ExAC_FIN_AF", "ExAC_NFE_AF", "ExAC_OTH_AF", "ExAC_SAS_AF"));
+	/**
+	 * Number of passing variants loaded around a coordinate when it is read from the index
+	 */
+	private final static int WINDOW = 10000;
 
-	private final List<String> FRQ = List.of("KG_AF", "GG_AF", "GE_AF", "EX_AF");
+	/**
+	 * Milliseconds to wait for more filter changes before scanning the file
+	 */
+	private final static long DEBOUNCE = 200;
 
-	private static final String TSV_EMPTY_VALUE = ".";
+	private final static Metrics.Timer PUBLISH = Metrics.get().timer("publish");
+	private final static Metrics.Counter PUBLISH_RECORDS = Metrics.get().counter("publish.records");
+	/**
+	 * Time batches wait in the queue of the JavaFX thread before they are published
+	 */
+	private final static Metrics.Timer PUBLISH_DELAY = Metrics.get().timer("publish.delay");
 
 	private final LightInfoTable infoTable;
 	private final LightVariantsTable variantsTable;
@@ -119,14 +127,49 @@ public class LightVcfReader extends VBox implements Reader {
 	private final Button addFrequencyFilters = new Button(OS.getString("add.frequency.filters"));
 	private final Button clearFilters = new Button(OS.getString("clear.all.filters"));
 	private final Button addFilter = new Button(OS.getString("add.filter"));
+	private final Button saveFilters = new Button(OS.getString("save.filters"));
+	private final Button loadFilters = new Button(OS.getString("load.filters"));
 	private final Label progressLabel = new Label();
 	private final StackPane stackPane = new StackPane(progressBar, progressLabel);
-	private final HBox hBox = new HBox(5, addFilter, clearFilters, addFrequencyFilters, stackPane);
+	private final HBox hBox = new HBox(5, addFilter, clearFilters, addFrequencyFilters, saveFilters, loadFilters, stackPane);
 	private ObservableList<VariantContext> variants = FXCollections.observableArrayList();
+	private SearchIndex searchIndex;
 	private File file;
 	private String baseName;
-	private Thread thread;
+	private final ScanScheduler scans = new ScanScheduler();
+	/**
+	 * Exports read the file on their own, so they do not cancel the scan of the table
+	 */
+	private final ScanScheduler exports = new ScanScheduler("vcf-export");
+	/**
+	 * Variants of a paged file that pass each filter, by position in the offset index. Keys are the
+	 * predicates of the filters, so results are forgotten when their filter changes.
+	 */
+	private final Map<Predicate<VcfLine>, BitSet> filterBits = Collections.synchronizedMap(new WeakHashMap<>());
 	private AtomicLong numberOfVariants = new AtomicLong();
+	private final IndexedVcfReader indexedReader;
+	/**
+	 * True when the variants list contains all the variants that pass the filters
+	 */
+	private volatile boolean cacheComplete;
+	private volatile VariantOffsetIndex offsetIndex;
+	/**
+	 * Held while the offset index is loaded, so it is never loaded twice
+	 */
+	private final Object offsetIndexLock = new Object();
+	/**
+	 * INFO values of all the variants in the file, by key, for the keys that have been filtered
+	 */
+	private final Map<String, InfoColumn> infoColumns = new ConcurrentHashMap<>();
+	/**
+	 * Zigosities of all the samples in all the variants, built the first time samples are filtered
+	 */
+	private volatile GenotypeMatrix genotypeMatrix;
+	/**
+	 * Index of IDs and genes, opened the first time a word is looked up. Only used from the JavaFX
+	 * thread
+	 */
+	private CompletableFuture<TermIndex> termIndex;
 
 
 	public LightVcfReader(File file) throws Exception {
@@ -134,9 +177,12 @@ public class LightVcfReader extends VBox implements Reader {
 			vcfHeader = reader.getFileHeader();
 		}
 		this.file = file;
+		this.indexedReader = new IndexedVcfReader(file);
 		this.samplesTableView = new LightSampleTable(vcfHeader);
 		this.variantsTable = new LightVariantsTable(vcfHeader, variants);
 		this.infoTable = new LightInfoTable(vcfHeader);
+		this.variantsTable.setOnCoordinateNotFound(this::goTo);
+		this.variantsTable.setOnLookup(this::jumpTo);
 		filtersPane.setCellFactory(param -> new LightVcfFilterCell(vcfHeader, this));
 		LightVcfFilter.setVcfHeader(vcfHeader);
 //        this.variantsTable.setSampleFilters(sampleFilterView.getFilters());
@@ -146,6 +192,8 @@ public class LightVcfReader extends VBox implements Reader {
 		initializeButtons();
 		initializeTabs();
 		bindFile();
+		final int count = VariantOffsetIndex.count(file);
+		if (count >= 0) numberOfVariants.set(count);
 		loadAndFilter();
 	}
 
@@ -161,6 +209,8 @@ public class LightVcfReader extends VBox implements Reader {
 		progressLabel.getStyleClass().add("white-text");
 		addFrequencyFilters.setOnAction(event -> addFrequencyFilters());
 		clearFilters.setOnAction(event -> clearFilters());
+		saveFilters.setOnAction(event -> saveFilters());
+		loadFilters.setOnAction(event -> loadFilters());
 		addFilter.setOnAction(event -> filtersPane.getItems().add(new LightVcfFilter("CHROM", null,
 				LightVcfFilter.Connector.EQUALS, "1")));
 
@@ -202,91 +252,110 @@ public class LightVcfReader extends VBox implements Reader {
 		final File f = FileManager.saveFile(
 				OS.getString("select.output.file"), file.getParentFile(),
 				file.getName().replace(".vcf", "_filtered.vcf"),
-				FileManager.VCF_FILTER, FileManager.TSV_FILTER);
+				FileManager.VCF_FILTER, FileManager.VCF_GZ_FILTER, FileManager.TSV_FILTER);
 		if (f == null) return;
-		if (f.getName().endsWith(".vcf")) saveAsVcf(f);
+		if (f.getName().endsWith(".vcf") || f.getName().endsWith(".vcf.gz")) saveAsVcf(f);
 		else saveAsTsv(f);
 	}
 
 	private void saveAsVcf(File f) {
 		final List[] toSave = getFieldsAndSamplesToSave();
 		if (toSave == null) return;
+		final FilterEvaluator<VcfLine> filter = getCurrentFilter();
 		final ProgressDialog progressDialog = new ProgressDialog();
 		final Stage stage = getProgressStage(progressDialog);
-		stopCurrentThread();
-		thread = new Thread(() -> {
-			saveVcf(f, toSave[0], toSave[1], progressDialog);
+		exports.schedule(token -> {
+			saveVcf(f, toSave[0], toSave[1], filter, progressDialog, token);
 			Platform.runLater(stage::close);
-		});
-		thread.start();
+		}, 0);
 		stage.showAndWait();
 	}
 
-	private void saveVcf(File f, List<String> infos, List<String> samples,
-	                     ProgressDialog progressDialog) {
-		System.out.println(loading.get());
-		if (variants.size() < LIMIT) saveFromCache(f, infos, samples);
-		else saveReloading(f, infos, samples, progressDialog);
+	private void saveVcf(File f, List<String> infos, List<String> samples, FilterEvaluator<VcfLine> filter,
+	                     ProgressDialog progressDialog, ScanScheduler.Token token) {
+		// Paged lists would read the file again anyway, and from the JavaFX thread
+		if (cacheComplete && !(variants instanceof PagedVariantList)) saveFromCache(f, infos, samples, token);
+		else saveReloading(f, infos, samples, filter, progressDialog, token);
 	}
 
-	private void saveReloading(File f, List<String> infos, List<String> samples, ProgressDialog progressDialog) {
-		variants.clear();
-		final VCFHeader header = new VCFHeader(vcfHeader.getMetaDataInInputOrder(), samples);
-		for (VCFHeaderLine headerLine : vcfHeader.getInfoHeaderLines()) {
-			if (!infos.contains(headerLine.getKey()))
-				header.getInfoHeaderLines().remove(header.getInfoHeaderLine(headerLine.getKey()));
-		}
-		final AtomicLong total = new AtomicLong();
-		final AtomicLong passed = new AtomicLong();
-		try (VariantContextWriter writer = new VariantContextWriterBuilder()
-				.setOutputFile(f).unsetOption(Options.INDEX_ON_THE_FLY).build()) {
-			Locale.setDefault(Locale.ENGLISH);
-			writer.writeHeader(header);
-			try (VCFFileReader reader = new VCFFileReader(file, false)) {
-				for (VariantContext variantContext : reader) {
-					if (total.incrementAndGet() % 1000 == 0) {
-						if (thread.isInterrupted()) break;
-						progressDialog.update(numberOfVariants.get(), total.get(), passed.get());
-						updateProgressInPlatform(total.get(), passed.get());
-					}
-					if (filterBySample(variantContext) && filterByColumns(variantContext)) {
-						passed.incrementAndGet();
-						if (variants.size() < LIMIT)
-							variants.add(variantContext);
-						saveVariant(infos, writer, variantContext);
-
-					}
+	/**
+	 * Copies the lines that pass the filters from the file, rewriting only the INFO and sample columns
+	 * when some of them are not saved, so variants are never decoded.
+	 *
+	 * @param filter the filters when the export was requested, taken in the JavaFX thread
+	 */
+	private void saveReloading(File f, List<String> infos, List<String> samples, FilterEvaluator<VcfLine> filter,
+	                           ProgressDialog progressDialog, ScanScheduler.Token token) {
+		final VcfLineProjection projection = new VcfLineProjection(vcfHeader, infos, samples);
+		boolean complete = false;
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(VcfOutput.open(f), StandardCharsets.UTF_8))) {
+			writer.write(VcfOutput.encodeHeader(getHeaderToSave(infos, samples)));
+			try (VcfParallelReaderFilter<String> reader = new VcfParallelReaderFilter<>(file, vcfHeader,
+					filter, projection)) {
+				List<String> batch;
+				while ((batch = reader.nextBatch()) != null) {
+					if (token.isCancelled()) break;
+					VcfOutput.writeLines(writer, batch);
+					progressDialog.update(numberOfVariants.get(), reader.getTotal(), reader.getPassed());
 				}
+				complete = batch == null;
+			} catch (InterruptedException ignored) {
+				// the export was cancelled
 			}
+		} catch (IOException e) {
+			if (!token.isCancelled()) Platform.runLater(() -> CoatView.printMessage(e.getMessage(), "severe"));
 		}
+		if (!complete && token.isCancelled()) discard(f);
 	}
 
-	private void saveFromCache(File f, List<String> infos, List<String> samples) {
-		final VCFHeader header = new VCFHeader(vcfHeader.getMetaDataInInputOrder(), samples);
-		for (VCFHeaderLine headerLine : vcfHeader.getInfoHeaderLines()) {
-			if (!infos.contains(headerLine.getKey()))
-				header.getInfoHeaderLines().remove(header.getInfoHeaderLine
-						(headerLine.getKey()));
-		}
+	private void saveFromCache(File f, List<String> infos, List<String> samples, ScanScheduler.Token token) {
+		final Set<String> keep = new HashSet<>(infos);
+		boolean complete = false;
 		try (VariantContextWriter writer = new VariantContextWriterBuilder()
-				.setOutputFile(f).unsetOption(Options.INDEX_ON_THE_FLY).build()) {
+				.setOutputVCFStream(VcfOutput.open(f)).unsetOption(Options.INDEX_ON_THE_FLY).build()) {
 			Locale.setDefault(Locale.ENGLISH);
-			writer.writeHeader(header);
+			writer.writeHeader(getHeaderToSave(infos, samples));
 			for (VariantContext variantContext : variants) {
-				saveVariant(infos, writer, variantContext);
+				if (token.isCancelled()) break;
+				saveVariant(keep, writer, variantContext);
 			}
+			complete = !token.isCancelled();
+		} catch (IOException e) {
+			if (!token.isCancelled()) Platform.runLater(() -> CoatView.printMessage(e.getMessage(), "severe"));
 		}
+		if (!complete && token.isCancelled()) discard(f);
 	}
 
-	private void saveVariant(List<String> infos, VariantContextWriter writer, VariantContext variantContext) {
-		final List<String> attributesToRemove = new LinkedList<>();
+	/**
+	 * Removes the file of a cancelled export, so a truncated file is never left behind.
+	 */
+	private void discard(File f) {
+		try {
+			Files.deleteIfExists(f.toPath());
+			Platform.runLater(() -> CoatView.printMessage(f.getName() + " was not saved, saving was cancelled", "warning"));
+		} catch (IOException e) {
+			Platform.runLater(() -> CoatView.printMessage(f.getName() + " is incomplete, saving was cancelled", "warning"));
+		}
+	}
+
+	private void saveVariant(Set<String> infos, VariantContextWriter writer, VariantContext variantContext) {
+		List<String> attributesToRemove = null;
 		for (String id : variantContext.getAttributes().keySet())
-			if (!infos.contains(id)) attributesToRemove.add(id);
-		final VariantContext variantToSave
-				= new VariantContextBuilder(variantContext)
-				.rmAttributes(attributesToRemove)
-				.make();
-		writer.add(variantToSave);
+			if (!infos.contains(id)) {
+				if (attributesToRemove == null) attributesToRemove = new ArrayList<>();
+				attributesToRemove.add(id);
+			}
+		if (attributesToRemove == null) writer.add(variantContext);
+		else writer.add(new VariantContextBuilder(variantContext).rmAttributes(attributesToRemove).make());
+	}
+
+	private VCFHeader getHeaderToSave(List<String> infos, List<String> samples) {
+		final VCFHeader header = new VCFHeader(vcfHeader.getMetaDataInInputOrder(), samples);
+		for (VCFHeaderLine headerLine : vcfHeader.getInfoHeaderLines()) {
+			if (!infos.contains(headerLine.getKey()))
+				header.getInfoHeaderLines().remove(header.getInfoHeaderLine(headerLine.getKey()));
+		}
+		return header;
 	}
 
 
@@ -314,70 +383,46 @@ public class LightVcfReader extends VBox implements Reader {
 	}
 
 
-	private synchronized void stopCurrentThread() {
-		try {
-			if (thread != null && thread.isAlive()) {
-				thread.interrupt();
-				thread.join();
-			}
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+	private void saveAsTsv(File f) {
+		final FilterEvaluator<VcfLine> filter = getCurrentFilter();
+		final ProgressDialog progressDialog = new ProgressDialog();
+		final Stage stage = getProgressStage(progressDialog);
+		exports.schedule(token -> {
+			saveTsv(f, filter, progressDialog, token);
+			Platform.runLater(stage::close);
+		}, 0);
+		stage.showAndWait();
 	}
 
-	private void saveAsTsv(File f) {
-		final List<String> header = getTsvHeaders();
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(f))) {
-			writer.write(String.join("\t", header));
-			writer.newLine();
-			try (VCFFileReader reader = new VCFFileReader(file, false)) {
-				for (VariantContext variantContext : reader)
-					if (filterBySample(variantContext) && filterByColumns(variantContext)) {
-						writer.write(String.join("\t", getTsvFields(variantContext)));
-						writer.newLine();
-					}
+	/**
+	 * Reads the variants that pass the filters again. Rows are formatted by the workers of the reader,
+	 * and written in file order.
+	 *
+	 * @param filter the filters when the export was requested, taken in the JavaFX thread
+	 */
+	private void saveTsv(File f, FilterEvaluator<VcfLine> filter, ProgressDialog progressDialog,
+	                     ScanScheduler.Token token) {
+		final TsvLineFormatter formatter = new TsvLineFormatter(vcfHeader);
+		boolean complete = false;
+		try (BufferedWriter writer = Files.newBufferedWriter(f.toPath())) {
+			writer.write(String.join("\t", formatter.getHeaders()));
+			writer.write('\n');
+			try (VcfParallelReaderFilter<String> reader = new VcfParallelReaderFilter<>(file, vcfHeader,
+					filter, formatter)) {
+				List<String> batch;
+				while ((batch = reader.nextBatch()) != null) {
+					if (token.isCancelled()) break;
+					VcfOutput.writeLines(writer, batch);
+					progressDialog.update(numberOfVariants.get(), reader.getTotal(), reader.getPassed());
+				}
+				complete = batch == null;
+			} catch (InterruptedException ignored) {
+				// the export was cancelled
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			if (!token.isCancelled()) Platform.runLater(() -> CoatView.printMessage(e.getMessage(), "severe"));
 		}
-	}
-
-	private List<String> getTsvHeaders() {
-		final List<String> headers = new LinkedList<>(Arrays.asList("CHROM", "POS", "ID", "REF", "ALT", "QUAL",
-				"FILTER"));
-		vcfHeader.getInfoHeaderLines().forEach(headerLine -> headers.add(headerLine.getID()));
-		for (String sample : vcfHeader.getSampleNamesInOrder()) {
-			vcfHeader.getFormatHeaderLines().forEach(vcfFormatHeaderLine -> headers.add(
-					sample + "." + vcfFormatHeaderLine.getID()
-			));
-			headers.add(sample + ".TYPE");
-		}
-		return headers;
-	}
-
-	private List<String> getTsvFields(VariantContext variant) {
-		final List<String> fields = new LinkedList<>();
-		fields.add(variant.getContig());
-		fields.add(variant.getStart() + "");
-		fields.add(variant.getID());
-		fields.add(variant.getReference().getBaseString());
-		fields.add(variant.getAlternateAlleles()
-				.stream()
-				.map(Allele::getBaseString)
-				.collect(Collectors.joining(",")));
-		fields.add(DECIMAL_FORMAT.format(variant.getPhredScaledQual()));
-		fields.add(String.join(",", variant.getFilters()));
-		vcfHeader.getInfoHeaderLines().forEach(headerLine ->
-				fields.add(variant.getAttributeAsString(headerLine.getID(), TSV_EMPTY_VALUE)));
-		for (String sample : vcfHeader.getSampleNamesInOrder()) {
-			vcfHeader.getFormatHeaderLines().forEach(line -> fields.add(
-					variant.getGenotype(sample).hasAnyAttribute(line.getID())
-							? variant.getGenotype(sample).getAnyAttribute(line.getID()).toString()
-							: TSV_EMPTY_VALUE));
-			fields.add(variant.getGenotype(sample).getType().name());
-		}
-		return fields;
-
+		if (!complete && token.isCancelled()) discard(f);
 	}
 
 	@Override
@@ -453,54 +498,482 @@ public class LightVcfReader extends VBox implements Reader {
 		infoTable.getVariantProperty().bind(variantsTable.getVariantProperty());
 	}
 
-	public synchronized void loadAndFilter() {
-		stopCurrentThread();
-		thread = new Thread(() -> {
+	/**
+	 * Filters the file again with the current filters. When the file can be seeked, the table shows
+	 * all the variants that pass, paged from disk, otherwise it shows the first {@link #LIMIT}.
+	 * <p>
+	 * The scan starts after a short delay, so rapid successive changes of the filters only start the
+	 * last scan, and it cancels the previous one without waiting for it.
+	 */
+	public void loadAndFilter() {
+		cacheComplete = false;
+		final Scan scan = new Scan();
+		scans.schedule(scan, DEBOUNCE);
+	}
+
+	/**
+	 * A scan with a snapshot of the filters, so the user can keep changing them while the scan runs.
+	 * <p>
+	 * In paged files, the variants that pass each filter are kept in a bitset, and a scan only reads
+	 * the file to evaluate the filters that have no bitset yet, which are usually the ones that were
+	 * just added or edited. Bitsets also come from INFO columns and from the genotype matrix, when
+	 * they are cached. If every filter has a bitset, the result is their intersection, and the file is
+	 * not read at all. If the filters with a bitset already discard most of the variants, only the
+	 * remaining variants are read. Otherwise, the whole file is read, and the bitsets and caches of
+	 * the new filters are built on the way.
+	 */
+	private class Scan implements Consumer<ScanScheduler.Token> {
+
+		private final List<Predicate<VcfLine>> predicates = new ArrayList<>();
+		private final List<FilterStats> stats = new ArrayList<>();
+		private final Map<Predicate<VcfLine>, InfoColumn.Selector> selectors = new HashMap<>();
+		private final Map<Predicate<VcfLine>, Function<GenotypeMatrix, BitSet>> sampleSelectors = new HashMap<>();
+		/**
+		 * Samples with an active filter, the only ones that need planes in the genotype matrix
+		 */
+		private final Set<String> filteredSamples = new HashSet<>();
+		private final boolean paged = SeekableLineReader.isSeekable(file);
+		private final ObservableList<VariantContext> cache;
+		private final SearchIndex searchIndex = new SearchIndex(vcfHeader);
+		private FilterEvaluator<VcfLine> filter;
+		private long total;
+		private long passed;
+
+		/**
+		 * Takes the snapshot. Must be created in the JavaFX thread.
+		 */
+		Scan() {
+			addFilters(predicates, stats);
+			for (LightSampleFilter sampleFilter : sampleFilterView.getFilters())
+				if (!sampleFilter.acceptsAll()) {
+					sampleSelectors.put(sampleFilter.getLinePredicate(), sampleFilter.getMatrixSelector());
+					filteredSamples.add(sampleFilter.getSample());
+				}
+			for (LightVcfFilter lightVcfFilter : filtersPane.getItems()) {
+				final InfoColumn.Selector selector = lightVcfFilter.getColumnSelector();
+				if (selector != null) selectors.put(lightVcfFilter.getLinePredicate(), selector);
+			}
+			setVariants(paged ? new PagedVariantList(file, vcfHeader) : FXCollections.observableArrayList(), searchIndex);
+			cache = variants;
+		}
+
+		@Override
+		public void accept(ScanScheduler.Token token) {
 			loading.set(true);
-			final AtomicLong total = new AtomicLong();
-			final AtomicLong passed = new AtomicLong();
-			try (VCFFileReader reader = new VCFFileReader(file, false)) {
-				variants.clear();
-				for (VariantContext variantContext : reader) {
-					if (total.incrementAndGet() % 1000 == 0) {
-						if (thread.isInterrupted()) break;
-						updateProgressInPlatform(total.get(), passed.get());
-					}
-					if (filterBySample(variantContext) && filterByColumns(variantContext)) {
-						passed.incrementAndGet();
-						if (variants.size() < LIMIT)
-							variants.add(variantContext);
-					}
+			try {
+				final VariantOffsetIndex index = paged ? getOffsetIndex() : null;
+				final boolean completed = index == null ? readFile(token, null) : select(token, index);
+				if (token.isCancelled()) return;
+				if (total > numberOfVariants.get())
+					numberOfVariants.set(total);
+				updateProgressInPlatform(token, total, passed, filter);
+				cacheComplete = completed && (paged || passed <= LIMIT);
+				if (!cacheComplete && !vcfHeader.getContigLines().isEmpty())
+					variantsTable.setChromosomes(vcfHeader.getContigLines().stream()
+							.map(VCFContigHeaderLine::getID)
+							.collect(Collectors.toList()));
+				else Platform.runLater(variantsTable::updateChromosomeComboBox);
+			} finally {
+				loading.set(false);
+			}
+		}
+
+		private boolean select(ScanScheduler.Token token, VariantOffsetIndex index) {
+			final BitSet selected = new BitSet(index.size());
+			selected.set(0, index.size());
+			final List<Predicate<VcfLine>> missing = new ArrayList<>();
+			final List<FilterStats> missingStats = new ArrayList<>();
+			for (int i = 0; i < predicates.size(); i++) {
+				final BitSet bits = getBits(predicates.get(i), index.size());
+				if (bits != null) selected.and(bits);
+				else {
+					missing.add(predicates.get(i));
+					missingStats.add(stats.get(i));
+				}
+			}
+			// Filters with a bitset keep the statistics of the scan that evaluated them
+			filter = new FilterEvaluator<>(missing, missingStats);
+			total = index.size();
+			if (missing.isEmpty()) {
+				// Lines are not read, so the search index reads them in the background
+				final long[] pointers = getPointers(index, selected, SearchIndex.MAX_ROWS);
+				Platform.runLater(() -> {
+					final int from = cache.size();
+					((PagedVariantList) cache).append(index, selected);
+					searchIndex.add(from, file, pointers);
+				});
+				passed = selected.cardinality();
+				return true;
+			}
+			if (2L * selected.cardinality() > index.size()) return readFile(token, new Selection(index, selected, missing));
+			return readPointers(token, getPointers(index, selected, Integer.MAX_VALUE));
+		}
+
+		/**
+		 * @param max maximum number of pointers to return
+		 * @return the pointers of the first selected variants
+		 */
+		private long[] getPointers(VariantOffsetIndex index, BitSet selected, int max) {
+			final long[] pointers = new long[Math.min(max, selected.cardinality())];
+			for (int i = selected.nextSetBit(0), j = 0; j < pointers.length; i = selected.nextSetBit(i + 1))
+				pointers[j++] = index.getPointer(i);
+			return pointers;
+		}
+
+		/**
+		 * @return the variants that pass the predicate, or null if they are unknown
+		 */
+		private BitSet getBits(Predicate<VcfLine> predicate, int size) {
+			final BitSet bits = filterBits.get(predicate);
+			if (bits != null) return bits;
+			final InfoColumn.Selector selector = selectors.get(predicate);
+			if (selector != null) {
+				final InfoColumn column = infoColumns.get(selector.getKey());
+				if (column != null && column.size() == size) return selector.select(column);
+			}
+			final Function<GenotypeMatrix, BitSet> sampleSelector = sampleSelectors.get(predicate);
+			final GenotypeMatrix matrix = genotypeMatrix;
+			if (sampleSelector != null && matrix != null && matrix.size() == size) return sampleSelector.apply(matrix);
+			return null;
+		}
+
+		/**
+		 * Reads the whole file.
+		 *
+		 * @param selection in paged files, the filters to evaluate and the variants that pass the rest.
+		 *                  Null if the file has no offset index, so all the filters are evaluated and
+		 *                  nothing is cached. Paged files without offset index build it on the way.
+		 */
+		private boolean readFile(ScanScheduler.Token token, Selection selection) {
+			if (selection == null) filter = new FilterEvaluator<>(predicates, stats);
+			final int count = selection == null ? -1 : selection.index.size();
+			final Map<String, InfoColumn.Builder> builders = getColumnBuilders(count, selectors.values());
+			final GenotypeMatrix.Builder matrixBuilder = getMatrixBuilder(count);
+			final VariantOffsetIndex.Builder indexBuilder = paged && selection == null
+					? new VariantOffsetIndex.Builder(file) : null;
+			final ObjIntConsumer<VcfLine> observer = builders.isEmpty() && matrixBuilder == null && indexBuilder == null
+					? null
+					: (line, index) -> {
+				for (InfoColumn.Builder builder : builders.values()) builder.add(index, line.getInfo(builder.getKey()));
+				if (matrixBuilder != null) matrixBuilder.add(index, line);
+				if (indexBuilder != null) indexBuilder.add(index, line);
+			};
+			final Predicate<VcfLine> predicate = selection == null ? filter : selection::test;
+			try (VcfParallelReaderFilter<VcfLine> reader = new VcfParallelReaderFilter<>(file, vcfHeader, predicate,
+					getMapper(), observer)) {
+				if (!read(token, reader)) return false;
+				if (indexBuilder != null) saveOffsetIndex(indexBuilder, (int) reader.getTotal());
+			}
+			for (InfoColumn.Builder builder : builders.values()) {
+				final InfoColumn column = builder.build();
+				if (column != null) infoColumns.put(builder.getKey(), column);
+			}
+			if (matrixBuilder != null) genotypeMatrix = matrixBuilder.build(genotypeMatrix);
+			if (selection != null) selection.save();
+			return true;
+		}
+
+		/**
+		 * @param count number of variants in the file, or -1 if unknown
+		 * @return a builder for the filtered samples that are not in the genotype matrix, or null if
+		 * the matrix already has all of them
+		 */
+		private GenotypeMatrix.Builder getMatrixBuilder(int count) {
+			if (count < 0) return null;
+			final GenotypeMatrix matrix = genotypeMatrix;
+			final List<String> samples = new ArrayList<>();
+			for (String sample : filteredSamples)
+				if (matrix == null || matrix.size() != count || !matrix.contains(sample)) samples.add(sample);
+			return samples.isEmpty() ? null : new GenotypeMatrix.Builder(vcfHeader, samples, count);
+		}
+
+		private void saveOffsetIndex(VariantOffsetIndex.Builder builder, int size) {
+			try {
+				offsetIndex = builder.build(size);
+			} catch (IOException e) {
+				Platform.runLater(() -> CoatView.printMessage("Cannot index " + file.getName() + ": " + e.getMessage(), "warning"));
+			}
+		}
+
+		/**
+		 * Reads only some variants of the file, evaluating the filters that have no bitset.
+		 */
+		private boolean readPointers(ScanScheduler.Token token, long[] pointers) {
+			try (VcfParallelReaderFilter<VcfLine> reader = new VcfParallelReaderFilter<>(file, vcfHeader, pointers,
+					filter, getMapper())) {
+				return read(token, reader);
+			}
+		}
+
+		private Function<VcfLine, VcfLine> getMapper() {
+			// Paged lists only need the pointers of the lines, the rest are decoded in the workers
+			return paged ? Function.identity() : line -> {
+				VcfParallelReaderFilter.decode(line);
+				return line;
+			};
+		}
+
+		/**
+		 * Adds the passing variants to the table as they are read.
+		 *
+		 * @return true if all the lines were read
+		 */
+		private boolean read(ScanScheduler.Token token, VcfParallelReaderFilter<VcfLine> reader) {
+			final long known = total;
+			try {
+				List<VcfLine> batch;
+				while ((batch = reader.nextBatch()) != null) {
+					if (token.isCancelled()) return false;
+					addToCache(cache, searchIndex, batch);
+					total = Math.max(known, reader.getTotal());
+					passed = reader.getPassed();
+					updateProgressInPlatform(token, total, passed, filter);
 				}
+				return !token.isCancelled();
+			} catch (InterruptedException ignored) {
 			} catch (Exception ex) {
-				CoatView.printMessage(ex.getMessage(), "severe");
+				if (!token.isCancelled()) Platform.runLater(() -> CoatView.printMessage(ex.getMessage(), "severe"));
+			}
+			return false;
+		}
+
+		/**
+		 * Builds the bitsets of the filters that are evaluated while the whole file is read.
+		 */
+		private class Selection {
+
+			private final VariantOffsetIndex index;
+			/**
+			 * Variants that pass the filters that already have a bitset
+			 */
+			private final BitSet selected;
+			private final List<Predicate<VcfLine>> missing;
+			private final AtomicLongArray[] bits;
+
+			Selection(VariantOffsetIndex index, BitSet selected, List<Predicate<VcfLine>> missing) {
+				this.index = index;
+				this.selected = selected;
+				this.missing = missing;
+				bits = new AtomicLongArray[missing.size()];
+				for (int i = 0; i < bits.length; i++) bits[i] = new AtomicLongArray((index.size() + 63) / 64);
 			}
-			if (total.get() > numberOfVariants.get())
-				numberOfVariants.set(total.get());
-			updateProgressInPlatform(total.get(), passed.get());
-			variantsTable.updateChromosomeComboBox();
-			loading.set(false);
+
+			/**
+			 * Every line is tested against all the missing filters, so their bitsets are complete.
+			 */
+			boolean test(VcfLine line) {
+				final int position = line.getIndex();
+				final boolean pass = filter.testAll(line,
+						i -> bits[i].accumulateAndGet(position >> 6, 1L << position, (a, b) -> a | b));
+				return pass && selected.get(position);
+			}
+
+			void save() {
+				for (int i = 0; i < bits.length; i++) {
+					final long[] words = new long[bits[i].length()];
+					for (int w = 0; w < words.length; w++) words[w] = bits[i].get(w);
+					filterBits.put(missing.get(i), BitSet.valueOf(words));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param count number of variants in the file, or -1 if unknown
+	 * @return builders for the INFO keys of the selectors that are not cached yet
+	 */
+	private Map<String, InfoColumn.Builder> getColumnBuilders(int count, Collection<InfoColumn.Selector> selectors) {
+		final Map<String, InfoColumn.Builder> builders = new LinkedHashMap<>();
+		if (count < 0) return builders;
+		for (InfoColumn.Selector selector : selectors)
+			if (!infoColumns.containsKey(selector.getKey()))
+				builders.computeIfAbsent(selector.getKey(), key -> new InfoColumn.Builder(vcfHeader, key, count));
+		return builders;
+	}
+
+	/**
+	 * Loads the offset index of the file. Missing or outdated indexes are built by the next scan,
+	 * while it reads the whole file.
+	 *
+	 * @return the index, or null if the file has no valid index yet
+	 */
+	private VariantOffsetIndex getOffsetIndex() {
+		if (offsetIndex != null) return offsetIndex;
+		synchronized (offsetIndexLock) {
+			if (offsetIndex == null) offsetIndex = VariantOffsetIndex.load(file);
+			return offsetIndex;
+		}
+	}
+
+	/**
+	 * @param searchIndex index of the words of the variants in list, or null if list is not indexed
+	 */
+	private void setVariants(ObservableList<VariantContext> list, SearchIndex searchIndex) {
+		if (variants instanceof PagedVariantList) ((PagedVariantList) variants).close();
+		if (this.searchIndex != null) this.searchIndex.close();
+		variants = list;
+		this.searchIndex = searchIndex;
+		variantsTable.setVariants(list, searchIndex);
+	}
+
+	/**
+	 * Adds a batch of passing lines to the list from the JavaFX thread, and to the search index of
+	 * the list. Only the first {@link #LIMIT} variants are kept in lists that are not paged.
+	 */
+	private void addToCache(ObservableList<VariantContext> cache, SearchIndex searchIndex, List<VcfLine> batch) {
+		final long submitted = PUBLISH_DELAY.start();
+		Platform.runLater(() -> {
+			PUBLISH_DELAY.stop(submitted);
+			final long start = PUBLISH.start();
+			publish(cache, searchIndex, batch);
+			PUBLISH.stop(start);
+			PUBLISH_RECORDS.add(batch.size());
 		});
-		thread.start();
 	}
 
-	private void updateProgressInPlatform(long total, long passed) {
+	private void publish(ObservableList<VariantContext> cache, SearchIndex searchIndex, List<VcfLine> batch) {
+		final int from = cache.size();
+		if (cache instanceof PagedVariantList) {
+			((PagedVariantList) cache).append(batch);
+			searchIndex.add(from, batch);
+			return;
+		}
+		final int free = (int) (LIMIT - from);
+		if (free <= 0) return;
+		final List<VcfLine> lines = batch.size() <= free ? batch : batch.subList(0, free);
+		searchIndex.add(from, lines);
+		cache.addAll(lines.stream().map(VcfLine::getVariant).collect(Collectors.toList()));
+	}
+
+	/**
+	 * Called when the user types a coordinate that is not in the table. If the table does not contain
+	 * all the variants that pass the filters, the variants after the coordinate are read from the
+	 * index of the file, creating it if needed, and replace the variants in the table.
+	 */
+	private void goTo(String chrom, int pos) {
+		if (cacheComplete) return;
+		if (!indexedReader.canBeIndexed()) {
+			CoatView.printMessage(file.getName() + " is not bgzipped, so it cannot be indexed", "warning");
+			return;
+		}
+		final Predicate<VariantContext> filter = getCurrentVariantFilter();
+		scans.schedule(token -> {
+			try {
+				if (!indexedReader.isIndexed()) {
+					Platform.runLater(() -> CoatView.printMessage("Indexing " + file.getName(), "info"));
+					indexedReader.createIndex();
+				}
+				final List<VariantContext> window = indexedReader.query(chrom, pos, filter, WINDOW);
+				if (token.isCancelled()) return;
+				Platform.runLater(() -> {
+					setVariants(FXCollections.observableArrayList(window), null);
+					variantsTable.goTo(chrom, pos);
+					progressLabel.setText(String.format("%s:%,d (%d)", chrom, pos, window.size()));
+				});
+			} catch (Exception ex) {
+				Platform.runLater(() -> CoatView.printMessage(ex.getMessage(), "severe"));
+			}
+		}, 0);
+	}
+
+	/**
+	 * Called when the user types a word instead of a position. The word is looked up in the term
+	 * index of the file, and the table jumps to the first variant with the word that passes the
+	 * filters, as if its coordinate had been typed. The current scan is not cancelled.
+	 * <p>
+	 * The first lookup opens the term index, which takes a whole pass over the file if the index has
+	 * not been built yet.
+	 */
+	private void jumpTo(String word) {
+		if (termIndex == null) termIndex = TermIndex.open(file, TermIndex.getKeys(vcfHeader));
+		if (!termIndex.isDone()) CoatView.printMessage("Indexing " + file.getName(), "info");
+		final Predicate<VariantContext> filter = getCurrentVariantFilter();
+		termIndex.thenAcceptAsync(index -> {
+			if (index == null) {
+				Platform.runLater(() -> CoatView.printMessage(file.getName() + " cannot be indexed", "warning"));
+				return;
+			}
+			try {
+				final long[] found = index.find(word);
+				final VariantContext variant = found.length == 0 ? null : findFirst(found, filter);
+				Platform.runLater(() -> {
+					if (found.length == 0) CoatView.printMessage(word + " not found", "info");
+					else if (variant == null)
+						CoatView.printMessage(found.length + " variants with " + word + " do not pass the filters", "info");
+					else if (!variantsTable.goTo(variant.getContig(), variant.getStart()))
+						goTo(variant.getContig(), variant.getStart());
+				});
+			} catch (Exception ex) {
+				Platform.runLater(() -> CoatView.printMessage(ex.getMessage(), "severe"));
+			}
+		}).exceptionally(ex -> {
+			Platform.runLater(() -> CoatView.printMessage(ex.getMessage(), "severe"));
+			return null;
+		});
+	}
+
+	/**
+	 * Reads the variants from the file, seeking each of them.
+	 *
+	 * @param pointers where the lines of the variants start, in file order
+	 * @return the first variant that passes the filter, or null if none passes
+	 */
+	private VariantContext findFirst(long[] pointers, Predicate<VariantContext> filter) throws IOException {
+		final VCFCodec codec = new VCFCodec();
+		codec.setVCFHeader(vcfHeader, vcfHeader.getVCFHeaderVersion() == null
+				? VCFHeaderVersion.VCF4_2
+				: vcfHeader.getVCFHeaderVersion());
+		try (SeekableLineReader reader = SeekableLineReader.open(file)) {
+			for (long pointer : pointers) {
+				reader.seek(pointer);
+				final VariantContext variant = VcfParallelReaderFilter.decode(new VcfLine(reader.readLine(), codec));
+				if (filter.test(variant)) return variant;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Same as {@link #getCurrentFilter()}, but for decoded variants and without statistics.
+	 */
+	private Predicate<VariantContext> getCurrentVariantFilter() {
+		Predicate<VariantContext> predicate = variant -> true;
+		for (LightSampleFilter sampleFilter : sampleFilterView.getFilters())
+			if (!sampleFilter.acceptsAll()) predicate = predicate.and(sampleFilter::filter);
+		for (LightVcfFilter filter : filtersPane.getItems())
+			predicate = predicate.and(filter.getPredicate());
+		return predicate;
+	}
+
+	/**
+	 * Shows the progress of a table scan and the statistics of its filters, unless a newer scan
+	 * replaced it in the meantime.
+	 */
+	private void updateProgressInPlatform(ScanScheduler.Token token, long total, long passed,
+	                                      FilterEvaluator<VcfLine> filter) {
 		Platform.runLater(() -> {
+			if (token.isCancelled()) return;
+			filter.publish();
 			final double progress = (double) passed / total;
 			progressBar.setProgress(progress);
 			progressLabel.setText(String.format("%s/%s (%.2f%%)", passed, total, 100 * progress));
 		});
 	}
 
+	/**
+	 * Adds a single MAX_AF filter, that tests the highest of all the frequency keys of the header in
+	 * one pass, instead of one filter per key.
+	 */
 	private void addFrequencyFilters() {
+		if (MaxFrequency.of(vcfHeader).isEmpty()) return;
 		final TextInputDialog dialog = new TextInputDialog("0.01");
 		dialog.setHeaderText("Set max value frequency");
 		dialog.setTitle("Max frequency");
 		dialog.showAndWait().ifPresent(s -> {
 			try {
 				final double th = Double.parseDouble(s);
-				addSimpleFreqFilters(th);
-				addArrayFreqFilters(th);
+				filtersPane.getItems().add(new LightVcfFilter(MaxFrequency.NAME, null,
+						LightVcfFilter.Connector.LESS_THAN, th));
 			} catch (NumberFormatException ex) {
 				ex.printStackTrace();
 			}
@@ -508,50 +981,69 @@ public class LightVcfReader extends VBox implements Reader {
 		loadAndFilter();
 	}
 
-	private void addSimpleFreqFilters(double th) {
-		for (VCFInfoHeaderLine info : vcfHeader.getInfoHeaderLines()) {
-			if (FREQUENCY_IDS.contains(info.getID())) {
-				final LightVcfFilter filter = new LightVcfFilter("INFO", info.getID(),
-						LightVcfFilter.Connector.LESS_THAN, th);
-				filtersPane.getItems().add(filter);
-			}
-		}
+	/**
+	 * Takes a snapshot of the current sample and column filters, so the returned predicate can be
+	 * safely used from other threads while the user edits the filters. Sample and column filters are
+	 * evaluated together, so the evaluator can put the most selective ones first. Exports do not
+	 * publish its statistics, so the filters keep the ones of the table scan.
+	 * <p>
+	 * Must be called from the JavaFX thread, as it reads the filter views and builds the predicates of
+	 * the filters, which are not thread safe.
+	 */
+	private FilterEvaluator<VcfLine> getCurrentFilter() {
+		final List<Predicate<VcfLine>> predicates = new ArrayList<>();
+		final List<FilterStats> stats = new ArrayList<>();
+		addFilters(predicates, stats);
+		return new FilterEvaluator<>(predicates, stats);
 	}
 
-	private void addArrayFreqFilters(double th) {
-		for (String key : FRQ) {
-			final VCFInfoHeaderLine line = vcfHeader.getInfoHeaderLine(key);
-			if (line == null) continue;
-			filtersPane.getItems().add(new ArrayFreqFilter(key, LightVcfFilter.Connector.LESS_THAN, th));
+	/**
+	 * Adds the predicates of the active filters, in the order they are shown, and their stats. As
+	 * predicates are only rebuilt when their filter changes, the same predicates mean the same filters.
+	 */
+	private void addFilters(List<Predicate<VcfLine>> predicates, List<FilterStats> stats) {
+		for (LightSampleFilter sampleFilter : sampleFilterView.getFilters()) {
+			if (sampleFilter.acceptsAll()) continue;
+			predicates.add(sampleFilter.getLinePredicate());
+			stats.add(sampleFilter.getStats());
+		}
+		for (LightVcfFilter filter : filtersPane.getItems()) {
+			predicates.add(filter.getLinePredicate());
+			stats.add(filter.getStats());
 		}
 	}
 
-	private boolean filterBySample(VariantContext variant) {
-		return sampleFilterView.getFilters().stream()
-				.allMatch(sampleFilter -> sampleFilter.filter(variant));
-	}
-
-	private boolean filterByColumns(VariantContext variant) {
-		return filtersPane.getItems().stream()
-				.allMatch(vcfFilter -> vcfFilter.filter(variant));
-	}
-
-
 	private void clearFilters() {
 		filtersPane.getItems().clear();
 		loadAndFilter();
 	}
 
-
-	private class FastFilter extends VcfParallelReaderFilter {
-		FastFilter(File file) {
-			super(file);
+	private void saveFilters() {
+		final File f = FileManager.saveFile(OS.getString("save.filters"), file.getParentFile(), "filters.json",
+				FileManager.JSON_FILTER);
+		if (f == null) return;
+		try {
+			new FilterPreset(filtersPane.getItems(), sampleFilterView.getFilters()).write(f);
+		} catch (IOException e) {
+			CoatView.printMessage(e.getMessage(), "severe");
 		}
+	}
 
-		@Override
-		boolean filter(VariantContext variantContext) {
-			return filterByColumns(variantContext) && filterBySample(variantContext);
-
+	/**
+	 * Replaces the current filters by the ones in a preset file. Samples that are not in the preset
+	 * accept every zigosity.
+	 */
+	private void loadFilters() {
+		final File f = FileManager.openFile(OS.getString("load.filters"), FileManager.JSON_FILTER);
+		if (f == null) return;
+		try {
+			LightVcfFilter.setVcfHeader(vcfHeader);
+			final FilterPreset preset = FilterPreset.read(f);
+			filtersPane.getItems().setAll(preset.getFilters());
+			sampleFilterView.setFilters(preset.getSampleFilters());
+			loadAndFilter();
+		} catch (IOException e) {
+			CoatView.printMessage(e.getMessage(), "severe");
 		}
 	}
 }
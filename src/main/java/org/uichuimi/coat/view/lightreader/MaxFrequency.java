@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.uichuimi.coat.core.vcf.FrequencyFields;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The highest population frequency of a variant, over all the frequency keys of
+ * {@link FrequencyFields} declared in the header. Keys are resolved once, so lines are read with a
+ * single pass over the INFO column, instead of looking for each key on its own. Every value of a key
+ * is taken, so lists with one value per ALT allele and arrays of populations separated by | are both
+ * supported.
+ * <p>
+ * Like the other numeric columns, the maximum is missing (NaN) when the variant has no frequencies.
+ * Missing values (.) and values that are not numbers are skipped, so a key whose values are all
+ * missing, like <code>KG_AF=.|.|.</code>, counts as no frequency. Note that the previous filters on
+ * each array key rejected those variants when testing that the frequency is less than a value,
+ * while MAX_AF lets them pass, as any other variant without frequencies.
+ */
+class MaxFrequency {
+
+    /**
+     * Name of the virtual column, in filters, expressions and tables
+     */
+    static final String NAME = "MAX_AF";
+
+    private final String[] keys;
+    /**
+     * Open addressing table with the position of each key plus one, indexed by the hash of the key
+     */
+    private final int[] table;
+    private final int mask;
+
+    private MaxFrequency(List<String> keys) {
+        this.keys = keys.toArray(new String[0]);
+        int size = 2;
+        while (size < 2 * keys.size()) size <<= 1;
+        table = new int[size];
+        mask = size - 1;
+        for (int i = 0; i < this.keys.length; i++) {
+            int slot = this.keys[i].hashCode() & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @param header header of the file, or null to get an empty instance
+     * @return the frequency keys of the header, in header order
+     */
+    static MaxFrequency of(VCFHeader header) {
+        final List<String> keys = new ArrayList<>();
+        if (header != null)
+            for (VCFInfoHeaderLine line : header.getInfoHeaderLines())
+                if (FrequencyFields.POPULATION.contains(line.getID()) || FrequencyFields.ARRAYS.contains(line.getID()))
+                    keys.add(line.getID());
+        return new MaxFrequency(keys);
+    }
+
+    /**
+     * @return true if the header declares no frequency keys, so every variant is missing
+     */
+    boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * @return the keys taken into account
+     */
+    List<String> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /**
+     * @return the highest frequency in the line, or NaN if it has none
+     */
+    double get(VcfLine line) {
+        return get(line, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Same as {@link #get(VcfLine)}, but stops reading the line as soon as a frequency reaches the
+     * limit, as filters already know their result.
+     *
+     * @param limit the highest value that needs to be known
+     * @return the highest frequency, a frequency not lower than limit, or NaN if it has none
+     */
+    double get(VcfLine line, double limit) {
+        if (keys.length == 0) return Double.NaN;
+        final long bounds = line.findInfoColumn();
+        if (bounds == VcfLine.MISSING) return Double.NaN;
+        final CharSequence chars = line.getLine();
+        final int end = VcfLine.valueEnd(bounds);
+        double max = Double.NaN;
+        int from = VcfLine.valueStart(bounds);
+        while (from < end) {
+            // Keys are hashed while they are read, as String.hashCode()
+            int to = from;
+            int hash = 0;
+            char c = 0;
+            while (to < end && (c = chars.charAt(to)) != '=' && c != ';') {
+                hash = 31 * hash + c;
+                to++;
+            }
+            final int key = to < end && c == '=' ? indexOf(hash, chars, from, to) : -1;
+            if (key >= 0) {
+                final int start = to + 1;
+                to = start;
+                boolean encoded = false;
+                while (to < end && (c = chars.charAt(to)) != ';') {
+                    if (c == '%') encoded = true;
+                    to++;
+                }
+                max = encoded ? max(max, line.getInfo(keys[key])) : max(max, chars, start, to);
+                if (max >= limit) return max;
+            } else while (to < end && chars.charAt(to) != ';') to++;
+            from = to + 1;
+        }
+        return max;
+    }
+
+    /**
+     * @return the highest frequency of the variant, or NaN if it has none
+     */
+    double get(VariantContext variant) {
+        double max = Double.NaN;
+        for (String key : keys) max = max(max, variant.getAttribute(key));
+        return max;
+    }
+
+    /**
+     * @param hash hash of the characters, as {@link String#hashCode()}
+     * @return the position of the key in the characters, or -1 if it is not a frequency key
+     */
+    private int indexOf(int hash, CharSequence chars, int start, int end) {
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            final String key = keys[table[slot] - 1];
+            if (matches(key, chars, start, end)) return table[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean matches(String key, CharSequence chars, int start, int end) {
+        if (key.length() != end - start) return false;
+        for (int i = 0; i < key.length(); i++) if (key.charAt(i) != chars.charAt(start + i)) return false;
+        return true;
+    }
+
+    private static double max(double max, Object value) {
+        if (value instanceof Number) return max(max, ((Number) value).doubleValue());
+        if (value instanceof String) return max(max, (String) value, 0, ((String) value).length());
+        if (value instanceof Iterable)
+            for (Object element : (Iterable) value) max = max(max, element);
+        return max;
+    }
+
+    /**
+     * Reads the values, separated by , or |, skipping missing (.) and empty values
+     */
+    private static double max(double max, CharSequence chars, int start, int end) {
+        int from = start;
+        while (from < end) {
+            int to = from;
+            while (to < end && chars.charAt(to) != '|' && chars.charAt(to) != ',') to++;
+            if (to > from && !(to == from + 1 && chars.charAt(from) == '.')) {
+                double number = Decimals.parse(chars, from, to);
+                if (Double.isNaN(number)) {
+                    try {
+                        number = Double.parseDouble(chars.subSequence(from, to).toString());
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                max = max(max, number);
+            }
+            from = to + 1;
+        }
+        return max;
+    }
+
+    private static double max(double max, double value) {
+        if (Double.isNaN(value)) return max;
+        return Double.isNaN(max) || value > max ? value : max;
+    }
+}
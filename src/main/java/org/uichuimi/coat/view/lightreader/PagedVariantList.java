@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import javafx.collections.ObservableListBase;
+import org.uichuimi.coat.core.Dictionary;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only list of the variants that passed the filters, that keeps in memory only where each
+ * variant is in the file. Variants are read and decoded in pages when the table asks for them, and
+ * only the most recently used pages are kept, so the memory used by the list does not depend on the
+ * number of variants.
+ * <p>
+ * The list grows with {@link #append(List)} while the file is filtered, or is filled at once from
+ * the {@link VariantOffsetIndex} of the file when the filters do not need to read it. Like any other list shown in
+ * a table, it must be modified and read only from the JavaFX application thread.
+ */
+class PagedVariantList extends ObservableListBase<VariantContext> implements Closeable {
+
+    private static final int PAGE_SIZE = 512;
+    private static final int MAX_PAGES = 64;
+
+    private final Dictionary contigDictionary = new Dictionary();
+    private final Map<Integer, VariantContext[]> pages = new LinkedHashMap<>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, VariantContext[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final File file;
+    private final VCFCodec codec = new VCFCodec();
+    private SeekableLineReader reader;
+    private long[] pointers = new long[PAGE_SIZE];
+    private int[] contigs = new int[PAGE_SIZE];
+    private int[] positions = new int[PAGE_SIZE];
+    private int size;
+
+    PagedVariantList(File file, VCFHeader header) {
+        this.file = file;
+        codec.setVCFHeader(header, header.getVCFHeaderVersion() == null
+                ? VCFHeaderVersion.VCF4_2
+                : header.getVCFHeaderVersion());
+    }
+
+    /**
+     * Adds the lines that passed the filter at the end of the list. Lines must come from a
+     * {@link SeekableLineReader}, so they have a pointer.
+     */
+    void append(List<VcfLine> lines) {
+        if (lines.isEmpty()) return;
+        final int from = size;
+        ensureCapacity(size + lines.size());
+        for (VcfLine line : lines) {
+            pointers[size] = line.getPointer();
+            contigs[size] = contigDictionary.addWord(line.getChrom());
+            positions[size] = line.getPos();
+            size++;
+        }
+        fireAdd(from);
+    }
+
+    /**
+     * Adds variants from the index of the file at the end of the list, without reading the file.
+     *
+     * @param selected positions in the index of the variants to add
+     */
+    void append(VariantOffsetIndex index, BitSet selected) {
+        if (selected.isEmpty()) return;
+        final int from = size;
+        ensureCapacity(size + selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0 && i < index.size(); i = selected.nextSetBit(i + 1)) {
+            pointers[size] = index.getPointer(i);
+            contigs[size] = contigDictionary.addWord(index.getContig(i));
+            positions[size] = index.getPosition(i);
+            size++;
+        }
+        fireAdd(from);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= pointers.length) return;
+        capacity = Math.max(2 * pointers.length, capacity);
+        pointers = Arrays.copyOf(pointers, capacity);
+        contigs = Arrays.copyOf(contigs, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+    }
+
+    private void fireAdd(int from) {
+        // The last page was loaded with fewer variants than it has now
+        if (from % PAGE_SIZE != 0) pages.remove(from / PAGE_SIZE);
+        beginChange();
+        nextAdd(from, size);
+        endChange();
+    }
+
+    @Override
+    public VariantContext get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index + " out of " + size);
+        VariantContext[] page = pages.get(index / PAGE_SIZE);
+        if (page == null) {
+            page = loadPage(index / PAGE_SIZE);
+            pages.put(index / PAGE_SIZE, page);
+        }
+        return page[index % PAGE_SIZE];
+    }
+
+    private VariantContext[] loadPage(int page) {
+        final int start = page * PAGE_SIZE;
+        final int end = Math.min(start + PAGE_SIZE, size);
+        final VariantContext[] variants = new VariantContext[end - start];
+        try {
+            if (reader == null) reader = SeekableLineReader.open(file);
+            for (int i = start; i < end; i++) {
+                reader.seek(pointers[i]);
+                variants[i - start] = VcfParallelReaderFilter.decode(new VcfLine(reader.readLine(), codec));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return variants;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds a coordinate without decoding any variant.
+     *
+     * @return the index of the first variant in chrom at or after pos, or -1 if there is none
+     */
+    int indexOf(String chrom, int pos) {
+        final int contig = contigDictionary.getCode(chrom);
+        if (contig < 0) return -1;
+        for (int i = 0; i < size; i++)
+            if (contigs[i] == contig && positions[i] >= pos) return i;
+        return -1;
+    }
+
+    /**
+     * @return the chromosomes of the variants in the list, in order of appearance
+     */
+    List<String> getContigs() {
+        return contigDictionary.getWordList();
+    }
+
+    @Override
+    public void close() {
+        pages.clear();
+        try {
+            if (reader != null) reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        reader = null;
+    }
+}
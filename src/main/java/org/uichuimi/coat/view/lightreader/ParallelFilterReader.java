@@ -1,52 +0,0 @@
-/*
- * Copyright (c) UICHUIMI 2017
- *
- * This file is part of Coat.
- *
- * Coat is free software:
- * you can redistribute it and/or modify it under the terms of the GNU
- * General Public License as published by the Free Software Foundation,
- * either version 3 of the License, or (at your option) any later version.
- *
- * Coat is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
- *
- * See the GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License along
- * with Coat.
- *
- * If not, see <http://www.gnu.org/licenses/>.
- *
- */
-
-package org.uichuimi.coat.view.lightreader;
-
-import htsjdk.variant.variantcontext.VariantContext;
-
-import java.util.Iterator;
-
-/**
- * Created by uichuimi on 2/05/17.
- */
-public class ParallelFilterReader implements Iterator<VariantContext> {
-
-    private final Iterator<VariantContext> iterator;
-
-    public ParallelFilterReader(Iterator<VariantContext> iterator) {
-        this.iterator = iterator;
-    }
-
-    @Override
-    public boolean hasNext() {
-        return iterator.hasNext();
-    }
-
-    @Override
-    public VariantContext next() {
-        return null;
-    }
-
-
-}
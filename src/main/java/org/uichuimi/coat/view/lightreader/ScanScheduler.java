@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs the scans of a file one at a time in a background thread. Scheduling a new scan cancels the
+ * current one without waiting for it, so the JavaFX thread never blocks. Scans can be delayed, so
+ * rapid successive filter changes only start the last scan.
+ * <p>
+ * Scans receive a {@link Token} and must check it between batches. Cancelled scans are also
+ * interrupted, so they do not stay blocked in a queue.
+ */
+class ScanScheduler {
+
+    private final ScheduledExecutorService executor;
+    private Token token;
+    private Future<?> future;
+
+    ScanScheduler() {
+        this("vcf-scan");
+    }
+
+    /**
+     * @param name name of the thread, so tasks that must not cancel the scans, like exports, can have
+     *             their own scheduler
+     */
+    ScanScheduler(String name) {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Cancels the current scan and schedules a new one.
+     *
+     * @param scan  the scan, that receives its cancellation token
+     * @param delay milliseconds to wait before starting the scan
+     */
+    synchronized void schedule(Consumer<Token> scan, long delay) {
+        cancel();
+        final Token token = this.token = new Token();
+        future = executor.schedule(() -> {
+            if (!token.isCancelled()) scan.accept(token);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the current or pending scan, if any.
+     */
+    synchronized void cancel() {
+        if (token != null) token.cancel();
+        if (future != null) future.cancel(true);
+    }
+
+    static class Token {
+
+        private volatile boolean cancelled;
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Inverted index of the words of the variants shown in a table, so the table is searched without
+ * reading its rows. Words are the IDs of the variant and the {@link Words} of the INFO values of type
+ * String or Character, like gene symbols or the fields of an annotation, split by , | &amp; and
+ * spaces.
+ * <p>
+ * Rows are added in batches from the JavaFX thread, but lines are split into words by a background
+ * thread, so rows can be searched as soon as that thread reaches them. A single thread writes the
+ * index while the JavaFX thread searches it.
+ * <p>
+ * Only the first {@link #MAX_ROWS} rows are indexed, so the index of a paged list of millions of
+ * variants does not take the heap that the list saves. Rows after them must be searched one by one.
+ */
+class SearchIndex implements Closeable {
+
+    private static final String SEPARATORS = ",|&; ";
+    /**
+     * Rows after this are not indexed
+     */
+    static final int MAX_ROWS = 100_000;
+    private static final ExecutorService INDEXER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Rows of each word. Words are looked up by hash while indexing, only from the indexing thread,
+     * and by prefix while searching
+     */
+    private final Map<String, Postings> words = new HashMap<>();
+    private final ConcurrentSkipListMap<String, Postings> sortedWords = new ConcurrentSkipListMap<>();
+    private final Set<String> stringKeys = new HashSet<>();
+    private final Words.Consumer wordAdder = this::addWord;
+    /**
+     * Row being split into words, only used from the indexing thread
+     */
+    private int row;
+    private volatile boolean closed;
+    private volatile int rows;
+    /**
+     * Matches of the last search, while no more rows are indexed, so the next match is found at once
+     */
+    private String lastText;
+    private int lastRows;
+    private BitSet lastMatches;
+
+    SearchIndex(VCFHeader header) {
+        for (VCFInfoHeaderLine line : header.getInfoHeaderLines())
+            if (line.getType() == VCFHeaderLineType.String || line.getType() == VCFHeaderLineType.Character)
+                stringKeys.add(line.getID());
+    }
+
+    /**
+     * Indexes lines in the background.
+     *
+     * @param firstRow row of the first line in the table
+     * @param lines    lines of consecutive rows
+     */
+    void add(int firstRow, List<VcfLine> lines) {
+        final int count = Math.min(lines.size(), MAX_ROWS - firstRow);
+        if (count <= 0) return;
+        INDEXER.execute(() -> {
+            for (int i = 0; i < count && !closed; i++) add(firstRow + i, lines.get(i));
+        });
+    }
+
+    /**
+     * Reads the lines from the file and indexes them in the background, for rows that were added
+     * without reading their lines.
+     *
+     * @param firstRow row of the first line in the table
+     * @param pointers pointers of the lines of consecutive rows, as given by {@link SeekableLineReader}.
+     *                 Only the lines of the rows before {@link #MAX_ROWS} are read
+     */
+    void add(int firstRow, File file, long[] pointers) {
+        final int count = Math.min(pointers.length, MAX_ROWS - firstRow);
+        if (count <= 0) return;
+        INDEXER.execute(() -> {
+            try (SeekableLineReader reader = SeekableLineReader.open(file)) {
+                for (int i = 0; i < count && !closed; i++) {
+                    reader.seek(pointers[i]);
+                    add(firstRow + i, new VcfLine(reader.readSequence(), null));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void add(int row, VcfLine line) {
+        final String id = line.getId();
+        if (id != null) addWords(row, id, 0, id.length());
+        final long bounds = line.findInfoColumn();
+        if (bounds != VcfLine.MISSING) {
+            final CharSequence chars = line.getLine();
+            final int end = VcfLine.valueEnd(bounds);
+            int from = VcfLine.valueStart(bounds);
+            while (from < end) {
+                int to = from;
+                while (to < end && chars.charAt(to) != ';') to++;
+                int equals = from;
+                while (equals < to && chars.charAt(equals) != '=') equals++;
+                if (equals < to && stringKeys.contains(chars.subSequence(from, equals).toString()))
+                    addWords(row, chars, equals + 1, to);
+                from = to + 1;
+            }
+        }
+        rows = row + 1;
+    }
+
+    private void addWords(int row, CharSequence chars, int start, int end) {
+        this.row = row;
+        Words.split(chars, start, end, SEPARATORS, wordAdder);
+    }
+
+    private void addWord(CharSequence chars, int start, int end) {
+        final String key = Words.toWord(chars, start, end);
+        Postings postings = words.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            sortedWords.put(key, postings);
+            words.put(key, postings);
+        }
+        postings.add(row);
+    }
+
+    /**
+     * Finds the next row with a word that starts with the text, ignoring case. Like
+     * {@link #matches(String)}, it must be called from a single thread.
+     *
+     * @param text the text to search
+     * @param from the row after which to search, or -1 to search from the first row
+     * @return the first matching row after from, or -1 if there is none
+     */
+    int next(String text, int from) {
+        return matches(text).nextSetBit(from + 1);
+    }
+
+    /**
+     * @return all the rows with a word that starts with the text, ignoring case. The returned set
+     * must not be modified
+     */
+    BitSet matches(String text) {
+        final int rows = this.rows;
+        if (text.equals(lastText) && rows == lastRows) return lastMatches;
+        final BitSet matches = new BitSet(rows);
+        for (Postings postings : withPrefix(text).values()) postings.addTo(matches);
+        lastText = text;
+        lastRows = rows;
+        return lastMatches = matches;
+    }
+
+    private Map<String, Postings> withPrefix(String text) {
+        final String prefix = Words.normalize(text);
+        if (prefix.isEmpty()) return Map.of();
+        return sortedWords.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * @return number of rows indexed, rows after them are not found yet, or are never found if they
+     * are after {@link #MAX_ROWS}
+     */
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * Stops indexing. Rows still waiting for the background thread are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Rows that contain a word, in increasing order. Rows are appended by the indexing thread, and
+     * read by any thread up to the size.
+     */
+    private static class Postings {
+
+        private volatile int[] rows = new int[2];
+        private volatile int size;
+
+        void add(int row) {
+            int[] rows = this.rows;
+            if (size > 0 && rows[size - 1] == row) return;
+            if (size == rows.length) this.rows = rows = Arrays.copyOf(rows, 2 * size);
+            rows[size] = row;
+            size++;
+        }
+
+        void addTo(BitSet bits) {
+            final int size = this.size;
+            final int[] rows = this.rows;
+            for (int i = 0; i < size; i++) bits.set(rows[i]);
+        }
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.IOUtil;
+import org.uichuimi.coat.core.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a text file line by line, remembering where each line starts so it can be read again later.
+ * Plain files use byte offsets and bgzipped files use BGZF virtual file pointers. Files compressed
+ * with plain gzip can be read, but not seeked.
+ */
+abstract class SeekableLineReader implements Closeable {
+
+    /**
+     * Pointer of the last line returned by {@link #readLine()}
+     */
+    long pointer = -1;
+
+    static SeekableLineReader open(File file) throws IOException {
+        if (IOUtil.isBlockCompressed(file.toPath())) return new BgzfLineReader(file);
+        if (file.getName().endsWith(".gz")) return new GzipLineReader(file);
+        return new PlainLineReader(file);
+    }
+
+    /**
+     * Opens a reader to read the whole file from the start. Bgzipped files are inflated by several
+     * threads, which is faster when reading sequentially but wastes work after each seek. Plain files
+     * are mapped into memory, and {@link #readSequence()} returns views of the mapped bytes.
+     */
+    static SeekableLineReader openSequential(File file) throws IOException {
+        final boolean blockCompressed = IOUtil.isBlockCompressed(file.toPath());
+        if (blockCompressed && Runtime.getRuntime().availableProcessors() > 1)
+            return new ParallelBgzfLineReader(file);
+        if (!blockCompressed && !file.getName().endsWith(".gz")) return new MappedLineReader(file);
+        return open(file);
+    }
+
+    /**
+     * @return true if lines of this file can be read again with {@link #seek(long)}
+     */
+    static boolean isSeekable(File file) {
+        try {
+            return IOUtil.isBlockCompressed(file.toPath()) || !file.getName().endsWith(".gz");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the next line, without the line terminator, or null at the end of the file
+     */
+    abstract String readLine() throws IOException;
+
+    /**
+     * Same as {@link #readLine()}, but the line may be a view of the internal buffers of the reader
+     * instead of a String. The view stays valid after reading more lines.
+     *
+     * @return the next line, without the line terminator, or null at the end of the file
+     */
+    CharSequence readSequence() throws IOException {
+        return readLine();
+    }
+
+    /**
+     * Moves the reader to a pointer previously returned by {@link #getPointer()}.
+     */
+    abstract void seek(long pointer) throws IOException;
+
+    /**
+     * @return the pointer of the last line read, or -1 if this file cannot be seeked
+     */
+    long getPointer() {
+        return pointer;
+    }
+
+    private static class BgzfLineReader extends SeekableLineReader {
+
+        private final BlockCompressedInputStream input;
+        private byte[] line = new byte[1 << 12];
+
+        BgzfLineReader(File file) throws IOException {
+            input = new BlockCompressedInputStream(file);
+        }
+
+        /**
+         * BlockCompressedInputStream.readLine() takes every byte as a char, so lines are read as bytes
+         * and decoded as UTF-8, like the other readers do.
+         */
+        @Override
+        String readLine() throws IOException {
+            pointer = input.getFilePointer();
+            int length = 0;
+            int b;
+            while ((b = input.read()) >= 0 && b != '\n') {
+                if (length == line.length) line = Arrays.copyOf(line, 2 * length);
+                line[length++] = (byte) b;
+            }
+            if (b < 0 && length == 0) return null;
+            if (length > 0 && line[length - 1] == '\r') length--;
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void seek(long pointer) throws IOException {
+            input.seek(pointer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads BGZF blocks ahead and inflates them in a pool of threads, so inflating does not limit
+     * the speed of reading a bgzipped file. Blocks are used in file order, and lines can span
+     * several blocks. Not private, so it is tested also on machines with a single processor.
+     */
+    static class ParallelBgzfLineReader extends SeekableLineReader {
+
+        private static final int HEADER = 18;
+        private static final int FOOTER = 8;
+        private static final Metrics.Timer DECOMPRESS = Metrics.get().timer("decompress");
+        private static final Metrics.Counter DECOMPRESS_BYTES = Metrics.get().counter("decompress.bytes");
+        /**
+         * Time the reader waits for the inflaters
+         */
+        private static final Metrics.Timer DECOMPRESS_WAIT = Metrics.get().timer("decompress.wait");
+
+        private final FileChannel channel;
+        private final ExecutorService inflaters;
+        private final Deque<Future<Block>> ahead = new ArrayDeque<>();
+        private final int maxAhead;
+        private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        private byte[] line = new byte[1 << 12];
+        private Block block;
+        private int offset;
+        private boolean eof;
+
+        ParallelBgzfLineReader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            inflaters = Executors.newFixedThreadPool(threads, runnable -> {
+                final Thread thread = new Thread(runnable, "bgzf-inflater");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maxAhead = 4 * threads;
+        }
+
+        @Override
+        String readLine() throws IOException {
+            if (!nextByte()) return null;
+            pointer = block.address << 16 | offset;
+            int length = 0;
+            while (nextByte()) {
+                final byte b = block.data[offset++];
+                if (b == '\n') break;
+                if (length == line.length) line = Arrays.copyOf(line, 2 * length);
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') length--;
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Moves to the next block if the current one has no more bytes.
+         *
+         * @return false at the end of the file
+         */
+        private boolean nextByte() throws IOException {
+            while (block == null || offset == block.data.length) {
+                fill();
+                if (ahead.isEmpty()) return false;
+                final long start = DECOMPRESS_WAIT.start();
+                try {
+                    block = ahead.removeFirst().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause().getMessage(), e.getCause());
+                } finally {
+                    DECOMPRESS_WAIT.stop(start);
+                }
+                offset = 0;
+            }
+            return true;
+        }
+
+        private void fill() throws IOException {
+            while (!eof && ahead.size() < maxAhead) {
+                final long address = channel.position();
+                header.clear();
+                if (readFully(header) < HEADER) {
+                    eof = true;
+                    return;
+                }
+                if (header.get(0) != 31 || (header.get(1) & 0xff) != 139 || header.get(12) != 'B' || header.get(13) != 'C')
+                    throw new IOException("Not a BGZF block at " + address);
+                // BSIZE is the only field of the BGZF extra subfield, right after the fixed header
+                final int size = (header.getShort(16) & 0xffff) + 1;
+                final byte[] compressed = new byte[size];
+                System.arraycopy(header.array(), 0, compressed, 0, HEADER);
+                if (readFully(ByteBuffer.wrap(compressed, HEADER, size - HEADER)) < size - HEADER)
+                    throw new IOException("Truncated BGZF block at " + address);
+                ahead.addLast(inflaters.submit(() -> inflate(address, compressed)));
+            }
+        }
+
+        private int readFully(ByteBuffer buffer) throws IOException {
+            int total = 0;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer);
+                if (read < 0) break;
+                total += read;
+            }
+            return total;
+        }
+
+        private Block inflate(long address, byte[] compressed) throws DataFormatException {
+            final long started = DECOMPRESS.start();
+            final int length = ByteBuffer.wrap(compressed, compressed.length - 4, 4)
+                    .order(ByteOrder.LITTLE_ENDIAN).getInt();
+            final byte[] data = new byte[length];
+            final Inflater inflater = this.inflater.get();
+            inflater.reset();
+            final int extra = (compressed[10] & 0xff) | (compressed[11] & 0xff) << 8;
+            final int start = 12 + extra;
+            inflater.setInput(compressed, start, compressed.length - start - FOOTER);
+            int inflated = 0;
+            while (inflated < length) {
+                final int n = inflater.inflate(data, inflated, length - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new DataFormatException("Corrupted BGZF block at " + address);
+                inflated += n;
+            }
+            DECOMPRESS.stop(started);
+            DECOMPRESS_BYTES.add(length);
+            return new Block(address, data);
+        }
+
+        @Override
+        void seek(long pointer) throws IOException {
+            for (Future<Block> future : ahead) future.cancel(true);
+            ahead.clear();
+            eof = false;
+            block = null;
+            channel.position(pointer >>> 16);
+            if (nextByte()) offset = (int) (pointer & 0xffff);
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflaters.shutdownNow();
+            channel.close();
+        }
+
+        private static class Block {
+            private final long address;
+            private final byte[] data;
+
+            Block(long address, byte[] data) {
+                this.address = address;
+                this.data = data;
+            }
+        }
+    }
+
+    private static class GzipLineReader extends SeekableLineReader {
+
+        private final BufferedReader reader;
+
+        GzipLineReader(File file) {
+            reader = IOUtil.openFileForBufferedReading(file);
+        }
+
+        @Override
+        String readLine() throws IOException {
+            return reader.readLine();
+        }
+
+        @Override
+        void seek(long pointer) {
+            throw new UnsupportedOperationException("gzip files cannot be seeked, use bgzip instead");
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Maps a plain file into memory by windows, so lines are found and read without copying them.
+     * Lines are returned as {@link ByteSlice}s of the window that contains them; when a line crosses
+     * the end of the window, the next window starts at that line. Pointers are byte offsets, like in
+     * {@link PlainLineReader}.
+     */
+    private static class MappedLineReader extends SeekableLineReader {
+
+        private static final int WINDOW = 1 << 28;
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        /**
+         * Position in the file of the first byte in the window
+         */
+        private long windowStart;
+        /**
+         * Position in the file of the next line
+         */
+        private long position;
+
+        MappedLineReader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            size = channel.size();
+        }
+
+        @Override
+        String readLine() throws IOException {
+            final CharSequence line = readSequence();
+            return line == null ? null : line.toString();
+        }
+
+        @Override
+        CharSequence readSequence() throws IOException {
+            if (position >= size) return null;
+            pointer = position;
+            if (window == null || position < windowStart || position >= windowStart + window.limit())
+                map(WINDOW);
+            while (true) {
+                final int start = (int) (position - windowStart);
+                final int limit = window.limit();
+                int end = start;
+                while (end < limit && window.get(end) != '\n') end++;
+                if (end < limit || windowStart + limit == size) {
+                    position = windowStart + Math.min(end + 1, limit);
+                    int length = end - start;
+                    if (length > 0 && window.get(end - 1) == '\r') length--;
+                    return new ByteSlice(window, start, length);
+                }
+                // The line crosses the end of the window, lines longer than a window make it grow
+                map(start == 0 ? (int) Math.min(Integer.MAX_VALUE, 2L * limit) : WINDOW);
+            }
+        }
+
+        private void map(int length) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length, size - position));
+        }
+
+        @Override
+        void seek(long pointer) {
+            position = pointer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class PlainLineReader extends SeekableLineReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private byte[] line = new byte[1 << 12];
+        /**
+         * Position in the file of the first byte in the buffer
+         */
+        private long bufferStart;
+
+        PlainLineReader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            buffer.limit(0);
+        }
+
+        @Override
+        String readLine() throws IOException {
+            pointer = bufferStart + buffer.position();
+            int length = 0;
+            while (true) {
+                if (!buffer.hasRemaining() && !fill()) {
+                    if (length == 0) return null;
+                    break;
+                }
+                final byte b = buffer.get();
+                if (b == '\n') break;
+                if (length == line.length) line = Arrays.copyOf(line, 2 * length);
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') length--;
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private boolean fill() throws IOException {
+            bufferStart += buffer.limit();
+            buffer.clear();
+            final int read = channel.read(buffer);
+            buffer.flip();
+            return read > 0;
+        }
+
+        @Override
+        void seek(long pointer) throws IOException {
+            if (pointer >= bufferStart && pointer < bufferStart + buffer.limit()) {
+                buffer.position((int) (pointer - bufferStart));
+                return;
+            }
+            channel.position(pointer);
+            bufferStart = pointer;
+            buffer.limit(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
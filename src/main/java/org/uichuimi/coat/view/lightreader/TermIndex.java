@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sidecar index of the words of a VCF file, from the ID column and from some INFO keys like gene
+ * symbols, to the pointers of the lines that contain them, so variants are found by rsID or gene
+ * without reading the file.
+ * <p>
+ * It is stored as an {@link IndexFile}, and is also discarded when it was built for other INFO keys.
+ * Words are stored sorted, in blocks, and only the first word of each block is kept in memory, so a
+ * lookup reads a single block of the index. Words are not case sensitive.
+ * <p>
+ * While the index is built, words are kept in memory only until they reach {@link #RUN_SIZE}
+ * pointers. Then they are written, sorted, to a temporary run, and the runs are merged at the end, so
+ * building the index of a large file does not need a large heap.
+ * <p>
+ * INFO keys are {@link #DEFAULT_KEYS}, or the comma separated list of the system property
+ * <code>coat.lookup.keys</code>, when the header declares them. Their values are split into
+ * {@link Words} by , | &amp; and :.
+ */
+class TermIndex {
+
+    private static final int MAGIC = 0x43544932; // CTI2
+    private static final String EXTENSION = "cti";
+    private static final int BLOCK_SIZE = 128;
+    /**
+     * Pointers kept in memory before they are written to a run
+     */
+    static final int RUN_SIZE = 1 << 19;
+    static final List<String> DEFAULT_KEYS = List.of("SYMBOL", "GENE", "Gene", "GENEINFO", "Gene.refGene");
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "term-index");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final File indexFile;
+    private final List<String> keys;
+    /**
+     * First word of each block
+     */
+    private final String[] firstWords;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private TermIndex(File indexFile, List<String> keys, String[] firstWords, long[] offsets, int[] lengths) {
+        this.indexFile = indexFile;
+        this.keys = keys;
+        this.firstWords = firstWords;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * @return the INFO keys to index that are declared in the header
+     */
+    static List<String> getKeys(VCFHeader header) {
+        final String property = System.getProperty("coat.lookup.keys");
+        final List<String> candidates = property == null ? DEFAULT_KEYS : Arrays.asList(property.split(","));
+        final List<String> keys = new ArrayList<>();
+        for (String key : candidates)
+            if (header.getInfoHeaderLine(key.trim()) != null) keys.add(key.trim());
+        return keys;
+    }
+
+    /**
+     * Loads the index of the VCF file in a background thread, building it if it is missing or
+     * outdated. Builds take a whole pass over the file, so the index should be opened only when a
+     * word is looked up.
+     *
+     * @param keys INFO keys to index
+     * @return the index, or null if the file cannot be indexed
+     */
+    static CompletableFuture<TermIndex> open(File vcf, List<String> keys) {
+        return CompletableFuture.supplyAsync(() -> {
+            final TermIndex index = load(vcf, keys);
+            if (index != null) return index;
+            try {
+                return build(vcf, keys, RUN_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, BUILDER);
+    }
+
+    /**
+     * @param keys INFO keys that the index must have
+     * @return the index of the VCF file, or null if it has no valid index for the keys
+     */
+    static TermIndex load(File vcf, List<String> keys) {
+        final File indexFile = IndexFile.getFile(vcf, EXTENSION);
+        if (!indexFile.exists()) return null;
+        try (RandomAccessFile input = new RandomAccessFile(indexFile, "r")) {
+            if (!IndexFile.isCurrent(input, vcf, MAGIC)) return null;
+            final List<String> indexed = new ArrayList<>();
+            final int count = input.readInt();
+            for (int i = 0; i < count; i++) indexed.add(input.readUTF());
+            if (!indexed.equals(keys)) return null;
+            input.seek(input.length() - Long.BYTES);
+            final long table = input.readLong();
+            final byte[] bytes = new byte[(int) (input.length() - Long.BYTES - table)];
+            input.seek(table);
+            input.readFully(bytes);
+            final DataInputStream blocks = new DataInputStream(new ByteArrayInputStream(bytes));
+            final int size = blocks.readInt();
+            final String[] firstWords = new String[size];
+            final long[] offsets = new long[size];
+            final int[] lengths = new int[size];
+            for (int i = 0; i < size; i++) {
+                firstWords[i] = readWord(blocks);
+                offsets[i] = blocks.readLong();
+                lengths[i] = blocks.readInt();
+            }
+            return new TermIndex(indexFile, indexed, firstWords, offsets, lengths);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the whole VCF file and stores its index. Files that cannot be seeked are not indexed, as
+     * their variants could not be read from the index.
+     *
+     * @param keys    INFO keys to index
+     * @param runSize pointers kept in memory before they are written to a run
+     * @return the new index, or null if the file cannot be seeked or the thread was interrupted
+     */
+    static TermIndex build(File vcf, List<String> keys, int runSize) throws IOException {
+        if (!SeekableLineReader.isSeekable(vcf)) return null;
+        final IndexFile indexFile = new IndexFile(vcf, EXTENSION, MAGIC);
+        indexFile.getFile().getParentFile().mkdirs();
+        final Terms terms = new Terms();
+        final List<File> runs = new ArrayList<>();
+        try (SeekableLineReader reader = SeekableLineReader.openSequential(vcf)) {
+            CharSequence line;
+            while ((line = reader.readSequence()) != null) {
+                if (line.length() > 0 && line.charAt(0) == '#') continue;
+                if (Thread.currentThread().isInterrupted()) return null;
+                final VcfLine vcfLine = new VcfLine(line, null);
+                terms.pointer = reader.getPointer();
+                final String id = vcfLine.getId();
+                if (id != null) Words.split(id, 0, id.length(), ";", terms);
+                for (String key : keys) {
+                    final long bounds = vcfLine.findInfo(key);
+                    if (bounds >= 0)
+                        Words.split(line, VcfLine.valueStart(bounds), VcfLine.valueEnd(bounds), ",|&:", terms);
+                }
+                if (terms.size >= runSize) {
+                    runs.add(writeRun(indexFile.getFile(), terms.words));
+                    terms.clear();
+                }
+            }
+            if (runs.isEmpty()) return write(indexFile, keys, List.of(new MemoryRun(terms.words)));
+            if (!terms.words.isEmpty()) runs.add(writeRun(indexFile.getFile(), terms.words));
+            terms.clear();
+            final List<Run> inputs = new ArrayList<>();
+            try {
+                for (File run : runs) inputs.add(new FileRun(run));
+                return write(indexFile, keys, inputs);
+            } finally {
+                for (Run input : inputs) input.close();
+            }
+        } finally {
+            for (File run : runs) run.delete();
+        }
+    }
+
+    /**
+     * Writes the words, sorted, with their pointers, to a temporary file next to the index.
+     */
+    private static File writeRun(File indexFile, Map<String, Pointers> words) throws IOException {
+        final String[] sorted = words.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        final File run = File.createTempFile(indexFile.getName(), ".run", indexFile.getParentFile());
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+            output.writeInt(sorted.length);
+            for (String word : sorted) {
+                final Pointers pointers = words.get(word);
+                writeWord(output, word);
+                output.writeInt(pointers.size);
+                for (int i = 0; i < pointers.size; i++) output.writeLong(pointers.pointers[i]);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges the runs into the blocks of the index. Runs are in file order, so the pointers of a word
+     * are in file order when they are appended run after run.
+     */
+    private static TermIndex write(IndexFile indexFile, List<String> keys, List<Run> runs) throws IOException {
+        // Runs with the same word are taken in file order
+        final PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator
+                .comparing((Integer run) -> runs.get(run).getWord()).thenComparingInt(run -> run));
+        for (int run = 0; run < runs.size(); run++) if (runs.get(run).next()) queue.add(run);
+        final List<String> firstWords = new ArrayList<>();
+        final List<Long> offsets = new ArrayList<>();
+        final List<Integer> lengths = new ArrayList<>();
+        indexFile.write(output -> {
+            output.writeInt(keys.size());
+            for (String key : keys) output.writeUTF(key);
+            long offset = output.size();
+            // Blocks are written through a buffer, to know their offsets without limits of size
+            final ByteArrayOutputStream block = new ByteArrayOutputStream();
+            final DataOutputStream blockOutput = new DataOutputStream(block);
+            final Pointers pointers = new Pointers();
+            int count = 0;
+            while (!queue.isEmpty()) {
+                final String word = runs.get(queue.peek()).getWord();
+                pointers.size = 0;
+                while (!queue.isEmpty() && runs.get(queue.peek()).getWord().equals(word)) {
+                    final int run = queue.poll();
+                    runs.get(run).addPointers(pointers);
+                    if (runs.get(run).next()) queue.add(run);
+                }
+                if (count == 0) firstWords.add(word);
+                writeWord(blockOutput, word);
+                blockOutput.writeInt(pointers.size);
+                for (int i = 0; i < pointers.size; i++) blockOutput.writeLong(pointers.pointers[i]);
+                if (++count == BLOCK_SIZE || queue.isEmpty()) {
+                    blockOutput.flush();
+                    offsets.add(offset);
+                    lengths.add(block.size());
+                    block.writeTo(output);
+                    offset += block.size();
+                    block.reset();
+                    count = 0;
+                }
+            }
+            output.writeInt(firstWords.size());
+            for (int b = 0; b < firstWords.size(); b++) {
+                writeWord(output, firstWords.get(b));
+                output.writeLong(offsets.get(b));
+                output.writeInt(lengths.get(b));
+            }
+            output.writeLong(offset);
+        });
+        return new TermIndex(indexFile.getFile(), keys, firstWords.toArray(new String[0]),
+                offsets.stream().mapToLong(Long::longValue).toArray(),
+                lengths.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Writes the length of the word and its UTF-8 bytes. Values of INFO keys have no limit of length,
+     * unlike the strings of {@link DataOutput#writeUTF(String)}.
+     */
+    private static void writeWord(DataOutput output, String word) throws IOException {
+        final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readWord(DataInput input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the block of the index that may contain the word.
+     *
+     * @param word an ID or a value of an INFO key, not case sensitive
+     * @return the pointers of the lines with the word, as returned by {@link VcfLine#getPointer()}, in
+     * file order, or an empty array if no variant has it
+     */
+    long[] find(String word) throws IOException {
+        final String term = Words.normalize(word);
+        int block = Arrays.binarySearch(firstWords, term);
+        if (block < 0) block = -block - 2;
+        if (block < 0) return new long[0];
+        final byte[] bytes = new byte[lengths[block]];
+        try (RandomAccessFile input = new RandomAccessFile(indexFile, "r")) {
+            input.seek(offsets[block]);
+            input.readFully(bytes);
+        }
+        final DataInputStream words = new DataInputStream(new ByteArrayInputStream(bytes));
+        while (words.available() > 0) {
+            final int compare = readWord(words).compareTo(term);
+            final int size = words.readInt();
+            if (compare == 0) {
+                final long[] pointers = new long[size];
+                for (int i = 0; i < size; i++) pointers[i] = words.readLong();
+                return pointers;
+            }
+            if (compare > 0) break;
+            words.skipBytes(size * Long.BYTES);
+        }
+        return new long[0];
+    }
+
+    /**
+     * @return the INFO keys in the index
+     */
+    List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Words found while the index is built, until they are written to a run
+     */
+    private static class Terms implements Words.Consumer {
+
+        private final Map<String, Pointers> words = new HashMap<>();
+        /**
+         * Pointer of the line being split
+         */
+        private long pointer;
+        /**
+         * Number of pointers in the words
+         */
+        private int size;
+
+        @Override
+        public void accept(CharSequence chars, int start, int end) {
+            if (words.computeIfAbsent(Words.toWord(chars, start, end), word -> new Pointers()).add(pointer)) size++;
+        }
+
+        void clear() {
+            words.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Pointers of the lines with a word, in file order
+     */
+    private static class Pointers {
+
+        private long[] pointers = new long[1];
+        private int size;
+
+        /**
+         * @return false if the pointer was already the last one, because a line repeats the word
+         */
+        boolean add(long pointer) {
+            if (size > 0 && pointers[size - 1] == pointer) return false;
+            if (size == pointers.length) pointers = Arrays.copyOf(pointers, 2 * size);
+            pointers[size++] = pointer;
+            return true;
+        }
+
+        void addAll(long[] values, int length) {
+            if (size + length > pointers.length)
+                pointers = Arrays.copyOf(pointers, Math.max(2 * pointers.length, size + length));
+            System.arraycopy(values, 0, pointers, size, length);
+            size += length;
+        }
+    }
+
+    /**
+     * Sorted words with their pointers, read one word at a time
+     */
+    private interface Run extends Closeable {
+
+        /**
+         * Moves to the next word.
+         *
+         * @return false if there are no more words
+         */
+        boolean next() throws IOException;
+
+        String getWord();
+
+        /**
+         * Appends the pointers of the current word.
+         */
+        void addPointers(Pointers pointers) throws IOException;
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    /**
+     * The words that were not written to a run, when there were not enough to write any
+     */
+    private static class MemoryRun implements Run {
+
+        private final Map<String, Pointers> words;
+        private final String[] sorted;
+        private int position = -1;
+
+        MemoryRun(Map<String, Pointers> words) {
+            this.words = words;
+            sorted = words.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+        }
+
+        @Override
+        public boolean next() {
+            return ++position < sorted.length;
+        }
+
+        @Override
+        public String getWord() {
+            return sorted[position];
+        }
+
+        @Override
+        public void addPointers(Pointers pointers) {
+            final Pointers current = words.get(sorted[position]);
+            pointers.addAll(current.pointers, current.size);
+        }
+    }
+
+    private static class FileRun implements Run {
+
+        private final DataInputStream input;
+        private final long[] buffer = new long[BLOCK_SIZE];
+        private int remaining;
+        private String word;
+
+        FileRun(File file) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            remaining = input.readInt();
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            word = readWord(input);
+            return true;
+        }
+
+        @Override
+        public String getWord() {
+            return word;
+        }
+
+        @Override
+        public void addPointers(Pointers pointers) throws IOException {
+            int size = input.readInt();
+            while (size > 0) {
+                final int length = Math.min(size, buffer.length);
+                for (int i = 0; i < length; i++) buffer[i] = input.readLong();
+                pointers.addAll(buffer, length);
+                size -= length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFormatHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Formats VCF lines as TSV rows. The columns are computed once from the header: CHROM, POS, ID, REF,
+ * ALT, QUAL and FILTER, then every INFO field and, for every sample, every FORMAT field and the type
+ * of the genotype.
+ * <p>
+ * Rows are formatted by the worker threads of {@link VcfParallelReaderFilter}, so every thread has its
+ * own buffer and number format.
+ */
+class TsvLineFormatter implements Function<VcfLine, String> {
+
+    private static final String EMPTY_VALUE = ".";
+
+    /**
+     * To avoid more than 3 decimals
+     */
+    private final ThreadLocal<DecimalFormat> decimalFormat = ThreadLocal.withInitial(() ->
+            new DecimalFormat("#.###", DecimalFormatSymbols.getInstance(Locale.US)));
+    private final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(StringBuilder::new);
+    private final String[] infos;
+    private final String[] formats;
+    private final String[] samples;
+
+    TsvLineFormatter(VCFHeader header) {
+        infos = header.getInfoHeaderLines().stream().map(VCFInfoHeaderLine::getID).toArray(String[]::new);
+        formats = header.getFormatHeaderLines().stream().map(VCFFormatHeaderLine::getID).toArray(String[]::new);
+        samples = header.getSampleNamesInOrder().toArray(new String[0]);
+    }
+
+    /**
+     * @return the names of the columns
+     */
+    List<String> getHeaders() {
+        final List<String> headers = new ArrayList<>(List.of("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER"));
+        headers.addAll(List.of(infos));
+        for (String sample : samples) {
+            for (String format : formats) headers.add(sample + "." + format);
+            headers.add(sample + ".TYPE");
+        }
+        return headers;
+    }
+
+    @Override
+    public String apply(VcfLine line) {
+        final VariantContext variant = VcfParallelReaderFilter.decode(line);
+        final StringBuilder builder = buffer.get();
+        builder.setLength(0);
+        builder.append(variant.getContig())
+                .append('\t').append(variant.getStart())
+                .append('\t').append(variant.getID())
+                .append('\t').append(variant.getReference().getBaseString())
+                .append('\t');
+        final List<Allele> alternatives = variant.getAlternateAlleles();
+        for (int i = 0; i < alternatives.size(); i++) {
+            if (i > 0) builder.append(',');
+            builder.append(alternatives.get(i).getBaseString());
+        }
+        builder.append('\t').append(decimalFormat.get().format(variant.getPhredScaledQual()))
+                .append('\t').append(String.join(",", variant.getFilters()));
+        for (String info : infos) builder.append('\t').append(variant.getAttributeAsString(info, EMPTY_VALUE));
+        for (String sample : samples) {
+            final Genotype genotype = variant.getGenotype(sample);
+            for (String format : formats)
+                builder.append('\t').append(genotype.hasAnyAttribute(format)
+                        ? genotype.getAnyAttribute(format).toString()
+                        : EMPTY_VALUE);
+            builder.append('\t').append(genotype.getType().name());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import org.uichuimi.coat.core.Dictionary;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sidecar index with the pointer, chromosome and position of every variant in a VCF file, so the file does not need to be read again to know how many variants it has or where they
+ * are. It is stored as an {@link IndexFile}, so it is discarded when the VCF file changes.
+ */
+class VariantOffsetIndex {
+
+    private static final int MAGIC = 0x43564932; // CVI2
+    private static final String EXTENSION = "cvi";
+
+    private final Dictionary contigDictionary;
+    private final long[] pointers;
+    private final int[] contigs;
+    private final int[] positions;
+
+    private VariantOffsetIndex(Dictionary contigDictionary, long[] pointers, int[] contigs, int[] positions) {
+        this.contigDictionary = contigDictionary;
+        this.pointers = pointers;
+        this.contigs = contigs;
+        this.positions = positions;
+    }
+
+    /**
+     * Reads only the header of the index.
+     *
+     * @return the number of variants in the VCF file, or -1 if it has no valid index
+     */
+    static int count(File vcf) {
+        try (DataInputStream input = open(vcf)) {
+            return input == null ? -1 : input.readInt();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the index of the VCF file, or null if it has no valid index
+     */
+    static VariantOffsetIndex load(File vcf) {
+        try (DataInputStream input = open(vcf)) {
+            if (input == null) return null;
+            final int size = input.readInt();
+            final Dictionary contigDictionary = readDictionary(input);
+            final long[] pointers = new long[size];
+            final int[] contigs = new int[size];
+            final int[] positions = new int[size];
+            for (int i = 0; i < size; i++) pointers[i] = input.readLong();
+            for (int i = 0; i < size; i++) contigs[i] = input.readInt();
+            for (int i = 0; i < size; i++) positions[i] = input.readInt();
+            return new VariantOffsetIndex(contigDictionary, pointers, contigs, positions);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the index and checks that it belongs to the current version of the VCF file.
+     *
+     * @return the index input, after the validation fields, or null if the index is missing or outdated
+     */
+    private static DataInputStream open(File vcf) throws IOException {
+        final File indexFile = IndexFile.getFile(vcf, EXTENSION);
+        if (!indexFile.exists()) return null;
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        if (!IndexFile.isCurrent(input, vcf, MAGIC)) {
+            input.close();
+            return null;
+        }
+        return input;
+    }
+
+    /**
+     * Collects the index while the whole VCF file is read by the scan of the table, so the file is not
+     * read twice the first time it is opened. Lines are added from the worker threads of the reader,
+     * in any order, with their position among the variants of the file.
+     */
+    static class Builder {
+
+        private static final int CHUNK_BITS = 16;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+        private final IndexFile indexFile;
+        private final Dictionary contigDictionary = new Dictionary();
+        /**
+         * Fixed size chunks, so lines can be added while other threads add theirs. Guarded by itself
+         */
+        private final List<Chunk> chunks = new ArrayList<>();
+
+        /**
+         * Must be created before the VCF file is read, so changes during the scan invalidate the index.
+         */
+        Builder(File vcf) {
+            indexFile = new IndexFile(vcf, EXTENSION, MAGIC);
+        }
+
+        /**
+         * @param position position of the line among the variants of the file
+         */
+        void add(int position, VcfLine line) {
+            final Chunk chunk = getChunk(position >> CHUNK_BITS);
+            final int i = position & (CHUNK_SIZE - 1);
+            chunk.pointers[i] = line.getPointer();
+            chunk.positions[i] = line.getPos();
+            final String contig = line.getChrom();
+            synchronized (contigDictionary) {
+                chunk.contigs[i] = contigDictionary.addWord(contig);
+            }
+        }
+
+        private Chunk getChunk(int index) {
+            synchronized (chunks) {
+                while (chunks.size() <= index) chunks.add(new Chunk());
+                return chunks.get(index);
+            }
+        }
+
+        /**
+         * Builds and stores the index. Must be called after all the lines were added, and only if the
+         * whole file was read.
+         *
+         * @param size number of variants in the file
+         */
+        VariantOffsetIndex build(int size) throws IOException {
+            final long[] pointers = new long[size];
+            final int[] contigs = new int[size];
+            final int[] positions = new int[size];
+            for (int c = 0; c * CHUNK_SIZE < size; c++) {
+                final Chunk chunk = chunks.get(c);
+                final int offset = c * CHUNK_SIZE;
+                final int length = Math.min(CHUNK_SIZE, size - offset);
+                System.arraycopy(chunk.pointers, 0, pointers, offset, length);
+                System.arraycopy(chunk.contigs, 0, contigs, offset, length);
+                System.arraycopy(chunk.positions, 0, positions, offset, length);
+            }
+            final VariantOffsetIndex index = new VariantOffsetIndex(inFileOrder(contigDictionary, contigs), pointers,
+                    contigs, positions);
+            indexFile.write(index::write);
+            return index;
+        }
+
+        /**
+         * Lines are added in any order, so words are coded again in order of appearance.
+         */
+        private static Dictionary inFileOrder(Dictionary dictionary, int[] codes) {
+            final Dictionary ordered = new Dictionary();
+            final int[] recoded = new int[dictionary.getWordList().size()];
+            Arrays.fill(recoded, -1);
+            for (int i = 0; i < codes.length; i++) {
+                if (recoded[codes[i]] < 0) recoded[codes[i]] = ordered.addWord(dictionary.getWord(codes[i]));
+                codes[i] = recoded[codes[i]];
+            }
+            return ordered;
+        }
+
+        private static class Chunk {
+            private final long[] pointers = new long[CHUNK_SIZE];
+            private final int[] contigs = new int[CHUNK_SIZE];
+            private final int[] positions = new int[CHUNK_SIZE];
+        }
+    }
+
+    private void write(DataOutputStream output) throws IOException {
+        output.writeInt(size());
+        writeDictionary(output, contigDictionary);
+        for (long pointer : pointers) output.writeLong(pointer);
+        for (int contig : contigs) output.writeInt(contig);
+        for (int position : positions) output.writeInt(position);
+    }
+
+    private static void writeDictionary(DataOutputStream output, Dictionary dictionary) throws IOException {
+        final List<String> words = dictionary.getWordList();
+        output.writeInt(words.size());
+        for (String word : words) output.writeUTF(word);
+    }
+
+    private static Dictionary readDictionary(DataInputStream input) throws IOException {
+        final Dictionary dictionary = new Dictionary();
+        final int size = input.readInt();
+        for (int i = 0; i < size; i++) dictionary.addWord(input.readUTF());
+        return dictionary;
+    }
+
+    int size() {
+        return pointers.length;
+    }
+
+    long getPointer(int index) {
+        return pointers[index];
+    }
+
+    String getContig(int index) {
+        return contigDictionary.getWord(contigs[index]);
+    }
+
+    int getPosition(int index) {
+        return positions[index];
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.tribble.util.ParsingUtils;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.uichuimi.coat.core.metrics.Metrics;
+
+import java.util.Arrays;
+
+/**
+ * A line of a VCF file that is only split as far as it is needed. Filters can read single columns,
+ * INFO values or sample genotypes from the raw text, and the full {@link VariantContext} is only
+ * decoded by htsjdk when {@link #getVariant()} is called, which should be only for lines that pass
+ * the filters.
+ * <p>
+ * Values returned by this class are the same that htsjdk would return for the decoded variant. When
+ * the raw text is ambiguous (percent encoded values, non standard numbers, several FILTER values),
+ * methods fall back to the decoded variant.
+ * <p>
+ * The line can be any {@link CharSequence}, like a view of the bytes of a mapped file, so lines that
+ * are rejected by the filters are never copied into a String.
+ */
+public class VcfLine {
+
+    private static final int INFO = 7;
+    private static final int FORMAT = 8;
+    private static final int FIRST_SAMPLE = 9;
+    private static final int UNKNOWN = -2;
+    /**
+     * Returned by {@link #findInfo(String)} when the key is not present
+     */
+    public static final long MISSING = -1;
+    /**
+     * Returned by {@link #findInfo(String)} when the key has no value, like flags
+     */
+    public static final long FLAG = -2;
+    private static final Metrics.Timer DECODE = Metrics.get().timer("decode");
+
+    private final CharSequence line;
+    private final long pointer;
+    private final int index;
+    private final VCFCodec codec;
+    private VariantContext variant;
+    /**
+     * starts[i] is the index of the first character of column i, for the first columns found
+     */
+    private int[] starts = new int[FIRST_SAMPLE + 2];
+    private int found = 1;
+    private int genotypePosition = UNKNOWN;
+
+    /**
+     * @param line  a VCF data line
+     * @param codec the codec that will decode the line if needed. Must not be shared with other threads
+     */
+    public VcfLine(CharSequence line, VCFCodec codec) {
+        this(line, -1, codec);
+    }
+
+    /**
+     * @param line    a VCF data line
+     * @param pointer where the line starts in the file, as returned by {@link SeekableLineReader}
+     * @param codec   the codec that will decode the line if needed. Must not be shared with other threads
+     */
+    public VcfLine(CharSequence line, long pointer, VCFCodec codec) {
+        this(line, pointer, -1, codec);
+    }
+
+    /**
+     * @param index position of the line among the lines read, as set by {@link VcfParallelReaderFilter}
+     */
+    VcfLine(CharSequence line, long pointer, int index, VCFCodec codec) {
+        this.line = line;
+        this.pointer = pointer;
+        this.index = index;
+        this.codec = codec;
+    }
+
+    /**
+     * @return where the line starts in the file, or -1 if unknown
+     */
+    public long getPointer() {
+        return pointer;
+    }
+
+    /**
+     * @return position of the line among the lines read, or -1 if unknown. When the whole file is read,
+     * it is the position of the variant in the file
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the raw text of the line, which may be a view of the buffers of the reader
+     */
+    public CharSequence getLine() {
+        return line;
+    }
+
+    /**
+     * @return the variant decoded by htsjdk. The first call decodes the whole line
+     */
+    public VariantContext getVariant() {
+        if (variant == null) {
+            final long start = DECODE.start();
+            variant = codec.decode(line.toString());
+            DECODE.stop(start);
+        }
+        return variant;
+    }
+
+    public String getChrom() {
+        return getColumn(0);
+    }
+
+    public int getPos() {
+        if (!find(1)) throw new NumberFormatException("null");
+        return Integer.parseInt(line, starts[1], end(1), 10);
+    }
+
+    public String getId() {
+        return getColumn(2);
+    }
+
+    public String getRef() {
+        return getColumn(3);
+    }
+
+    /**
+     * @return the raw ALT column, with alleles separated by commas
+     */
+    public String getAlt() {
+        return getColumn(4);
+    }
+
+    /**
+     * @return same as {@link VariantContext#getPhredScaledQual()}
+     */
+    public double getQual() {
+        final String qual = getColumn(5);
+        if (qual.equals(".")) return -10.0;
+        for (int i = 0; i < qual.length(); i++) {
+            final char c = qual.charAt(i);
+            if (c != '.' && c != 'e' && c != 'E' && c != '+' && (c < '0' || c > '9'))
+                return getVariant().getPhredScaledQual();
+        }
+        // Same arithmetic as htsjdk, so equality tests give the same result
+        return Double.parseDouble(qual) / -10.0 * -10.0 + 0.0;
+    }
+
+    /**
+     * @return same as <code>getFilters().toString()</code> of the decoded variant
+     */
+    public String getFilters() {
+        final String filter = getColumn(6);
+        if (filter.equals(".") || filter.equals("PASS")) return "[]";
+        if (filter.indexOf(';') < 0) return "[" + filter + "]";
+        return getVariant().getFilters().toString();
+    }
+
+    /**
+     * @return the raw FILTER column
+     */
+    String getRawFilter() {
+        return getColumn(6);
+    }
+
+    /**
+     * Looks for the value of an INFO key without splitting the whole INFO column.
+     *
+     * @param key the INFO key
+     * @return same as {@link VariantContext#getAttribute(String)} of the decoded variant
+     */
+    public Object getInfo(String key) {
+        final long bounds = findInfo(key);
+        if (bounds == FLAG) {
+            final VCFInfoHeaderLine headerLine = codec.getHeader().getInfoHeaderLine(key);
+            return headerLine != null && headerLine.getType() != VCFHeaderLineType.Flag ? "." : Boolean.TRUE;
+        }
+        if (bounds == MISSING) return null;
+        final String value = substring(valueStart(bounds), valueEnd(bounds));
+        if (value.isEmpty()) return ".";
+        if (value.indexOf('%') >= 0) return getVariant().getAttribute(key);
+        if (value.indexOf(',') >= 0) return ParsingUtils.split(value, ',');
+        final VCFInfoHeaderLine headerLine = codec.getHeader().getInfoHeaderLine(key);
+        if (headerLine != null && headerLine.getType() == VCFHeaderLineType.Flag)
+            return getVariant().getAttribute(key);
+        return value;
+    }
+
+    /**
+     * Finds where the raw value of an INFO key is in the line, so it can be read from
+     * {@link #getLine()} without copying it. The value is not decoded: it may be percent encoded.
+     *
+     * @param key the INFO key
+     * @return the bounds of the value, to be read with {@link #valueStart(long)} and
+     * {@link #valueEnd(long)}, or {@link #MISSING} if the key is not present, or {@link #FLAG} if the
+     * key has no value
+     */
+    public long findInfo(String key) {
+        if (!find(INFO)) return MISSING;
+        final int start = starts[INFO];
+        final int end = end(INFO);
+        long bounds = MISSING;
+        // Keys may be repeated, htsjdk keeps the last value
+        int from = start;
+        while (from < end) {
+            int to = indexOf(';', from);
+            if (to < 0 || to > end) to = end;
+            if (startsWith(key, from)) {
+                final int next = from + key.length();
+                if (next == to) bounds = FLAG;
+                else if (line.charAt(next) == '=') bounds = (long) (next + 1) << 32 | to;
+            }
+            from = to + 1;
+        }
+        return bounds;
+    }
+
+    /**
+     * Finds where the whole INFO column is in the line, for readers that look for several keys in a
+     * single pass.
+     *
+     * @return the bounds of the column, to be read with {@link #valueStart(long)} and
+     * {@link #valueEnd(long)}, or {@link #MISSING} if the line has no INFO column
+     */
+    long findInfoColumn() {
+        if (!find(INFO)) return MISSING;
+        return (long) starts[INFO] << 32 | end(INFO);
+    }
+
+    /**
+     * @return the index of the first character of a value found by {@link #findInfo(String)}
+     */
+    public static int valueStart(long bounds) {
+        return (int) (bounds >>> 32);
+    }
+
+    /**
+     * @return the index after the last character of a value found by {@link #findInfo(String)}
+     */
+    public static int valueEnd(long bounds) {
+        return (int) bounds;
+    }
+
+    /**
+     * Gets the raw GT value of a sample.
+     *
+     * @param sample name of the sample
+     * @return the GT value, or null if the sample or the GT key are not present
+     */
+    public String getGenotype(String sample) {
+        final Integer offset = codec.getHeader().getSampleNameToOffset().get(sample);
+        if (offset == null) return null;
+        return getGenotype(offset);
+    }
+
+    /**
+     * Same as {@link #getGenotype(String)}, with the position of the sample in the header.
+     */
+    public String getGenotype(int offset) {
+        return getSampleValue(offset, getGenotypePosition());
+    }
+
+    /**
+     * Gets the raw value of a FORMAT key for a sample.
+     *
+     * @param offset position of the sample in the header
+     * @param key    the FORMAT key
+     * @return the value, or null if the sample or the key are not present
+     */
+    public String getFormat(int offset, String key) {
+        if (key.equals("GT")) return getGenotype(offset);
+        return getSampleValue(offset, getFormatPosition(key));
+    }
+
+    private String getSampleValue(int offset, int position) {
+        if (position < 0) return null;
+        if (!find(FIRST_SAMPLE + offset)) return null;
+        final int columnEnd = end(FIRST_SAMPLE + offset);
+        int start = starts[FIRST_SAMPLE + offset];
+        for (int i = 0; i < position; i++) {
+            start = indexOf(':', start) + 1;
+            if (start == 0 || start > columnEnd) return null;
+        }
+        int end = indexOf(':', start);
+        if (end < 0 || end > columnEnd) end = columnEnd;
+        return substring(start, end);
+    }
+
+    /**
+     * @return the position of GT among the FORMAT keys, or -1 if it is not present
+     */
+    private int getGenotypePosition() {
+        if (genotypePosition == UNKNOWN) genotypePosition = getFormatPosition("GT");
+        return genotypePosition;
+    }
+
+    /**
+     * @return the position of the key among the FORMAT keys, or -1 if it is not present
+     */
+    private int getFormatPosition(String key) {
+        final String format = getColumn(FORMAT);
+        if (format == null) return -1;
+        int position = 0;
+        int from = 0;
+        while (!format.startsWith(key, from)
+                || (from + key.length() < format.length() && format.charAt(from + key.length()) != ':')) {
+            from = format.indexOf(':', from) + 1;
+            if (from == 0) return -1;
+            position++;
+        }
+        return position;
+    }
+
+    private String getColumn(int column) {
+        if (!find(column)) return null;
+        return substring(starts[column], end(column));
+    }
+
+    private int end(int column) {
+        return find(column + 1) ? starts[column + 1] - 1 : line.length();
+    }
+
+    private boolean find(int column) {
+        while (found <= column) {
+            final int tab = indexOf('\t', starts[found - 1]);
+            if (tab < 0) return false;
+            if (found == starts.length) starts = Arrays.copyOf(starts, 2 * starts.length);
+            starts[found++] = tab + 1;
+        }
+        return true;
+    }
+
+    private int indexOf(char c, int from) {
+        if (line instanceof String) return ((String) line).indexOf(c, from);
+        for (int i = from; i < line.length(); i++) if (line.charAt(i) == c) return i;
+        return -1;
+    }
+
+    private boolean startsWith(String prefix, int from) {
+        if (from + prefix.length() > line.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) if (line.charAt(from + i) != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    private String substring(int start, int end) {
+        return line.subSequence(start, end).toString();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Writes the raw text of a VCF line keeping only some INFO fields and samples, without decoding the
+ * variant. When all INFO fields and samples are kept, the line is copied as it is.
+ * <p>
+ * Only the INFO column and the sample columns are rewritten, the rest of the line keeps its original
+ * text. Samples are written in the order of the given list. INFO keys that are not declared in the
+ * header are only kept when the whole INFO column is.
+ */
+class VcfLineProjection implements Function<VcfLine, String> {
+
+    private static final int INFO = 7;
+    private static final int FORMAT = 8;
+    private static final int FIRST_SAMPLE = 9;
+
+    /**
+     * INFO keys to keep, or null to keep the whole INFO column
+     */
+    private final Set<String> infos;
+    /**
+     * Offsets of the samples to keep in the original header, or null to keep all the sample columns
+     */
+    private final int[] samples;
+    private final int columns;
+
+    /**
+     * @param header  header of the lines
+     * @param infos   INFO keys to keep
+     * @param samples names of the samples to keep, in output order
+     */
+    VcfLineProjection(VCFHeader header, Collection<String> infos, List<String> samples) {
+        boolean allInfos = true;
+        for (VCFInfoHeaderLine line : header.getInfoHeaderLines())
+            if (!infos.contains(line.getID())) {
+                allInfos = false;
+                break;
+            }
+        this.infos = allInfos ? null : new HashSet<>(infos);
+        if (samples.equals(header.getSampleNamesInOrder())) this.samples = null;
+        else {
+            this.samples = new int[samples.size()];
+            for (int i = 0; i < this.samples.length; i++)
+                this.samples[i] = header.getSampleNameToOffset().get(samples.get(i));
+        }
+        columns = FIRST_SAMPLE + header.getNGenotypeSamples();
+    }
+
+    /**
+     * @return true if lines are copied without changes
+     */
+    boolean isIdentity() {
+        return infos == null && samples == null;
+    }
+
+    @Override
+    public String apply(VcfLine vcfLine) {
+        final CharSequence line = vcfLine.getLine();
+        if (isIdentity()) return line.toString();
+        final int[] starts = findColumns(line);
+        final int found = starts.length - 1;
+        if (found <= INFO) return line.toString();
+        final StringBuilder builder = new StringBuilder(line.length());
+        // CHROM to FILTER, with the tab before INFO
+        builder.append(line, 0, starts[INFO]);
+        if (infos == null) builder.append(line, starts[INFO], end(starts, INFO));
+        else appendInfo(builder, line, starts[INFO], end(starts, INFO));
+        if (samples == null) {
+            if (found > FORMAT) builder.append(line, end(starts, INFO), line.length());
+        } else if (samples.length > 0 && found > FORMAT) {
+            builder.append('\t').append(line, starts[FORMAT], end(starts, FORMAT));
+            for (int sample : samples) {
+                builder.append('\t');
+                if (FIRST_SAMPLE + sample < found)
+                    builder.append(line, starts[FIRST_SAMPLE + sample], end(starts, FIRST_SAMPLE + sample));
+                else builder.append('.');
+            }
+        }
+        return builder.toString();
+    }
+
+    private void appendInfo(StringBuilder builder, CharSequence line, int start, int end) {
+        final int length = builder.length();
+        int from = start;
+        while (from < end) {
+            int to = from;
+            while (to < end && line.charAt(to) != ';') to++;
+            int keyEnd = from;
+            while (keyEnd < to && line.charAt(keyEnd) != '=') keyEnd++;
+            if (infos.contains(line.subSequence(from, keyEnd).toString())) {
+                if (builder.length() > length) builder.append(';');
+                builder.append(line, from, to);
+            }
+            from = to + 1;
+        }
+        if (builder.length() == length) builder.append('.');
+    }
+
+    /**
+     * @return the index of the first character of each column, followed by the length of the line
+     * plus one, so column i ends at starts[i + 1] - 1
+     */
+    private int[] findColumns(CharSequence line) {
+        int[] starts = new int[columns + 1];
+        int found = 1;
+        for (int i = 0; i < line.length(); i++)
+            if (line.charAt(i) == '\t') {
+                if (found == starts.length) starts = Arrays.copyOf(starts, 2 * starts.length);
+                starts[found++] = i + 1;
+            }
+        if (found == starts.length) starts = Arrays.copyOf(starts, found + 1);
+        starts[found] = line.length() + 1;
+        return found + 1 == starts.length ? starts : Arrays.copyOf(starts, found + 1);
+    }
+
+    private static int end(int[] starts, int column) {
+        return starts[column + 1] - 1;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFHeader;
+import org.uichuimi.coat.core.metrics.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Helpers to write VCF and TSV files, shared by {@link LightVcfReader}, {@link BatchFilter} and the
+ * data generators. They do not depend on JavaFX, so they can be used without a display.
+ */
+public final class VcfOutput {
+
+    private static final Metrics.Timer EXPORT = Metrics.get().timer("export");
+    private static final Metrics.Counter EXPORT_RECORDS = Metrics.get().counter("export.records");
+    private static final Metrics.Counter EXPORT_BYTES = Metrics.get().counter("export.bytes");
+
+    private VcfOutput() {
+    }
+
+    /**
+     * Files ending in .gz are compressed with BGZF and indexed with tabix while they are written.
+     */
+    public static OutputStream open(File f) throws IOException {
+        if (f.getName().endsWith(".gz")) return new BgzfVcfOutputStream(f);
+        return new BufferedOutputStream(Files.newOutputStream(f.toPath()));
+    }
+
+    /**
+     * @return the text of the header, as htsjdk writes it
+     */
+    static String encodeHeader(VCFHeader header) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (VariantContextWriter writer = new VariantContextWriterBuilder()
+                .setOutputVCFStream(output).unsetOption(Options.INDEX_ON_THE_FLY).build()) {
+            writer.writeHeader(header);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a batch of lines, each one followed by a line break, and reports the time and the size
+     * to {@link Metrics}.
+     */
+    static void writeLines(Writer writer, List<String> lines) throws IOException {
+        final long start = EXPORT.start();
+        long bytes = 0;
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+            bytes += line.length() + 1;
+        }
+        EXPORT.stop(start);
+        EXPORT_RECORDS.add(lines.size());
+        EXPORT_BYTES.add(bytes);
+    }
+}
@@ -24,116 +24,351 @@
 package org.uichuimi.coat.view.lightreader;
 
 import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.vcf.VCFFileReader;
-import org.jetbrains.annotations.NotNull;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.uichuimi.coat.core.metrics.Metrics;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.util.*;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
 
 /**
+ * Reads a VCF file and filters its variants using several threads, returning the variants that pass
+ * the filter in the same order they appear in the file. The filter receives raw lines, and only the
+ * lines that pass it are converted by a mapper, which usually decodes the whole variant. Plain files
+ * are mapped into memory, so lines that do not pass the filter are never copied into Strings.
+ * <p>
+ * A reader thread splits the file into batches of lines. Each batch is sent to a pool of workers,
+ * that decode and filter its lines, and is also queued, in file order, for the consumer. As the
+ * ordered queue is bounded, the reader stops when the consumer is too slow, so memory usage does
+ * not depend on the size of the file.
+ * <p>
+ * The time spent reading, filtering and mapping lines, and the sizes of the queues, are reported to
+ * {@link Metrics}. Filters and mappers are only timed on a sample of the lines.
+ * <p>
  * Created by uichuimi on 5/05/17.
  */
-abstract class VcfParallelReaderFilter implements Closeable, Iterable<VariantContext>, Iterator<VariantContext> {
-    private final AtomicLong stamp = new AtomicLong();
-    private final AtomicInteger toTake = new AtomicInteger();
-    private final Queue<VariantContext> queue = new ArrayDeque<>();
+class VcfParallelReaderFilter<T> implements Closeable {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final Batch<?> END = new Batch<>(0, Collections.emptyList(), null);
+    private static final int SAMPLE_RATE = 64;
+    private static final Metrics.Timer READ = Metrics.get().timer("read");
+    private static final Metrics.Counter READ_RECORDS = Metrics.get().counter("read.records");
+    private static final Metrics.Counter READ_BYTES = Metrics.get().counter("read.bytes");
+    private static final Metrics.Timer READ_BLOCKED = Metrics.get().timer("read.blocked");
+    private static final Metrics.Timer FILTER = Metrics.get().timer("filter");
+    private static final Metrics.Timer MAP = Metrics.get().timer("map");
+    private static final Metrics.Timer CONSUMER_WAIT = Metrics.get().timer("consumer.wait");
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final BlockingQueue<Batch<T>> ordered;
+    private final BlockingQueue<Batch<T>> pending = new LinkedBlockingQueue<>();
     private final List<Thread> threads = new LinkedList<>();
-    private final AtomicLong total = new AtomicLong();
-    private final AtomicLong passed = new AtomicLong();
-    private VCFFileReader reader;
-
-    public VcfParallelReaderFilter(File file) {
-        reader = new VCFFileReader(file, false);
-        for (int i = 0; i < Runtime.getRuntime().availableProcessors() - 1; i++)
-            threads.add(new VariantFilter(this));
-        for (Thread thread : threads) thread.start();
-    }
+    private final File file;
+    private final Predicate<VcfLine> filter;
+    private final Function<VcfLine, T> mapper;
+    private final ObjIntConsumer<VcfLine> observer;
+    private final long[] pointers;
+    /**
+     * Prefix of the gauges of this reader, so readers that run at the same time report their own queues
+     */
+    private final String gauges = "queue." + INSTANCES.incrementAndGet();
+    private final LongSupplier orderedSize;
+    private final LongSupplier pendingSize;
+    private long total;
+    private long passed;
+    private boolean finished;
+    private boolean closed;
 
-    @Override
-    public void close() throws IOException {
-        try {
-            reader.close();
-            for (Thread thread : threads) thread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    /**
+     * @param file   the VCF file
+     * @param header the header of the file
+     * @param filter lines that do not pass the filter are discarded
+     * @param mapper converts the lines that pass the filter into the returned elements, usually
+     *               {@link #decode(VcfLine)}. It runs in the worker threads.
+     */
+    VcfParallelReaderFilter(File file, VCFHeader header, Predicate<VcfLine> filter, Function<VcfLine, T> mapper) {
+        this(file, header, filter, mapper, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
     }
 
-    public long getTotal() {
-        return total.get();
+    VcfParallelReaderFilter(File file, VCFHeader header, Predicate<VcfLine> filter, Function<VcfLine, T> mapper,
+                            int workers) {
+        this(file, header, null, filter, mapper, null, workers);
     }
 
-    public long getPassed() {
-        return passed.get();
+    /**
+     * @param observer receives every line, before it is filtered, with its position among the
+     *                 variants of the file. It runs in the worker threads, so lines are not received
+     *                 in order.
+     */
+    VcfParallelReaderFilter(File file, VCFHeader header, Predicate<VcfLine> filter, Function<VcfLine, T> mapper,
+                            ObjIntConsumer<VcfLine> observer) {
+        this(file, header, null, filter, mapper, observer, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
     }
 
-    @Override
-    public boolean hasNext() {
-        return reader.iterator().hasNext();
+    /**
+     * Reads only some lines of the file, usually the ones that passed a previous scan.
+     *
+     * @param pointers where the lines start, as returned by {@link VcfLine#getPointer()}. The file must
+     *                 be seekable.
+     */
+    VcfParallelReaderFilter(File file, VCFHeader header, long[] pointers, Predicate<VcfLine> filter,
+                            Function<VcfLine, T> mapper) {
+        this(file, header, pointers, filter, mapper, null, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
     }
 
-    @Override
-    public VariantContext next() {
-        total.incrementAndGet();
-        while (queue.isEmpty()) {
+    private VcfParallelReaderFilter(File file, VCFHeader header, long[] pointers, Predicate<VcfLine> filter,
+                                    Function<VcfLine, T> mapper, ObjIntConsumer<VcfLine> observer, int workers) {
+        this.file = file;
+        this.pointers = pointers;
+        this.filter = filter;
+        this.mapper = mapper;
+        this.observer = observer;
+        this.ordered = new ArrayBlockingQueue<>(4 * workers);
+        orderedSize = ordered::size;
+        pendingSize = pending::size;
+        Metrics.get().gauge(gauges + ".ordered", orderedSize);
+        Metrics.get().gauge(gauges + ".pending", pendingSize);
+        Metrics.get().begin();
+        final VCFHeaderVersion version = header.getVCFHeaderVersion() == null
+                ? VCFHeaderVersion.VCF4_2
+                : header.getVCFHeaderVersion();
+        for (int i = 0; i < workers; i++) {
+            // Codecs are not thread safe, so every worker has its own
+            final VCFCodec codec = new VCFCodec();
+            codec.setVCFHeader(header, version);
+            threads.add(newThread(() -> work(codec), "vcf-filter-" + i));
         }
-        return queue.poll();
+        threads.add(newThread(this::read, "vcf-reader"));
+        for (Thread thread : threads) thread.start();
     }
 
-    @NotNull
-    @Override
-    public Iterator<VariantContext> iterator() {
-        return this;
+    private static Thread newThread(Runnable runnable, String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
     }
 
-    private void put(long stamp, VariantContext element) {
-        passed.incrementAndGet();
-        while (stamp > toTake.get()) {
+    /**
+     * Gets the next batch of lines that passed the filter, converted by the mapper. Batches are
+     * returned in file order, and may be empty if none of the lines in the batch passed.
+     *
+     * @return the next batch of passed elements, or null if the end of the file was reached
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    List<T> nextBatch() throws InterruptedException {
+        if (finished) return null;
+        final long start = CONSUMER_WAIT.start();
+        final Batch<T> batch = ordered.take();
+        if (batch == END) {
+            finished = true;
+            return null;
         }
-        synchronized (toTake) {
-            queue.add(element);
-            toTake.incrementAndGet();
+        batch.done.await();
+        CONSUMER_WAIT.stop(start);
+        if (batch.error != null) {
+            finished = true;
+            throw batch.error;
         }
+        total += batch.lines.size();
+        passed += batch.passed.size();
+        return batch.passed;
     }
 
-    private synchronized Tupla<VariantContext> take() {
-        if (reader.iterator().hasNext()) {
-            final VariantContext next = reader.iterator().next();
-            return new Tupla<>(stamp.getAndIncrement(), next);
-        } return null;
+    /**
+     * @return number of variants read so far by the consumer
+     */
+    long getTotal() {
+        return total;
     }
 
-    abstract boolean filter(VariantContext variantContext);
+    /**
+     * @return number of variants that passed the filter so far
+     */
+    long getPassed() {
+        return passed;
+    }
 
-    private class VariantFilter extends Thread {
-        private VcfParallelReaderFilter readerFilter;
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Thread thread : threads) thread.interrupt();
+        ordered.clear();
+        pending.clear();
+        Metrics.get().removeGauge(gauges + ".ordered", orderedSize);
+        Metrics.get().removeGauge(gauges + ".pending", pendingSize);
+        Metrics.get().end();
+    }
 
-        public VariantFilter(VcfParallelReaderFilter readerFilter) {
-            this.readerFilter = readerFilter;
+    private void read() {
+        try (SeekableLineReader reader = pointers == null
+                ? SeekableLineReader.openSequential(file)
+                : SeekableLineReader.open(file)) {
+            int count = 0;
+            Batch<T> batch = newBatch(count);
+            long start = READ.start();
+            CharSequence line;
+            while ((line = nextLine(reader, count)) != null) {
+                if (pointers == null && line.length() > 0 && line.charAt(0) == '#') continue;
+                batch.add(line, pointers == null ? reader.getPointer() : pointers[count]);
+                count++;
+                if (batch.lines.size() == BATCH_SIZE) {
+                    submit(batch, start);
+                    batch = newBatch(count);
+                    start = READ.start();
+                }
+            }
+            if (!batch.lines.isEmpty()) submit(batch, start);
+            ordered.put(end());
+        } catch (InterruptedException | InterruptedIOException | ClosedByInterruptException ignored) {
+            // close() was called
+        } catch (Exception e) {
+            final Batch<T> failed = newBatch(0);
+            failed.error = new RuntimeException(e.getMessage(), e);
+            failed.done.countDown();
+            // The queue may be full, and the consumer would wait forever for the error or the END
+            try {
+                ordered.put(failed);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            for (int i = 0; i < threads.size() - 1; i++) pending.offer(end());
         }
+    }
 
-        @Override
-        public void run() {
-            Tupla<VariantContext> tupla;
-            while ((tupla = readerFilter.take()) != null) {
-                final boolean filter = filter(tupla.element);
-                if (filter) readerFilter.put(tupla.stamp, tupla.element);
+    private CharSequence nextLine(SeekableLineReader reader, int count) throws IOException {
+        if (pointers == null) return reader.readSequence();
+        if (count == pointers.length) return null;
+        reader.seek(pointers[count]);
+        return reader.readSequence();
+    }
+
+    /**
+     * @return the batch that marks the end of the queues, typed for the queues of this reader
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Batch<T> end() {
+        return (Batch<T>) END;
+    }
+
+    private static <T> Batch<T> newBatch(int first) {
+        return new Batch<>(first, new ArrayList<>(BATCH_SIZE), new long[BATCH_SIZE]);
+    }
+
+    /**
+     * @param start when the reader started to fill the batch
+     */
+    private void submit(Batch<T> batch, long start) throws InterruptedException {
+        READ.stop(start);
+        READ_RECORDS.add(batch.lines.size());
+        READ_BYTES.add(batch.bytes);
+        final long blocked = READ_BLOCKED.start();
+        ordered.put(batch);
+        pending.put(batch);
+        READ_BLOCKED.stop(blocked);
+    }
+
+    private void work(VCFCodec codec) {
+        try {
+            Batch<T> batch;
+            while ((batch = pending.take()) != END) {
+                try {
+                    for (int i = 0; i < batch.lines.size(); i++) {
+                        final VcfLine vcfLine = new VcfLine(batch.lines.get(i), batch.pointers[i], batch.first + i, codec);
+                        if (observer != null) observer.accept(vcfLine, batch.first + i);
+                        if ((batch.first + i) % SAMPLE_RATE == 0) testMeasuring(batch, vcfLine);
+                        else if (filter.test(vcfLine)) batch.passed.add(mapper.apply(vcfLine));
+                    }
+                } catch (RuntimeException e) {
+                    batch.error = e;
+                } catch (Throwable e) {
+                    // Errors may leave this worker unusable, so the scan stops here. The consumer
+                    // receives the error with this batch, as batches before it are finished by the
+                    // other workers or were already finished by this one
+                    batch.error = new RuntimeException(e.toString(), e);
+                    stopReading();
+                    return;
+                } finally {
+                    batch.done.countDown();
+                }
             }
+        } catch (InterruptedException ignored) {
+            // close() was called
         }
+    }
+
+    /**
+     * Interrupts the reader thread, that then sends the end of the queue to the workers
+     */
+    private void stopReading() {
+        threads.get(threads.size() - 1).interrupt();
+    }
 
+    private void testMeasuring(Batch<T> batch, VcfLine vcfLine) {
+        final long start = System.nanoTime();
+        final boolean pass = filter.test(vcfLine);
+        final long tested = System.nanoTime();
+        FILTER.recordSample(tested - start, SAMPLE_RATE);
+        if (!pass) return;
+        batch.passed.add(mapper.apply(vcfLine));
+        MAP.recordSample(System.nanoTime() - tested, SAMPLE_RATE);
     }
 
-    class Tupla<T> {
-        long stamp;
-        T element;
+    /**
+     * Mapper that decodes the whole variant.
+     */
+    static VariantContext decode(VcfLine line) {
+        final VariantContext variant = line.getVariant();
+        // Genotypes are lazily parsed by the codec that decoded the line, so they must be parsed
+        // here, before the codec is reused for the next line
+        if (variant.hasGenotypes()) variant.getGenotype(0);
+        return variant;
+    }
+
+    private static class Batch<T> {
+        /**
+         * Position of the first line among the variants of the file
+         */
+        private final int first;
+        private final List<CharSequence> lines;
+        private final long[] pointers;
+        private final List<T> passed = new ArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile RuntimeException error;
+        /**
+         * Characters in the lines, counting the line breaks
+         */
+        private long bytes;
+
+        Batch(int first, List<CharSequence> lines, long[] pointers) {
+            this.first = first;
+            this.lines = lines;
+            this.pointers = pointers;
+        }
 
-        Tupla(long stamp, T element) {
-            this.stamp = stamp;
-            this.element = element;
+        void add(CharSequence line, long pointer) {
+            pointers[lines.size()] = pointer;
+            lines.add(line);
+            bytes += line.length() + 1;
         }
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import java.util.Locale;
+
+/**
+ * Splits the IDs and INFO values of a VCF line into the words of the indexes, like
+ * {@link SearchIndex} and {@link TermIndex}, so they find the same words. Words are lower case, and
+ * numbers and missing values are not words.
+ */
+final class Words {
+
+    private Words() {
+    }
+
+    /**
+     * Finds the words between start and end.
+     *
+     * @param separators characters that split the words
+     * @param consumer   receives the bounds of each word in the chars
+     */
+    static void split(CharSequence chars, int start, int end, String separators, Consumer consumer) {
+        int from = start;
+        while (from < end) {
+            int to = from;
+            while (to < end && separators.indexOf(chars.charAt(to)) < 0) to++;
+            if (to > from && !isNumber(chars, from, to)) consumer.accept(chars, from, to);
+            from = to + 1;
+        }
+    }
+
+    /**
+     * @return the word found by {@link #split(CharSequence, int, int, String, Consumer)}, as it is
+     * stored in the indexes. The word is copied with {@link CharSequence#toString()}, as lines of
+     * mapped files only decode characters other than ASCII when they are copied
+     */
+    static String toWord(CharSequence chars, int start, int end) {
+        return chars.subSequence(start, end).toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the text typed by the user, as it is stored in the indexes
+     */
+    static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true for numbers and missing values (.)
+     */
+    private static boolean isNumber(CharSequence chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            final char c = chars.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != '.' && c != '-' && c != '+') return false;
+        }
+        return true;
+    }
+
+    interface Consumer {
+        void accept(CharSequence chars, int start, int end);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineCount;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.uichuimi.coat.view.lightreader.LightVcfFilter.Connector;
+import org.uichuimi.coat.view.lightreader.VcfLine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares ArrayFreqFilter with the implementation that split the values into a list before testing
+ * them.
+ */
+public class ArrayFreqFilterTest {
+
+    private static final String[] VALUES = {"0.5", "0", "1", "0.1,0.2", "0.01|0.3", "0.1|.,0.2", ".", ".|.", "1.5e-3",
+            "0.5|0.5,0.5", "-0.2", "1e2|0.7", "3.0E-4,0.001", "0.3,.", "123456789012345678.5"};
+    private static final double[] THRESHOLDS = {-1, 0, 0.001, 0.01, 0.1, 0.3, 0.5, 1, 2};
+
+    @Test
+    public void testConnectors() {
+        final VCFCodec codec = getCodec();
+        final List<String> lines = new ArrayList<>();
+        for (String value : VALUES) lines.add("1\t100\t.\tA\tG\t.\t.\tDP=3;AF=" + value);
+        lines.add("1\t100\t.\tA\tG\t.\t.\tDP=3");
+        lines.add("1\t100\t.\tA\tG\t.\t.\tDP=3;AF");
+        lines.add("1\t100\t.\tA\tG\t.\t.\t.");
+        for (Connector connector : Connector.values()) {
+            for (double threshold : THRESHOLDS) {
+                final ArrayFreqFilter filter = new ArrayFreqFilter("AF", connector, threshold);
+                for (String text : lines) {
+                    final VariantContext variant = codec.decode(text);
+                    final boolean expected = reference(connector, threshold, variant.getAttribute("AF", null));
+                    final String message = connector.name() + " " + threshold + " on " + text;
+                    Assertions.assertEquals(expected, filter.getPredicate().test(variant), message);
+                    Assertions.assertEquals(expected, filter.getLinePredicate().test(new VcfLine(text, codec)), message);
+                }
+            }
+        }
+    }
+
+    /**
+     * The previous implementation of the filter
+     */
+    private static boolean reference(Connector connector, double value, Object attribute) {
+        if (attribute == null) return true;
+        final List<Double> values = new ArrayList<>();
+        if (attribute instanceof Iterable) {
+            for (Object element : (Iterable<?>) attribute) addValues((String) element, values);
+        } else addValues((String) attribute, values);
+        switch (connector) {
+            case MORE_THAN:
+                return values.stream().mapToDouble(number -> number).min().orElse(-1) > value;
+            case EQUALS:
+                return values.stream().allMatch(number -> number == value);
+            case CONTAINS:
+                return false;
+            case TRUE:
+                return !values.isEmpty();
+            case FALSE:
+                return values.isEmpty();
+            case IS_NOT:
+                return values.stream().noneMatch(number -> number != value);
+            case LESS_THAN:
+                return values.stream().mapToDouble(number -> number).max().orElse(1) < value;
+            default:
+                return true;
+        }
+    }
+
+    private static void addValues(String attribute, List<Double> values) {
+        for (String value : attribute.split("\\|"))
+            if (!value.equals(".")) values.add(Double.parseDouble(value));
+    }
+
+    private static VCFCodec getCodec() {
+        final VCFHeader header = new VCFHeader(Set.of(
+                new VCFInfoHeaderLine("AF", VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String, "Frequencies"),
+                new VCFInfoHeaderLine("DP", 1, VCFHeaderLineType.Integer, "Depth")), List.of());
+        final VCFCodec codec = new VCFCodec();
+        codec.setVCFHeader(header, VCFHeaderVersion.VCF4_2);
+        return codec;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BgzfVcfOutputStreamTest {
+
+    private static final String HEADER = "##fileformat=VCFv4.2\n"
+            + "##INFO=<ID=GENE,Number=1,Type=String,Description=\"Gene name\">\n"
+            + "##contig=<ID=1,length=249250621>\n"
+            + "##contig=<ID=2,length=243199373>\n"
+            + "##contig=<ID=X,length=155270560>\n"
+            + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+    private static final String[] CONTIGS = {"1", "2", "X"};
+
+    @Test
+    public void testReadBackThroughTabix() throws Exception {
+        final List<String> lines = createLines(true);
+        final File file = File.createTempFile("bgzf", ".vcf.gz");
+        final File index = BgzfVcfOutputStream.getIndexFile(file);
+        try {
+            write(file, lines);
+            Assertions.assertTrue(IOUtil.isBlockCompressed(file.toPath()));
+            Assertions.assertEquals(BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK,
+                    BlockCompressedInputStream.checkTermination(file));
+            Assertions.assertEquals(HEADER + String.join("\n", lines) + "\n", readAll(file));
+            Assertions.assertTrue(index.exists());
+            final String[] contigs = new String[lines.size()];
+            final int[] positions = new int[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                final String[] columns = lines.get(i).split("\t", 3);
+                contigs[i] = columns[0];
+                positions[i] = Integer.parseInt(columns[1]);
+            }
+            final Random random = new Random(3);
+            try (VCFFileReader reader = new VCFFileReader(file, true)) {
+                for (int i = 0; i < 200; i++) {
+                    final String contig = CONTIGS[random.nextInt(CONTIGS.length)];
+                    final int start = 1 + random.nextInt(2_000_000);
+                    final int end = start + random.nextInt(100_000);
+                    final List<String> expected = new ArrayList<>();
+                    for (int j = 0; j < lines.size(); j++)
+                        if (contigs[j].equals(contig) && positions[j] >= start && positions[j] <= end)
+                            expected.add(contig + ":" + positions[j]);
+                    final List<String> found = new ArrayList<>();
+                    try (CloseableIterator<VariantContext> iterator = reader.query(contig, start, end)) {
+                        iterator.forEachRemaining(variant -> found.add(variant.getContig() + ":" + variant.getStart()));
+                    }
+                    Assertions.assertEquals(expected, found);
+                }
+            }
+        } finally {
+            file.delete();
+            index.delete();
+        }
+    }
+
+    @Test
+    public void testUnsortedFileHasNoIndex() throws Exception {
+        final List<String> lines = createLines(false);
+        final File file = File.createTempFile("bgzf", ".vcf.gz");
+        final File index = BgzfVcfOutputStream.getIndexFile(file);
+        try {
+            write(file, lines);
+            Assertions.assertEquals(HEADER + String.join("\n", lines) + "\n", readAll(file));
+            Assertions.assertFalse(index.exists());
+        } finally {
+            file.delete();
+            index.delete();
+        }
+    }
+
+    /**
+     * @param sorted if false, the order of two lines of the first contig is swapped
+     */
+    private static List<String> createLines(boolean sorted) {
+        final Random random = new Random(1);
+        final List<String> lines = new ArrayList<>();
+        for (String contig : CONTIGS) {
+            int position = 0;
+            for (int i = 0; i < 20_000; i++) {
+                position += 1 + random.nextInt(100);
+                lines.add(contig + "\t" + position + "\t.\tA\tG\t50\tPASS\tGENE=G" + random.nextInt(100_000));
+            }
+        }
+        if (!sorted) lines.add(1, lines.remove(100));
+        return lines;
+    }
+
+    /**
+     * Writes the lines in chunks that do not follow line ends, as a Writer would.
+     */
+    private static void write(File file, List<String> lines) throws Exception {
+        final byte[] bytes = (HEADER + String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        final Random random = new Random(2);
+        try (OutputStream output = VcfOutput.open(file)) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                final int length = Math.min(bytes.length - offset, random.nextInt(10_000));
+                if (length == 1) output.write(bytes[offset]);
+                else output.write(bytes, offset, length);
+                offset += length;
+            }
+        }
+    }
+
+    private static String readAll(File file) throws Exception {
+        try (BlockCompressedInputStream input = new BlockCompressedInputStream(file)) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link Decimals#parse(CharSequence, int, int)} gives the same doubles as
+ * {@link Double#parseDouble(String)}.
+ */
+public class DecimalsTest {
+
+    @Test
+    public void testPlainNumbers() {
+        final String[] numbers = {"0", "1", "-1", "+1", "0.5", "-0.0123", "1.5e-3", "3.0E-4", "1e2", "1E+22",
+                "0.1", "0.2", "0.3", "0.7", "1.", ".5", "-.5", "0.000001", "123456.789", "900719925474099",
+                "0.0", "-0", "4.35", "2.675", "1e-22", "0.00012345"};
+        for (String number : numbers) {
+            final double value = Decimals.parse(number, 0, number.length());
+            Assertions.assertFalse(Double.isNaN(value), number);
+            assertSame(number, value);
+        }
+    }
+
+    @Test
+    public void testFallback() {
+        final String[] texts = {"", "-", "+", ".", "e5", "1e", "1e+", "1.2.3", "1,2", "abc", "NaN", "Infinity",
+                "0x10", "1%2E5", "1e-23", "1e23", "9007199254740991", "12345678901234567890", "1e9999"};
+        for (String text : texts) {
+            final double value = Decimals.parse(text, 0, text.length());
+            // Either not parsed, or the same as parseDouble
+            if (!Double.isNaN(value)) assertSame(text, value);
+        }
+    }
+
+    @Test
+    public void testBounds() {
+        final String line = "AF=0.25,1.5e-3;DP=10";
+        Assertions.assertEquals(0.25, Decimals.parse(line, 3, 7));
+        Assertions.assertEquals(1.5e-3, Decimals.parse(line, 8, 14));
+        Assertions.assertEquals(10.0, Decimals.parse(line, 18, 20));
+        Assertions.assertEquals(1.0, Decimals.parse(line, 8, 9));
+    }
+
+    @Test
+    public void testRandom() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            final StringBuilder builder = new StringBuilder();
+            if (random.nextInt(4) == 0) builder.append('-');
+            builder.append(random.nextInt(1000));
+            if (random.nextBoolean()) {
+                builder.append('.');
+                final int decimals = 1 + random.nextInt(12);
+                for (int j = 0; j < decimals; j++) builder.append(random.nextInt(10));
+            }
+            if (random.nextInt(3) == 0) builder.append(random.nextBoolean() ? 'e' : 'E').append(random.nextInt(40) - 20);
+            final String number = builder.toString();
+            final double value = Decimals.parse(number, 0, number.length());
+            if (!Double.isNaN(value)) assertSame(number, value);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            final String number = String.valueOf(random.nextDouble());
+            final double value = Decimals.parse(number, 0, number.length());
+            if (!Double.isNaN(value)) assertSame(number, value);
+        }
+    }
+
+    private static void assertSame(String text, double value) {
+        Assertions.assertEquals(Double.doubleToLongBits(Double.parseDouble(text)), Double.doubleToLongBits(value), text);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+public class FilterEvaluatorTest {
+
+    @Test
+    public void testStatsArePublishedOnlyOnRequest() {
+        final FilterStats even = new FilterStats();
+        final FilterStats all = new FilterStats();
+        final List<Predicate<Integer>> predicates = List.of(value -> value % 2 == 0, value -> true);
+        final FilterEvaluator<Integer> evaluator = new FilterEvaluator<>(predicates, List.of(even, all));
+        for (int i = 0; i < 100_000; i++) evaluator.test(i);
+        // Until published, the filters keep the stats of the previous scan
+        Assertions.assertEquals(1.0, even.getPassRate());
+        evaluator.publish();
+        Assertions.assertEquals(0.5, even.getPassRate(), 0.05);
+        Assertions.assertEquals(1.0, all.getPassRate());
+        Assertions.assertFalse(even.summaryProperty().get().isEmpty());
+
+        // A second scan does not reset the published stats
+        final FilterEvaluator<Integer> other = new FilterEvaluator<>(predicates, List.of(even, all));
+        for (int i = 0; i < 1000; i++) other.test(1);
+        Assertions.assertEquals(0.5, even.getPassRate(), 0.05);
+    }
+
+    @Test
+    public void testEvaluatesConjunction() {
+        final List<Predicate<Integer>> predicates = List.of(value -> value % 2 == 0, value -> value % 3 == 0);
+        final FilterEvaluator<Integer> evaluator = new FilterEvaluator<>(predicates,
+                List.of(new FilterStats(), new FilterStats()));
+        for (int i = 0; i < 10_000; i++) Assertions.assertEquals(i % 6 == 0, evaluator.test(i));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Checks the parser of filter expressions, and that expressions give the same result on raw lines and
+ * on variants decoded by htsjdk.
+ */
+public class FilterExpressionTest {
+
+    private static final List<String> COMMON = List.of(
+            "CHROM = '1'", "CHROM contains 'X'", "POS > 150 and POS <= 400", "ID contains 'rs'", "ID = '.'",
+            "REF = 'G'", "ALT = 'T'", "ALT in ('A', 'G')", "QUAL >= 10", "QUAL < 10", "FILTER = 'q10'",
+            "MAX_AF < 0.01", "MAX_AF >= 0.5", "INFO/DP > 3", "INFO/DP = 5", "INFO/DP != 10", "not INFO/DP",
+            "INFO/AF < 0.15", "INFO/AF in (0.5, 0.2)", "INFO/DB", "not INFO/DB or INFO/DP >= 10",
+            "INFO/DP >= 10 and (not INFO/AF or INFO/AF < 0.01)");
+
+    @Test
+    public void testPrecedence() {
+        assertCanonical("INFO/DP > 1 or QUAL > 5 and INFO/DB", "INFO/DP > 1 or (QUAL > 5 and INFO/DB)");
+        assertCanonical("(INFO/DP > 1 or INFO/DB) and QUAL > 5", "QUAL > 5 and (INFO/DP > 1 or INFO/DB)");
+        assertCanonical("not INFO/DP > 1 and QUAL > 5", "QUAL > 5 and not INFO/DP > 1");
+        assertCanonical("not (INFO/DP > 1 and QUAL > 5)", "not (QUAL > 5 and INFO/DP > 1)");
+        assertCanonical("INFO/AF != 0.5 && !(POS<10)", "not POS < 10 and not INFO/AF = 0.5");
+        assertCanonical("5 > INFO/DP", "INFO/DP < 5");
+        assertCanonical("CHROM = '1' or CHROM contains \"X\"", "CHROM = \"1\" or CHROM contains \"X\"");
+        assertCanonical("ZIGOSITY[S1] in ('HET', 'HOM')", "ZIGOSITY/GT[\"S1\"] in (\"HET\", \"HOM\")");
+        assertCanonical("FORMAT/DP[S2] >= 8", "FORMAT/DP[\"S2\"] >= 8");
+    }
+
+    @Test
+    public void testConstantFolding() {
+        assertConstant("1 = 1", "true");
+        assertConstant("'a' = \"b\"", "false");
+        assertConstant("not true", "false");
+        assertConstant("true or INFO/DP", "true");
+        assertConstant("INFO/AF in ()", "false");
+        assertConstant("(INFO/A and INFO/B) and (INFO/C and false)", "false");
+        assertCanonical("1 < 2 and INFO/DP > 3", "INFO/DP > 3");
+        assertCanonical("2 >= 3 or POS > 3", "POS > 3");
+        assertCanonical("INFO/DP > 1 and true", "INFO/DP > 1");
+        assertCanonical("INFO/DP > 1 or false", "INFO/DP > 1");
+        assertCanonical("not not INFO/DP", "INFO/DP");
+        Assertions.assertFalse(FilterExpression.parse("not not INFO/DP").isConstant());
+    }
+
+    @Test
+    public void testErrors() {
+        assertError("INFO/DP >", "Unexpected end of expression at position 10");
+        assertError("INFO/DP > 3 )", "Unexpected ')' at position 13");
+        assertError("FOO = 1", "Unknown field FOO at position 1");
+        assertError("INFO/DP = 'x", "Missing closing quote at position 11");
+        assertError("INFO/DP > INFO/AF", "Fields can only be compared with values at position 1");
+        assertError("(INFO/DP", "Expected ')' at position 9");
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        final File file = VcfParallelReaderFilterTest.getFile("lines.vcf");
+        assertPositions(file, "INFO/DP >= 5", 100, 300);
+        assertPositions(file, "INFO/DB", 200, 500);
+        assertPositions(file, "not INFO/DP", 200, 400, 500);
+        assertPositions(file, "FILTER = 's50'", 200, 500);
+        assertPositions(file, "QUAL > 10 and CHROM = 'X'", 400, 600);
+        assertPositions(file, "INFO/GENE contains 'O'", 500);
+    }
+
+    @Test
+    public void testLinesAndVariantsAgree() throws Exception {
+        final List<String> lines = new ArrayList<>(COMMON);
+        lines.addAll(List.of("INFO/GENE = 'BRCA2'", "INFO/GENE contains 'B'", "ZIGOSITY[S1] in ('HET')",
+                "ZIGOSITY[S2] in ('HOM', 'WILD')", "ZIGOSITY[S3] in ('HOM')", "not ZIGOSITY[S2] in ('HET')",
+                "FORMAT/DP[S2] >= 8", "FORMAT/DP[S3] < 5", "FORMAT/GQ[S1] > 20", "FORMAT/AD[S1] >= 5",
+                "not FORMAT/DP[S2]", "FORMAT/GT[S3] = '1|1'"));
+        assertAgree("lines.vcf", lines);
+        final List<String> sample = new ArrayList<>(COMMON);
+        sample.addAll(List.of("INFO/AA = 'T'", "INFO/H2", "INFO/NS >= 3", "ZIGOSITY[NA00001] in ('HET')",
+                "ZIGOSITY[NA00003] in ('HOM', 'WILD')", "FORMAT/DP[NA00002] > 3", "FORMAT/HQ[NA00001] >= 51",
+                "FORMAT/GQ[NA00003] < 40 or FORMAT/GT[NA00003] contains '|'"));
+        assertAgree("sample.vcf", sample);
+    }
+
+    private static void assertAgree(String name, List<String> expressions) throws Exception {
+        final File file = VcfParallelReaderFilterTest.getFile(name);
+        final VCFCodec codec = VcfLineTest.getCodec(file);
+        for (String expression : expressions) {
+            final FilterExpression filter = FilterExpression.parse(expression);
+            final Predicate<VcfLine> linePredicate = filter.compileLine(codec.getHeader());
+            final Predicate<VariantContext> variantPredicate = filter.compile(codec.getHeader());
+            for (String text : VcfLineTest.getLines(file)) {
+                final VariantContext variant = VcfParallelReaderFilter.decode(new VcfLine(text, codec));
+                Assertions.assertEquals(variantPredicate.test(variant), linePredicate.test(new VcfLine(text, codec)),
+                        () -> name + ": " + expression + " on " + text);
+            }
+        }
+    }
+
+    private static void assertPositions(File file, String expression, Integer... expected) throws Exception {
+        final VCFCodec codec = VcfLineTest.getCodec(file);
+        final Predicate<VcfLine> predicate = FilterExpression.parse(expression).compileLine(codec.getHeader());
+        final List<Integer> positions = new ArrayList<>();
+        for (String text : VcfLineTest.getLines(file)) {
+            final VcfLine line = new VcfLine(text, codec);
+            if (predicate.test(line)) positions.add(line.getPos());
+        }
+        Assertions.assertEquals(List.of(expected), positions, expression);
+    }
+
+    private static void assertCanonical(String expression, String expected) {
+        Assertions.assertEquals(expected, FilterExpression.parse(expression).toCanonicalString(), expression);
+    }
+
+    private static void assertConstant(String expression, String expected) {
+        final FilterExpression filter = FilterExpression.parse(expression);
+        Assertions.assertTrue(filter.isConstant(), expression);
+        Assertions.assertEquals(expected, filter.toCanonicalString(), expression);
+    }
+
+    private static void assertError(String expression, String message) {
+        final IllegalArgumentException exception = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> FilterExpression.parse(expression));
+        Assertions.assertEquals(message, exception.getMessage(), expression);
+    }
+}
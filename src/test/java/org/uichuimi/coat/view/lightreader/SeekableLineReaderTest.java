@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SeekableLineReaderTest {
+
+    private static final List<String> LINES = new ArrayList<>();
+    private static File plain;
+    private static File bgzip;
+
+    @BeforeAll
+    public static void createFiles() throws Exception {
+        final Random random = new Random(7);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            builder.setLength(0);
+            builder.append(i).append('\t');
+            // Some lines are longer than a BGZF block, most of them span two blocks every now and then
+            final int length = i % 5000 == 0 ? 150_000 : random.nextInt(200);
+            for (int j = 0; j < length; j++) builder.append((char) ('A' + random.nextInt(26)));
+            if (i % 1000 == 0) builder.append("Ñ");
+            LINES.add(builder.toString());
+        }
+        plain = File.createTempFile("lines", ".txt");
+        bgzip = File.createTempFile("lines", ".txt.gz");
+        Files.write(plain.toPath(), LINES, StandardCharsets.UTF_8);
+        try (OutputStream output = new BlockCompressedOutputStream(bgzip)) {
+            output.write(String.join("\n", LINES).concat("\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @AfterAll
+    public static void deleteFiles() {
+        plain.delete();
+        bgzip.delete();
+    }
+
+    @Test
+    public void testParallelBgzfReadsEveryLine() throws Exception {
+        final List<Long> pointers = new ArrayList<>();
+        try (SeekableLineReader reader = new SeekableLineReader.ParallelBgzfLineReader(bgzip)) {
+            for (String expected : LINES) {
+                Assertions.assertEquals(expected, reader.readLine());
+                pointers.add(reader.getPointer());
+            }
+            Assertions.assertNull(reader.readLine());
+        }
+        // Pointers of the parallel reader are valid BGZF virtual pointers
+        try (SeekableLineReader reader = SeekableLineReader.open(bgzip)) {
+            for (int i = LINES.size() - 1; i >= 0; i -= 37) {
+                reader.seek(pointers.get(i));
+                Assertions.assertEquals(LINES.get(i), reader.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBgzfSeek() throws Exception {
+        final List<Long> pointers = new ArrayList<>();
+        try (SeekableLineReader reader = SeekableLineReader.open(bgzip)) {
+            while (reader.readLine() != null) pointers.add(reader.getPointer());
+        }
+        try (SeekableLineReader reader = new SeekableLineReader.ParallelBgzfLineReader(bgzip)) {
+            for (int i = 0; i < LINES.size(); i += 1001) {
+                reader.seek(pointers.get(i));
+                Assertions.assertEquals(LINES.get(i), reader.readLine());
+                Assertions.assertEquals(LINES.get(i + 1), reader.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void testSequentialReaders() throws Exception {
+        for (File file : List.of(plain, bgzip)) {
+            final List<Long> pointers = new ArrayList<>();
+            try (SeekableLineReader reader = SeekableLineReader.openSequential(file)) {
+                for (String expected : LINES) {
+                    Assertions.assertEquals(expected, reader.readSequence().toString());
+                    pointers.add(reader.getPointer());
+                }
+                Assertions.assertNull(reader.readSequence());
+            }
+            try (SeekableLineReader reader = SeekableLineReader.open(file)) {
+                for (int i = 0; i < LINES.size(); i += 999) {
+                    reader.seek(pointers.get(i));
+                    Assertions.assertEquals(LINES.get(i), reader.readLine());
+                }
+            }
+        }
+    }
+}
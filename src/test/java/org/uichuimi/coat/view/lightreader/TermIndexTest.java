@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that indexes built from several runs, merged from temporary files, are the same as indexes
+ * built in memory.
+ */
+public class TermIndexTest {
+
+    private static final List<String> WORDS = List.of("rs1", "RS4", "rs5", "brca2", "tp53", "c", "ñoño", "missing");
+
+    @Test
+    public void testFind() throws Exception {
+        final File file = VcfParallelReaderFilterTest.getFile("lines.vcf");
+        final Map<Integer, Long> pointers = getPointers(file);
+        final List<String> keys = TermIndex.getKeys(VcfParallelReaderFilterTest.getHeader(file));
+        try {
+            for (int runSize : new int[]{1, 2, Integer.MAX_VALUE}) {
+                final TermIndex index = TermIndex.build(file, keys, runSize);
+                Assertions.assertEquals(List.of(pointers.get(100), pointers.get(600)), toList(index.find("rs1")));
+                Assertions.assertEquals(List.of(pointers.get(300)), toList(index.find("rs4")));
+                Assertions.assertEquals(List.of(pointers.get(100), pointers.get(300), pointers.get(500)),
+                        toList(index.find("BRCA2")));
+                Assertions.assertEquals(List.of(pointers.get(300), pointers.get(500)), toList(index.find("TP53")));
+                Assertions.assertEquals(List.of(), toList(index.find("missing")));
+            }
+        } finally {
+            IndexFile.getFile(file, "cti").delete();
+        }
+    }
+
+    @Test
+    public void testRunsAreMerged() throws Exception {
+        final File file = VcfParallelReaderFilterTest.getFile("lines.vcf");
+        final List<String> keys = TermIndex.getKeys(VcfParallelReaderFilterTest.getHeader(file));
+        try {
+            final Map<String, List<Long>> expected = find(TermIndex.build(file, keys, Integer.MAX_VALUE));
+            Assertions.assertEquals(expected, find(TermIndex.build(file, keys, 1)));
+            Assertions.assertEquals(expected, find(TermIndex.build(file, keys, 3)));
+            Assertions.assertEquals(expected, find(TermIndex.load(file, keys)));
+        } finally {
+            IndexFile.getFile(file, "cti").delete();
+        }
+    }
+
+    private static Map<String, List<Long>> find(TermIndex index) throws Exception {
+        final Map<String, List<Long>> found = new HashMap<>();
+        for (String word : WORDS) found.put(word, toList(index.find(word)));
+        return found;
+    }
+
+    /**
+     * @return the pointer of every line, by position
+     */
+    private static Map<Integer, Long> getPointers(File file) throws Exception {
+        final Map<Integer, Long> pointers = new HashMap<>();
+        try (SeekableLineReader reader = SeekableLineReader.openSequential(file)) {
+            CharSequence line;
+            while ((line = reader.readSequence()) != null)
+                if (line.charAt(0) != '#') pointers.put(new VcfLine(line, null).getPos(), reader.getPointer());
+        }
+        return pointers;
+    }
+
+    private static List<Long> toList(long[] values) {
+        final List<Long> list = new ArrayList<>();
+        for (long value : values) list.add(value);
+        return list;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the lines written by the projection with the variants written by htsjdk, as the export
+ * did before.
+ */
+public class VcfLineProjectionTest {
+
+    @Test
+    public void testSameVariantsAsVariantContextWriter() throws Exception {
+        for (String name : List.of("lines.vcf", "sample.vcf")) {
+            final File file = VcfParallelReaderFilterTest.getFile(name);
+            final VCFHeader header = VcfParallelReaderFilterTest.getHeader(file);
+            final List<String> infos = header.getInfoHeaderLines().stream()
+                    .map(VCFInfoHeaderLine::getID).collect(Collectors.toList());
+            final List<String> samples = header.getSampleNamesInOrder();
+            final List<String> reversed = new ArrayList<>(samples);
+            Collections.reverse(reversed);
+            assertSameVariants(file, infos, samples);
+            assertSameVariants(file, infos.subList(1, 3), samples);
+            assertSameVariants(file, infos, reversed);
+            assertSameVariants(file, infos.subList(0, 1), samples.subList(1, 2));
+            assertSameVariants(file, List.of(), List.of());
+        }
+    }
+
+    @Test
+    public void testIdentity() throws Exception {
+        final File file = VcfParallelReaderFilterTest.getFile("lines.vcf");
+        final VCFHeader header = VcfParallelReaderFilterTest.getHeader(file);
+        final List<String> allInfos = header.getInfoHeaderLines().stream()
+                .map(VCFInfoHeaderLine::getID).collect(Collectors.toList());
+        final VcfLineProjection projection = new VcfLineProjection(header, allInfos, header.getSampleNamesInOrder());
+        Assertions.assertTrue(projection.isIdentity());
+        final VCFCodec codec = VcfLineTest.getCodec(file);
+        for (String line : VcfLineTest.getLines(file))
+            Assertions.assertEquals(line, projection.apply(new VcfLine(line, codec)));
+    }
+
+    private static void assertSameVariants(File file, List<String> infos, List<String> samples) throws Exception {
+        final VCFHeader header = VcfParallelReaderFilterTest.getHeader(file);
+        final VCFCodec codec = VcfLineTest.getCodec(file);
+        // VariantContextWriter uses the default charset, which may lose non-ASCII values
+        final List<String> lines = VcfLineTest.getLines(file).stream()
+                .filter(line -> line.chars().allMatch(c -> c < 128))
+                .collect(Collectors.toList());
+        final File projected = File.createTempFile("projected", ".vcf");
+        final File written = File.createTempFile("written", ".vcf");
+        try {
+            final VcfLineProjection projection = new VcfLineProjection(header, infos, samples);
+            try (Writer writer = Files.newBufferedWriter(projected.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(VcfOutput.encodeHeader(getHeaderToSave(header, infos, samples)));
+                final List<String> output = new ArrayList<>();
+                for (String line : lines) output.add(projection.apply(new VcfLine(line, codec)));
+                VcfOutput.writeLines(writer, output);
+            }
+            try (VariantContextWriter writer = new VariantContextWriterBuilder().setOutputFile(written)
+                    .unsetOption(Options.INDEX_ON_THE_FLY).build()) {
+                writer.writeHeader(getHeaderToSave(header, infos, samples));
+                for (String line : lines) {
+                    // Decoded as the table does, VariantContextWriter copies unparsed genotypes as they are
+                    final VariantContext variant = VcfParallelReaderFilter.decode(new VcfLine(line, codec));
+                    final List<String> remove = new ArrayList<>(variant.getAttributes().keySet());
+                    remove.removeAll(infos);
+                    // Without samples, the writer would still write the FORMAT column
+                    writer.add(new VariantContextBuilder(variant).rmAttributes(remove)
+                            .genotypes(variant.getGenotypes().subsetToSamples(new HashSet<>(samples))).make());
+                }
+            }
+            final List<String> expected = describe(written);
+            final List<String> actual = describe(projected);
+            Assertions.assertEquals(lines.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+                Assertions.assertEquals(expected.get(i), actual.get(i), infos + " " + samples);
+        } finally {
+            projected.delete();
+            written.delete();
+        }
+    }
+
+    /**
+     * Same as the export of LightVcfReader
+     */
+    private static VCFHeader getHeaderToSave(VCFHeader vcfHeader, List<String> infos, List<String> samples) {
+        final VCFHeader header = new VCFHeader(vcfHeader.getMetaDataInInputOrder(), samples);
+        for (VCFHeaderLine headerLine : vcfHeader.getInfoHeaderLines()) {
+            if (!infos.contains(headerLine.getKey()))
+                header.getInfoHeaderLines().remove(header.getInfoHeaderLine(headerLine.getKey()));
+        }
+        return header;
+    }
+
+    /**
+     * VariantContextWriter drops missing values, like .,. while raw lines keep them
+     */
+    private static Map<String, Object> getPresentAttributes(Genotype genotype) {
+        final Map<String, Object> attributes = new TreeMap<>(genotype.getExtendedAttributes());
+        attributes.values().removeIf(value -> value.toString().matches("[.,]*"));
+        return attributes;
+    }
+
+    /**
+     * @return the decoded content of every variant of the file, ignoring the formatting
+     */
+    private static List<String> describe(File file) {
+        final List<String> variants = new ArrayList<>();
+        try (VCFFileReader reader = new VCFFileReader(file, false)) {
+            for (VariantContext variant : reader) {
+                final StringBuilder builder = new StringBuilder()
+                        .append(variant.getContig()).append(':').append(variant.getStart())
+                        .append(' ').append(variant.getID())
+                        .append(' ').append(variant.getAlleles())
+                        .append(' ').append(variant.getPhredScaledQual())
+                        .append(' ').append(variant.getFilters())
+                        .append(' ').append(new TreeMap<>(variant.getAttributes()));
+                for (String sample : reader.getFileHeader().getGenotypeSamples()) {
+                    final Genotype genotype = variant.getGenotype(sample);
+                    builder.append(' ').append(sample).append('=').append(genotype.getGenotypeString(false))
+                            .append(genotype.isPhased() ? "|" : "/")
+                            .append(genotype.hasAD() ? Arrays.toString(genotype.getAD()) : "")
+                            .append(genotype.getDP()).append(',').append(genotype.getGQ())
+                            .append(genotype.hasPL() ? Arrays.toString(genotype.getPL()) : "")
+                            .append(getPresentAttributes(genotype));
+                }
+                variants.add(builder.toString());
+            }
+        }
+        return variants;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFormatHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the values read from raw lines with the ones decoded by htsjdk.
+ */
+public class VcfLineTest {
+
+    private static final String[] FILES = {"sample.vcf", "Sample1.vcf", "s002.vcf", "lines.vcf"};
+
+    @Test
+    public void testColumns() throws Exception {
+        for (String name : FILES) {
+            final File file = VcfParallelReaderFilterTest.getFile(name);
+            final VCFCodec codec = getCodec(file);
+            for (String text : getLines(file)) {
+                for (VcfLine line : List.of(new VcfLine(text, codec), new VcfLine(toBytes(text), codec))) {
+                    final VariantContext variant = codec.decode(text);
+                    Assertions.assertEquals(variant.getContig(), line.getChrom());
+                    Assertions.assertEquals(variant.getStart(), line.getPos());
+                    Assertions.assertEquals(variant.getID(), line.getId());
+                    Assertions.assertEquals(variant.getReference().getDisplayString(), line.getRef());
+                    Assertions.assertEquals(variant.getAlternateAlleles().isEmpty() ? "."
+                            : variant.getAlternateAlleles().stream()
+                            .map(Allele::getDisplayString)
+                            .collect(Collectors.joining(",")), line.getAlt());
+                    Assertions.assertEquals(variant.getPhredScaledQual(), line.getQual());
+                    Assertions.assertEquals(variant.getFilters().toString(), line.getFilters());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInfo() throws Exception {
+        for (String name : FILES) {
+            final File file = VcfParallelReaderFilterTest.getFile(name);
+            final VCFCodec codec = getCodec(file);
+            final VCFHeader header = codec.getHeader();
+            for (String text : getLines(file)) {
+                final VcfLine line = new VcfLine(toBytes(text), codec);
+                final VariantContext variant = codec.decode(text);
+                for (VCFInfoHeaderLine info : header.getInfoHeaderLines())
+                    Assertions.assertEquals(variant.getAttribute(info.getID()), line.getInfo(info.getID()),
+                            () -> name + " " + info.getID() + " in " + text);
+                for (String key : variant.getAttributes().keySet())
+                    Assertions.assertEquals(variant.getAttribute(key), line.getInfo(key));
+                Assertions.assertNull(line.getInfo("NOT_A_KEY"));
+                Assertions.assertEquals(VcfLine.MISSING, line.findInfo("NOT_A_KEY"));
+            }
+        }
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        for (String name : FILES) {
+            final File file = VcfParallelReaderFilterTest.getFile(name);
+            final VCFCodec codec = getCodec(file);
+            final VCFHeader header = codec.getHeader();
+            final List<String> samples = header.getGenotypeSamples();
+            for (String text : getLines(file)) {
+                final VcfLine line = new VcfLine(toBytes(text), codec);
+                final VariantContext variant = codec.decode(text);
+                for (int s = 0; s < samples.size(); s++) {
+                    final Genotype genotype = variant.getGenotype(samples.get(s));
+                    Assertions.assertEquals(LightSampleFilter.getZigosity(genotype),
+                            LightSampleFilter.getZigosity(line.getGenotype(samples.get(s))));
+                    Assertions.assertEquals(line.getGenotype(samples.get(s)), line.getGenotype(s));
+                    for (VCFFormatHeaderLine format : header.getFormatHeaderLines())
+                        if (!format.getID().equals("GT")) assertFormat(genotype, format.getID(), line.getFormat(s, format.getID()));
+                }
+                Assertions.assertNull(line.getGenotype("NOT_A_SAMPLE"));
+            }
+        }
+    }
+
+    private static void assertFormat(Genotype genotype, String key, String value) {
+        switch (key) {
+            case "DP":
+                Assertions.assertEquals(genotype.hasDP() ? String.valueOf(genotype.getDP()) : null, missing(value));
+                break;
+            case "GQ":
+                Assertions.assertEquals(genotype.hasGQ() ? String.valueOf(genotype.getGQ()) : null, missing(value));
+                break;
+            case "AD":
+                Assertions.assertEquals(genotype.hasAD() ? toString(genotype.getAD()) : null, missing(value));
+                break;
+            case "PL":
+                Assertions.assertEquals(genotype.hasPL() ? toString(genotype.getPL()) : null, missing(value));
+                break;
+            default:
+                final Object expected = genotype.getExtendedAttribute(key);
+                Assertions.assertEquals(expected == null ? null : String.valueOf(expected), missing(value));
+        }
+    }
+
+    private static String missing(String value) {
+        return value == null || value.equals(".") ? null : value;
+    }
+
+    private static String toString(int[] values) {
+        return Arrays.stream(values).mapToObj(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    static VCFCodec getCodec(File file) {
+        final VCFHeader header = VcfParallelReaderFilterTest.getHeader(file);
+        final VCFCodec codec = new VCFCodec();
+        codec.setVCFHeader(header, header.getVCFHeaderVersion() == null
+                ? VCFHeaderVersion.VCF4_2 : header.getVCFHeaderVersion());
+        return codec;
+    }
+
+    static List<String> getLines(File file) throws Exception {
+        final List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath())) if (!line.startsWith("#")) lines.add(line);
+        return lines;
+    }
+
+    /**
+     * @return the line as the reader of plain files sees it, a view of the bytes of the file
+     */
+    private static CharSequence toBytes(String line) {
+        final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return new ByteSlice(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+}
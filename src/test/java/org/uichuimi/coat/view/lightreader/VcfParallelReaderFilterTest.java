@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) UICHUIMI 2017
+ *
+ * This file is part of Coat.
+ *
+ * Coat is free software:
+ * you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Coat is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Coat.
+ *
+ * If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.uichuimi.coat.view.lightreader;
+
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.Function;
+
+public class VcfParallelReaderFilterTest {
+
+    static File getFile(String name) throws Exception {
+        return new File(VcfParallelReaderFilterTest.class.getResource("/files/" + name).toURI());
+    }
+
+    static VCFHeader getHeader(File file) {
+        try (VCFFileReader reader = new VCFFileReader(file, false)) {
+            return reader.getFileHeader();
+        }
+    }
+
+    @Test
+    public void testReadsEveryLine() throws Exception {
+        final File file = getFile("sample.vcf");
+        final VCFHeader header = getHeader(file);
+        int total = 0;
+        try (VcfParallelReaderFilter<String> reader = new VcfParallelReaderFilter<>(file, header,
+                line -> line.getPos() > 1000000, VcfLine::getChrom)) {
+            while (reader.nextBatch() != null) ;
+            total += reader.getTotal();
+            Assertions.assertEquals(3, reader.getPassed());
+        }
+        Assertions.assertEquals(5, total);
+    }
+
+    @Test
+    public void testReaderErrorWithFullQueue() throws Exception {
+        final File file = getFile("sample.vcf");
+        final VCFHeader header = getHeader(file);
+        long first;
+        try (SeekableLineReader reader = SeekableLineReader.openSequential(file)) {
+            CharSequence line;
+            do line = reader.readSequence(); while (line.charAt(0) == '#');
+            first = reader.getPointer();
+        }
+        // Reads the same line in as many batches as the ordered queue can hold, and then fails
+        final int batches = 4 * Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final long[] pointers = new long[batches * 1000 + 1];
+        Arrays.fill(pointers, first);
+        pointers[pointers.length - 1] = -1;
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+            try (VcfParallelReaderFilter<VcfLine> reader = new VcfParallelReaderFilter<>(file, header, pointers,
+                    line -> true, Function.identity())) {
+                // Lets the reader fill the queue before consuming
+                Thread.sleep(500);
+                Assertions.assertThrows(RuntimeException.class, () -> {
+                    while (reader.nextBatch() != null) ;
+                });
+                Assertions.assertEquals(batches * 1000, reader.getTotal());
+            }
+        });
+    }
+
+    @Test
+    public void testWorkerError() throws Exception {
+        final File file = getFile("sample.vcf");
+        final VCFHeader header = getHeader(file);
+        long first;
+        try (SeekableLineReader reader = SeekableLineReader.openSequential(file)) {
+            CharSequence line;
+            do line = reader.readSequence(); while (line.charAt(0) == '#');
+            first = reader.getPointer();
+        }
+        // The second batch fails with an Error, and the scan must not return it or wait for the third one
+        final long[] pointers = new long[3000];
+        Arrays.fill(pointers, first);
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+            try (VcfParallelReaderFilter<VcfLine> reader = new VcfParallelReaderFilter<>(file, header, pointers,
+                    line -> true, line -> {
+                        if (line.getIndex() == 1500) throw new StackOverflowError();
+                        return line;
+                    })) {
+                Assertions.assertEquals(1000, reader.nextBatch().size());
+                final RuntimeException exception = Assertions.assertThrows(RuntimeException.class, reader::nextBatch);
+                Assertions.assertTrue(exception.getCause() instanceof StackOverflowError);
+                Assertions.assertNull(reader.nextBatch());
+            }
+        });
+    }
+}